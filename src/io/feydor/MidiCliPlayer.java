@@ -1,12 +1,14 @@
 package io.feydor;
 
-import io.feydor.midi.Midi;
+import io.feydor.midi.MidiBinaryCache;
+import io.feydor.midi.MidiLibrary;
 import io.feydor.ui.*;
 
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
 import java.io.File;
-import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 enum MidiCliOption {
@@ -25,6 +27,10 @@ enum MidiCliOption {
  */
 public final class MidiCliPlayer {
     private final MidiScheduler midiScheduler;
+    /** The # of messages that can wait for the output thread */
+    private static final int OUTPUT_CAPACITY = 4096;
+    private static final long SEEK_STEP_MS = 10_000;
+    private static final int PARSE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
 
     public static void main(String[] args) throws Exception {
         if (args.length < 1 || args[0].isBlank()) {
@@ -33,10 +39,44 @@ public final class MidiCliPlayer {
             return;
         }
 
-        List<File> files = new ArrayList<>();
+        List<File> roots = new ArrayList<>();
         var uiOption = MidiCliOption.STATUS_LINE_UI;
         boolean verbose = false, loop = false;
+        var waitStrategy = WaitStrategy.PARK_SPIN;
+        int lookaheadMs = 0;
+        double rate = 1.0;
+        int fps = MidiScheduler.DEFAULT_UI_FPS;
+        String cacheDir = null, recordTo = null;
+        var overflowPolicy = MidiOutput.OverflowPolicy.BLOCK;
         for (var arg : args) {
+            if (arg.startsWith("--wait=")) {
+                waitStrategy = WaitStrategy.fromName(arg.substring("--wait=".length()));
+                continue;
+            }
+            if (arg.startsWith("--cache=")) {
+                cacheDir = arg.substring("--cache=".length());
+                continue;
+            }
+            if (arg.startsWith("--record=")) {
+                recordTo = arg.substring("--record=".length());
+                continue;
+            }
+            if (arg.startsWith("--fps=")) {
+                fps = Integer.parseInt(arg.substring("--fps=".length()));
+                continue;
+            }
+            if (arg.startsWith("--rate=")) {
+                rate = Double.parseDouble(arg.substring("--rate=".length()));
+                continue;
+            }
+            if (arg.startsWith("--overflow=")) {
+                overflowPolicy = MidiOutput.OverflowPolicy.fromName(arg.substring("--overflow=".length()));
+                continue;
+            }
+            if (arg.startsWith("--lookahead=")) {
+                lookaheadMs = Integer.parseInt(arg.substring("--lookahead=".length()));
+                continue;
+            }
             switch (arg) {
                 case "-V", "--version" -> {
                     printVersion();
@@ -55,32 +95,54 @@ public final class MidiCliPlayer {
                 case "-E" -> uiOption = MidiCliOption.CHANNEL_UI;
                 case "-v", "--verbose" -> verbose = true;
                 case "-l", "--loop" -> loop = true;
-                default -> files.addAll(parseFiles(arg));
+                default -> {
+                    if (!arg.isBlank() && arg.charAt(0) != '-') roots.add(new File(arg));
+                }
             }
         }
 
-        MidiCliPlayer player = new MidiCliPlayer(files, uiOption, verbose);
+        // Walk the directories recursively, in parallel
+        List<String> files = MidiLibrary.findMidiFiles(roots);
+        if (verbose) System.out.printf("Found %d MIDI files\n", files.size());
+
+        var cache = cacheDir == null ? null : new MidiBinaryCache(Path.of(cacheDir));
+        if (recordTo != null) {
+            record(files, verbose, cache, rate, Path.of(recordTo));
+            System.exit(0);
+        }
+        MidiCliPlayer player = new MidiCliPlayer(files, uiOption, verbose, waitStrategy, lookaheadMs, overflowPolicy, cache);
+        player.midiScheduler.setRate(rate);
+        player.midiScheduler.setUiFrameRate(fps);
+        player.listenForControls();
         player.playAndBlock(loop);
+        System.exit(0);
     }
 
-    public MidiCliPlayer(List<File> files, MidiCliOption uiOption, boolean verbose) throws MidiUnavailableException {
-        // Filter out the invalid Midi files
-        List<Midi> playlist = files.stream().map(file -> {
-                    try {
-                        return new Midi(file.getAbsolutePath(), verbose);
-                    } catch (IOException e) {
-                        System.err.printf("The file failed to load: %s\n%s. Skipping...\n", file.getAbsolutePath(), e.getMessage());
-                        return null;
-                    }
-                })
-                .filter(Objects::nonNull)
-                .toList();
-
-        if (!playlist.isEmpty()) {
-            if (verbose) System.out.printf("Parsed %d MIDI files\n", playlist.size());
-            playlist = new ArrayList<>(playlist);
-            Collections.shuffle(playlist);
-        }
+    /**
+     * Play the files in order on a virtual clock, with no device and no UI, recording every message into a log
+     * with when it was due and sent. Runs as fast as the CPU allows.
+     */
+    private static void record(List<String> files, boolean verbose, MidiBinaryCache cache, double rate, Path log) throws Exception {
+        long start = System.nanoTime();
+        var clock = new VirtualClock();
+        var sink = new MessageLog(Files.newOutputStream(log), clock);
+        var library = new MidiLibrary(PARSE_THREADS, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, verbose, cache);
+        var scheduler = new MidiScheduler(null, files, sink, verbose, clock, null, 0, library);
+        scheduler.setRate(rate);
+        scheduler.scheduleEventsAndWait(false);
+        System.out.printf("Recorded %d messages, %s of playback in %dms\n", sink.count(),
+                new TotalTime(clock.nanoTime() / 1_000_000.0), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public MidiCliPlayer(List<String> files, MidiCliOption uiOption, boolean verbose) throws MidiUnavailableException {
+        this(files, uiOption, verbose, WaitStrategy.PARK_SPIN, 0, MidiOutput.OverflowPolicy.BLOCK, null);
+    }
+
+    public MidiCliPlayer(List<String> files, MidiCliOption uiOption, boolean verbose, WaitStrategy waitStrategy,
+                         int lookaheadMs, MidiOutput.OverflowPolicy overflowPolicy, MidiBinaryCache cache) throws MidiUnavailableException {
+        // Files are parsed as they come up to play, one ahead of the one playing
+        List<String> playlist = new ArrayList<>(files);
+        Collections.shuffle(playlist);
 
         // Get the default MIDI device and its receiver
         if (verbose) {
@@ -97,26 +159,50 @@ public final class MidiCliPlayer {
             case NO_UI -> null;
         };
 
-        this.midiScheduler = new MidiScheduler(ui, playlist, MidiSystem.getReceiver(), verbose);
+        // Parse the files coming up in parallel, keeping only the recently played ones
+        var library = new MidiLibrary(PARSE_THREADS, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, verbose, cache);
+        if (lookaheadMs > 0) {
+            // Timestamps need a device with a clock: play through the default synthesizer
+            var synth = MidiSystem.getSynthesizer();
+            synth.open();
+            var output = new MidiOutput(synth.getReceiver(), OUTPUT_CAPACITY, overflowPolicy);
+            this.midiScheduler = new MidiScheduler(ui, playlist, output, verbose, waitStrategy, synth, lookaheadMs, library);
+        } else {
+            // A slow device blocks the output thread, never the timing thread
+            var output = new MidiOutput(MidiSystem.getReceiver(), OUTPUT_CAPACITY, overflowPolicy);
+            this.midiScheduler = new MidiScheduler(ui, playlist, output, verbose, waitStrategy, null, 0, library);
+        }
     }
 
     public void playAndBlock(boolean loop) throws Exception {
         midiScheduler.scheduleEventsAndWait(loop);
     }
 
-    private static List<File> parseFiles(String filename) {
-        if (!filename.isBlank() && filename.charAt(0) != '-') {
-            File file = new File(filename);
-            if (file.isDirectory()) {
-                System.out.println("Found dir: " + file.getAbsolutePath());
-                File[] dirFiles = file.listFiles((dir, name) -> name.toLowerCase().matches("^.*\\.(midi|mid)$"));
-                if (dirFiles != null)
-                    return List.of(dirFiles);
-            } else {
-                return List.of(file);
+    /** Read playback controls from stdin on a daemon thread: p + Enter pauses or resumes, f/b seek 10s ahead/back */
+    private void listenForControls() {
+        var controls = new Thread(() -> {
+            var in = new Scanner(System.in);
+            while (in.hasNextLine()) {
+                switch (in.nextLine().trim()) {
+                    case "p" -> {
+                        if (midiScheduler.isPaused()) midiScheduler.resume();
+                        else midiScheduler.pause();
+                    }
+                    case "f" -> seekBy(SEEK_STEP_MS);
+                    case "b" -> seekBy(-SEEK_STEP_MS);
+                    default -> {}
+                }
             }
-        }
-        return List.of();
+        }, "midi-controls");
+        controls.setDaemon(true);
+        controls.start();
+    }
+
+    private void seekBy(long ms) {
+        var position = midiScheduler.position();
+        if (position == null) return;
+        long nanos = position.songNanos(midiScheduler.clockNanos()) + ms * 1_000_000;
+        midiScheduler.seek(new TotalTime(Math.max(0, nanos) / 1e6));
     }
 
     private static void printOptions() {
@@ -126,9 +212,17 @@ public final class MidiCliPlayer {
         msg += "\n  -B   Use the alternative tracker-like UI";
         msg += "\n  -C   Use the TUI-like UI";
         msg += "\n  -D   Use no UI";
+        msg += "\n  --cache=DIR   Keep parsed files in DIR, so they load without parsing next time";
+        msg += "\n  --record=FILE   Play on a virtual clock as fast as possible, logging every message to FILE";
+        msg += "\n  --fps=N   Draw the UI N times a second (Default: 30)";
+        msg += "\n  --rate=X   Play X times as fast, e.g. 0.5 or 1.25";
+        msg += "\n  --overflow=block|coalesce-cc|fail   When the device falls behind: wait (Default), keep the latest of each CC, or stop";
+        msg += "\n  --lookahead=MS   Send events MS early, timestamped by the synthesizer's clock (e.g. 20-100)";
+        msg += "\n  --wait=sleep|park|spin   How to wait between events: sleep, park then spin (Default), or busy-spin";
         msg += "\n  -V,--version   Print version information";
         msg += "\n  -H,--help      Print this message";
         msg += "\n  -v,--verbose   Print extra logs";
+        msg += "\n\nWhile playing, type p then Enter to pause or resume, f or b to skip 10s forward or back.";
         System.out.println(msg);
     }
 
@@ -10,21 +10,41 @@ import java.io.IOException;
 public class MidiDumper {
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.out.println("\nCOOL Midi Dumper\n\nUsage: cmidid [MIDI File]\n\n");
+            System.out.println("\nCOOL Midi Dumper\n\nUsage: cmidid [--header] [MIDI File]\n\n"
+                    + "  --header   Only dump the header and the size of each track, without decoding any events\n");
             return;
         }
 
-        dumpMidiFile(args[0]);
+        boolean headerOnly = args[0].equals("--header");
+        if (headerOnly && args.length < 2) {
+            System.out.println("Missing the MIDI file to dump");
+            return;
+        }
+
+        dumpMidiFile(args[headerOnly ? 1 : 0], headerOnly);
     }
 
-    private static void dumpMidiFile(String midiFile) {
+    private static void dumpMidiFile(String midiFile, boolean headerOnly) {
         Midi midi;
         try {
-             midi = new Midi(midiFile);
+             // Lazily, so nothing past the chunk headers is decoded until it is printed
+             midi = new Midi(midiFile, !headerOnly, true);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
+        if (headerOnly) {
+            System.out.printf("filename: %s\nheader: %s\n", midi.filename, midi.header);
+            System.out.println("Track|Bytes");
+            for (var track : midi.getTracks()) {
+                System.out.printf("%02d|%05d\n", track.trackNum, track.len);
+            }
+            return;
+        }
+
+        // channelsUsed is filled in as tracks are decoded
+        midi.loadAllTracks();
+
         System.out.println("Dumping MIDI file...");
         String out = String.format("filename: %s\nheader: %s\nchannels used (Max MIDI channels=16): %s\n", midi.filename, midi.header,
                 midiChannelsToString(midi.channelsUsed));
@@ -0,0 +1,127 @@
+package io.feydor;
+
+import io.feydor.midi.MidiIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Indexes the MIDI files of a library into an on-disk index, then prints summary statistics or the files matching a query
+ *
+ * <p>Usage: java MidiIndexer index.tsv [options] [dir1 dir2 file.mid]</p>
+ */
+public class MidiIndexer {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            printOptions();
+            return;
+        }
+
+        Path indexFile = Path.of(args[0]);
+        List<File> roots = new ArrayList<>();
+        Predicate<MidiIndex.Entry> where = entry -> !entry.failed();
+        boolean list = false;
+        for (var arg : Arrays.asList(args).subList(1, args.length)) {
+            if (arg.startsWith("--format=")) {
+                int format = Integer.parseInt(arg.substring("--format=".length()));
+                where = where.and(entry -> entry.format() == format);
+                list = true;
+            } else if (arg.startsWith("--program=")) {
+                int program = Integer.parseInt(arg.substring("--program=".length()));
+                where = where.and(entry -> entry.usesProgram(program));
+                list = true;
+            } else if (arg.startsWith("--channel=")) {
+                int channel = Integer.parseInt(arg.substring("--channel=".length()));
+                where = where.and(entry -> entry.usesChannel(channel));
+                list = true;
+            } else if (arg.startsWith("--min-seconds=")) {
+                long ms = Long.parseLong(arg.substring("--min-seconds=".length())) * 1000;
+                where = where.and(entry -> entry.durationMs() >= ms);
+                list = true;
+            } else if (arg.startsWith("--max-seconds=")) {
+                long ms = Long.parseLong(arg.substring("--max-seconds=".length())) * 1000;
+                where = where.and(entry -> entry.durationMs() <= ms);
+                list = true;
+            } else if (arg.equals("--failed")) {
+                where = MidiIndex.Entry::failed;
+                list = true;
+            } else {
+                roots.add(new File(arg));
+            }
+        }
+
+        var previous = MidiIndex.read(indexFile);
+        var index = previous;
+        if (!roots.isEmpty()) {
+            long start = System.nanoTime();
+            index = MidiIndex.scan(roots, previous);
+            index.write(indexFile);
+            long reused = index.entries().stream().filter(entry -> previous.get(entry.path()) == entry).count();
+            System.out.printf("Indexed %d files (%d unchanged) in %dms\n", index.entries().size(), reused,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+
+        if (list) {
+            index.query(where).forEach(entry -> System.out.println(entry.path()));
+        } else {
+            printStats(index);
+        }
+    }
+
+    private static void printStats(MidiIndex index) {
+        var entries = index.entries();
+        var ok = entries.stream().filter(entry -> !entry.failed()).toList();
+        System.out.printf("files=%d failed=%d\n", entries.size(), entries.size() - ok.size());
+        if (ok.isEmpty()) return;
+
+        int[] formats = new int[3];
+        int[] channels = new int[16];
+        int[] programs = new int[128];
+        long durationMs = 0, events = 0, notes = 0;
+        for (var entry : ok) {
+            formats[entry.format()]++;
+            durationMs += entry.durationMs();
+            events += entry.events();
+            notes += entry.notes();
+            for (int c = 1; c <= 16; ++c) if (entry.usesChannel(c)) channels[c - 1]++;
+            for (int p = 0; p < 128; ++p) if (entry.usesProgram(p)) programs[p]++;
+        }
+
+        System.out.printf("format0=%d format1=%d format2=%d\n", formats[0], formats[1], formats[2]);
+        System.out.printf("total duration=%s mean duration=%s\n", hms(durationMs), hms(durationMs / ok.size()));
+        System.out.printf("events=%d notes=%d mean events/file=%d\n", events, notes, events / ok.size());
+        System.out.println("Channel|#Files");
+        for (int c = 0; c < 16; ++c) {
+            System.out.printf("%02d|%d\n", c + 1, channels[c]);
+        }
+        System.out.println("Top programs (Program|#Files):");
+        Integer[] byUse = new Integer[128];
+        for (int p = 0; p < 128; ++p) byUse[p] = p;
+        Arrays.sort(byUse, Comparator.comparingInt((Integer p) -> programs[p]).reversed());
+        for (int i = 0; i < 10 && programs[byUse[i]] > 0; ++i) {
+            System.out.printf("%03d|%d\n", byUse[i], programs[byUse[i]]);
+        }
+    }
+
+    private static String hms(long ms) {
+        long s = ms / 1000;
+        return String.format("%02d:%02d:%02d", s / 3600, s / 60 % 60, s % 60);
+    }
+
+    private static void printOptions() {
+        String msg = "\nCOOL Midi Indexer\n\nUsage: cmidix [Index File] [Options] [MIDI Files and Directories]\n\n";
+        msg += "Scans the directories recursively, only re-indexing files that changed, then prints summary statistics.\n";
+        msg += "With no files or directories, the existing index is used as is.\n\n";
+        msg += "Query options, print the matching files instead:\n";
+        msg += "\n  --format=N         Files in MIDI format N";
+        msg += "\n  --program=N        Files that select program N";
+        msg += "\n  --channel=N        Files that play on channel N (1-16)";
+        msg += "\n  --min-seconds=N    Files at least N seconds long";
+        msg += "\n  --max-seconds=N    Files at most N seconds long";
+        msg += "\n  --failed           Files that could not be indexed";
+        System.out.println(msg);
+    }
+}
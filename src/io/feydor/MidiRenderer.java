@@ -0,0 +1,122 @@
+package io.feydor;
+
+import io.feydor.midi.Midi;
+import io.feydor.midi.MidiLibrary;
+import io.feydor.ui.PreparedTimeline;
+import io.feydor.ui.TotalTime;
+import io.feydor.ui.WavRenderer;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Soundbank;
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders MIDI files to WAV files with the JDK's software synthesizer, faster than realtime and in parallel
+ *
+ * <p>Usage: java MidiRenderer [options] dir1 file.mid</p>
+ */
+public class MidiRenderer {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            printOptions();
+            return;
+        }
+
+        List<File> roots = new ArrayList<>();
+        Path outDir = Path.of(".");
+        int threads = Runtime.getRuntime().availableProcessors();
+        long tailMs = 2000;
+        float sampleRate = WavRenderer.DEFAULT_FORMAT.getSampleRate();
+        Soundbank soundbank = null;
+        for (var arg : args) {
+            if (arg.startsWith("--out=")) {
+                outDir = Path.of(arg.substring("--out=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--tail=")) {
+                tailMs = Long.parseLong(arg.substring("--tail=".length()));
+            } else if (arg.startsWith("--sample-rate=")) {
+                sampleRate = Float.parseFloat(arg.substring("--sample-rate=".length()));
+            } else if (arg.startsWith("--soundbank=")) {
+                soundbank = MidiSystem.getSoundbank(new File(arg.substring("--soundbank=".length())));
+            } else if (arg.equals("-h") || arg.equals("--help")) {
+                printOptions();
+                return;
+            } else {
+                roots.add(new File(arg));
+            }
+        }
+
+        if (!WavRenderer.isSupported()) {
+            System.out.println("The software synthesizer's stream interface is not accessible, "
+                    + "run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+            System.exit(1);
+        }
+
+        Files.createDirectories(outDir);
+        var files = MidiLibrary.findMidiFiles(roots);
+        var renderer = new WavRenderer(new AudioFormat(sampleRate, 16, 2, true, false), soundbank, tailMs);
+
+        // Name the outputs up front so files with the same name in different directories don't collide
+        Map<String, Path> outputs = new LinkedHashMap<>();
+        Set<String> names = new HashSet<>();
+        for (var file : files) {
+            String base = Path.of(file).getFileName().toString().replaceFirst("(?i)\\.midi?$", "");
+            String name = base;
+            for (int i = 2; !names.add(name); ++i) name = base + "-" + i;
+            outputs.put(file, outDir.resolve(name + ".wav"));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Long>> rendered = new ArrayList<>();
+        for (var output : outputs.entrySet()) {
+            rendered.add(pool.submit(() -> {
+                long t0 = System.nanoTime();
+                var song = new PreparedTimeline(new Midi(output.getKey(), false));
+                long frames = renderer.renderWav(song, output.getValue());
+                long ms = (System.nanoTime() - t0) / 1_000_000;
+                double audioMs = frames * 1000.0 / renderer.frameRate();
+                System.out.printf("Rendered %s (%s in %dms, %.1fx realtime)\n", output.getValue(),
+                        new TotalTime(audioMs), ms, audioMs / Math.max(1, ms));
+                return frames;
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        long frames = 0;
+        var it = outputs.keySet().iterator();
+        for (var result : rendered) {
+            String file = it.next();
+            try {
+                frames += result.get();
+            } catch (Exception e) {
+                failed++;
+                System.out.printf("The file failed to render: %s\n%s. Skipping...\n", file, e.getCause());
+            }
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("Rendered %d of %d files, %s of audio in %dms\n", files.size() - failed, files.size(),
+                new TotalTime(frames * 1000.0 / renderer.frameRate()), ms);
+    }
+
+    private static void printOptions() {
+        String msg = "\nCOOL Midi Renderer\n\nUsage: cmidir [Options] [MIDI Files and Directories]\n\n";
+        msg += "Renders every file to a WAV file as fast as possible, several files at a time.\n\n";
+        msg += "Options:\n";
+        msg += "\n  --out=DIR          Where to write the WAV files (Default: the current directory)";
+        msg += "\n  --threads=N        Render N files at a time (Default: the # of cores)";
+        msg += "\n  --tail=MS          Keep rendering MS past the last event (Default: 2000)";
+        msg += "\n  --sample-rate=HZ   The sample rate (Default: 44100)";
+        msg += "\n  --soundbank=FILE   Play with the instruments of a SF2 or DLS file";
+        System.out.println(msg);
+    }
+}
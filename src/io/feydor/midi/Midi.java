@@ -5,10 +5,12 @@ import io.feydor.midi.exceptions.MidiParseException;
 import io.feydor.util.ByteFns;
 import io.feydor.util.VarLenQuant;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
@@ -30,39 +32,58 @@ public class Midi {
     public MidiChunk.Header header;
     private final CopyOnWriteArrayList<MidiChunk.Track> tracks = new CopyOnWriteArrayList<>();
     private final List<MidiChunk.Track> unmodifiableTracks;
-    public final boolean[] channelsUsed = new boolean[16]; // channels 0-15 -> 1-16
+    /**
+     * The channels that play a note, pitch bend or pressure, 0-15 -> 1-16. Filled in as each track is decoded: in
+     * lazy mode it only covers the tracks loaded so far, call {@link #loadAllTracks()} first for the whole file.
+     */
+    public final boolean[] channelsUsed = new boolean[16];
     public final String filename;
-    private static final String END_OF_TRACK = "FF2f00";
+    /** The status and type bytes of an End of Track event (FF 2F 00), as packed by PackedEvents */
+    private static final int END_OF_TRACK_WORD = 0x2FFF;
     private final boolean verbose;
+    private final boolean lazy;
+    /** Built from the conductor track on first use */
+    private volatile TempoMap tempoMap;
 
     /**
      * Parses the Midi file
      * @param filename The file to parse
+     * @param lazy When set, only the header and the offset of each track chunk are read up front.
+     *             Each track's events are decoded the first time they are accessed and can be released again,
+     *             see {@link MidiChunk.Track#release()}. The file stays mapped for the lifetime of this object.
+     *             {@link #channelsUsed} only covers the tracks decoded so far.
      * @throws MidiParseException When the file is unparsable
      */
-    public Midi(String filename, boolean verbose) throws IOException {
+    public Midi(String filename, boolean verbose, boolean lazy) throws IOException {
         this.filename = filename;
         this.verbose = verbose;
+        this.lazy = lazy;
         parseMidiFile(filename);
         unmodifiableTracks = Collections.unmodifiableList(tracks);
     }
 
+    public Midi(String filename, boolean verbose) throws IOException {
+        this(filename, verbose, false);
+    }
+
     public Midi(String filename) throws IOException {
+        this(filename, true, false);
+    }
+
+    /** Reassembles a file parsed earlier, see {@link MidiBinaryCache} */
+    Midi(String filename, MidiChunk.Header header, List<MidiChunk.Track> tracks, boolean[] channelsUsed, TempoMap tempoMap) {
         this.filename = filename;
-        this.verbose = true;
-        parseMidiFile(filename);
-        unmodifiableTracks = Collections.unmodifiableList(tracks);
+        this.verbose = false;
+        this.lazy = false;
+        this.header = header;
+        this.tracks.addAll(tracks);
+        System.arraycopy(channelsUsed, 0, this.channelsUsed, 0, this.channelsUsed.length);
+        this.tempoMap = tempoMap;
+        unmodifiableTracks = Collections.unmodifiableList(this.tracks);
     }
 
     private void parseMidiFile(String filename) throws IOException {
-        FileInputStream filestream;
-        BufferedInputStream file;
-        try {
-            filestream = new FileInputStream(filename);
-            file = new BufferedInputStream(filestream);
-        } catch (FileNotFoundException ex) {
-            throw new MidiParseException("File not found!: " + filename);
-        }
+        ByteBuffer file = mapFile(filename);
 
         logDebug("Starting to parse " + filename);
 
@@ -70,58 +91,116 @@ public class Midi {
         header = MidiChunk.Header.readFrom(file);
 
         // Now since we know the # of tracks, we can start parsing the tracks and their events
-        for (int i = 0; i < header.ntracks; ++i) {
-            // <Track> = <header <id:4B> <chunklen:4B>> <events:1+ (see parseMidiTrack)>
-            byte[] id = file.readNBytes(4);
-            int len = ByteFns.toUnsignedInt(file.readNBytes(4));
+        // Phase 1: hop over the track chunk headers to find where each track's events are
+        List<TrackChunk> chunks = scanTrackChunks(file, header.ntracks);
+        int pos = chunks.isEmpty() ? MidiChunk.Header.CHUNK_BYTES : chunks.get(chunks.size() - 1).end();
+        for (int i = 0; i < chunks.size(); ++i) {
+            tracks.add(new MidiChunk.Track(this, i, file, chunks.get(i)));
+        }
 
-            var parsedTrack = parseMidiTrack(file, id, len, i, channelsUsed);
+        logDebug("Printing the MIDI header: " + header);
 
-            // The bytes read must equal the track len
-            if (parsedTrack.len != len) {
-                throw new MidiParseException("Messed up parsing a track: ntrack=" + i + " id=" + Arrays.toString(id) +
-                        " parsedTrack.len=" + parsedTrack.len);
-            }
+        if (file.limit() - pos > 1) {
+            logDebug("WARNING: We didn't reach the EoF and apparently there is still some bytes left over after track parsing. "
+                    + "So here's the rest of the bytes: " + ByteFns.toHex(file, pos, file.limit() - pos));
+        }
 
-            tracks.add(parsedTrack.track);
+        if (lazy) {
+            logDebug("Indexed %d tracks of %s, their events are decoded on first access\n", chunks.size(), filename);
+            return;
         }
 
+        // Phase 2: each track carries its own length, so they are decoded independently on the fork-join pool
+        tracks.parallelStream().forEach(MidiChunk.Track::load);
+        // Nothing will be decoded again, so let go of the mapped file
+        tracks.forEach(MidiChunk.Track::detach);
+
         // In format 1, all tracks get their tempo from the first global tempo track
         // In format 1, all tracks get their time signature from the first global tempo track
         if (header.format == MidiFileFormat.FORMAT_1) {
-            int firstTrackTempo = tracks.get(0).tempo;
-            var firstTimeSig = tracks.get(0).timeSignature;
-            logDebug("MIDI Format 1: Aligning all track tempos with the first global tempo track (%d) ...\n", firstTrackTempo);
-            logDebug("MIDI Format 1: Aligning all track time signatures with the first global tempo track (%s) ...\n", firstTimeSig);
-
-            for (var track : tracks) {
-                track.tempo = firstTrackTempo;
-                track.timeSignature = firstTimeSig;
-            }
+            logDebug("MIDI Format 1: Aligned all track tempos with the first global tempo track (%d) ...\n", tracks.get(0).getTempo());
+            logDebug("MIDI Format 1: Aligned all track time signatures with the first global tempo track (%s) ...\n",
+                    tracks.get(0).getTimeSignature());
         }
 
-        logDebug("Printing the MIDI header: " + header);
+        logDebug("Finished parsing " + filename);
+    }
 
-        if (file.available() > 1) {
-            byte[] remaining = file.readAllBytes();
-            logDebug("WARNING: We didn't reach the EoF and apparently there is still some bytes left over after track parsing. "
-                    + "So here's the rest of the bytes: " + ByteFns.toHex(remaining));
+    /**
+     * Opens a MIDI file for streaming: events are decoded one at a time as they are pulled, in time order across
+     * all of the tracks, without ever holding the whole file's events in memory.
+     * @param filename The file to stream
+     * @throws MidiParseException When the file is not found or its header is invalid
+     */
+    public static MidiEventStream openStream(String filename) throws IOException {
+        return new MidiEventStream(filename);
+    }
+
+    /** Decodes every track that is not loaded yet, in parallel */
+    public void loadAllTracks() {
+        tracks.parallelStream().forEach(MidiChunk.Track::load);
+    }
+
+    private void markChannelsUsed(boolean[] trackChannelsUsed) {
+        synchronized (channelsUsed) {
+            for (int ch = 0; ch < channelsUsed.length; ++ch) {
+                channelsUsed[ch] |= trackChannelsUsed[ch];
+            }
         }
+    }
 
-        logDebug("Finished parsing " + filename);
-        file.close();
+    /** True when the tracks' events are decoded on first access */
+    public boolean isLazy() {
+        return lazy;
     }
 
-    public void updateGlobalTempo(int newTempo) {
-        if (newTempo < 1) {
-            throw new IllegalArgumentException("newTempo must be greater than 0: newTempo=" + newTempo);
+    /** Where a track chunk's events are in the file */
+    record TrackChunk(int offset, int len) {
+        int end() {
+            return offset + len;
         }
-        if (header.format != MidiFileFormat.FORMAT_1) {
-            throw new IllegalStateException("Only Format 1 MIDI files have a global tempo");
+    }
+
+    /**
+     * Reads just the 8-byte header of each track chunk, skipping over the events
+     * @return The offset and length of every track chunk's events, in file order
+     * @throws MidiParseException When a chunk header is invalid or a chunk runs past the EoF
+     */
+    static List<TrackChunk> scanTrackChunks(ByteBuffer file, int ntracks) {
+        var chunks = new ArrayList<TrackChunk>(ntracks);
+        int pos = MidiChunk.Header.CHUNK_BYTES;
+        for (int i = 0; i < ntracks; ++i) {
+            // <Track> = <header <id:4B> <chunklen:4B>> <events:1+ (see parseMidiTrack)>
+            if (file.limit() - pos < 8) {
+                throw new MidiParseException("Reached the EoF before the track chunk header: ntrack=" + i + " offset=" + pos);
+            }
+            byte[] id = new byte[4];
+            file.get(pos, id);
+            if (!Arrays.equals(id, MidiIdentifier.MTrk.id)) {
+                throw new MidiParseException("Messed up parsing a track header! id=" + Arrays.toString(id));
+            }
+            int len = ByteFns.toUnsignedInt(file, pos + 4);
+            pos += 8;
+
+            if (len > file.limit() - pos) {
+                throw new MidiParseException("Messed up parsing a track: ntrack=" + i + " len=" + len + " is past the EoF");
+            }
+
+            chunks.add(new TrackChunk(pos, len));
+            pos += len;
         }
+        return chunks;
+    }
 
-        for (var track : tracks) {
-            track.setTempo(newTempo);
+    /**
+     * Maps the whole file into memory, read-only. The mapping stays valid after the channel is closed.
+     * @throws MidiParseException When the file does not exist
+     */
+    static ByteBuffer mapFile(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException ex) {
+            throw new MidiParseException("File not found!: " + filename);
         }
     }
 
@@ -139,15 +218,37 @@ public class Midi {
     }
 
     /**
-     * Current milliseconds per tick for the MIDI file
-     * @throws IllegalStateException When this MIDI files is not in format 1
+     * Every tempo change of the file, taken from the conductor track: the only track in format 0, the first in format 1
+     * @throws IllegalStateException When this MIDI file is in format 2, where every track has its own tempo
      */
-    public double msPerTick() {
-        if (header.format != MidiFileFormat.FORMAT_1) {
-            throw new IllegalStateException("Only Format 1 MIDI files have a global tempo");
+    public TempoMap tempoMap() {
+        var map = tempoMap;
+        if (map != null) {
+            return map;
+        }
+        if (header.format == MidiFileFormat.FORMAT_2) {
+            throw new IllegalStateException("Format 2 MIDI files have no global tempo");
+        }
+        if (tracks.isEmpty()) {
+            return tempoMap = new TempoMap(new PackedEvents(0), header.tickdiv);
         }
+        return tempoMap = new TempoMap(tracks.get(0).packedEvents(), header.tickdiv);
+    }
 
-        return tracks.get(0).getTempo() / (double)header.tickdiv / 1000.0;
+    /**
+     * Milliseconds per tick at the start of the MIDI file
+     * @throws IllegalStateException When this MIDI file is in format 2
+     */
+    public double msPerTick() {
+        return tempoMap().msPerTick(0);
+    }
+
+    /**
+     * Milliseconds per tick at an absolute tick, following every tempo change before it
+     * @throws IllegalStateException When this MIDI file is in format 2
+     */
+    public double msPerTick(long tick) {
+        return tempoMap().msPerTick(tick);
     }
 
     /** Returns an unmodifiable view of the tracks */
@@ -159,23 +260,19 @@ public class Midi {
         return tracks.size();
     }
 
-    /** The result of parseMidiTrack: the parsed track and the # of bytes read */
-    private record MidiTrackParseResult(MidiChunk.Track track, int len) {}
+    /** The result of parseMidiTrack: the decoded events, the first tempo and time signature and the channels used */
+    private record MidiTrackParseResult(PackedEvents events, int tempo, MidiChunk.TimeSignature timeSignature,
+                                        boolean[] channelsUsed) {}
 
     /**
-     * Parse a Midi Track chunk
-     * @param file the filestream to read from
-     * @param id the id bytes parsed from the Track Chunk header
+     * Parse a Midi Track chunk. Events are decoded by absolute offset into the file, so each byte is read once
+     * and the buffer's position is never touched.
+     * @param file the mapped file to read from
+     * @param offset the offset of the first event in the Track Chunk (just after the chunk header)
      * @param len the # of bytes in the Track Chunk, parsed from the header
-     * @return the parsed track and the # of bytes read
+     * @return the decoded events and the track-wide state gathered while decoding them
      */
-    private MidiTrackParseResult parseMidiTrack(BufferedInputStream file, byte[] id, int len, int trackNum,
-                                                boolean[] channelUsed) throws IOException {
-        boolean isTrackChunk = Arrays.equals(id, MidiIdentifier.MTrk.id);
-        if (!isTrackChunk) {
-            throw new MidiParseException("Messed up parsing a track header! id=" + Arrays.toString(id));
-        }
-
+    private MidiTrackParseResult parseMidiTrack(ByteBuffer file, int offset, int len, int trackNum) {
         // Now time for event parsing
         // This is where the real *fun* begins
         // TODO: Skipping format 2 midis for now, though they should work as is
@@ -188,249 +285,51 @@ public class Midi {
         // - track #1 is a global tempo track, evey timing related event MUST be here
         // - tracks #2+ can ONLY be note data tracks
 
-        int bytesRead = 0;
-        var events = new ArrayList<MidiChunk.Event>();
-        MidiChunk.Event prevEvent = null; // Used to check for running status
-        short prevStatus = 0;
-        int tempo = 0; boolean tempoSet = false;
-        MidiChunk.TimeSignature timeSignature = null; boolean timeSignatureSet = false;
-        while (bytesRead < len) {
-            // The overall strategy here is this:
-            // For each event:
-            // 1. Read the mandatory VarLen delta-time
-            // 2. Save the position of the filestream which is at the first byte of the event data.
-            // 3. Read the first byte of the data and determine the event type
-            // 4. Advance the filestream however many bytes the specific event takes
-            // 5. At the end, reset the filestream to be at the first byte of the event
-            // 6. Read messageLen bytes to save the event & advance the filestream to the end of the event
-
-            // Format: <MTrk chunk> = <delta-time:VarLen(1-4B)><event:(2+ B)>
-            // Note: Delta-time is associated with an event
-            VarLenQuant dt = VarLenQuant.readBytes(file);
-            bytesRead += dt.nbytes;
-
-            file.mark(len); // mark position to return to when creating the message
-            int messageLen = 0; // the # of bytes in the message
-
-            // Look at first byte of the event (the status byte) to determine the type
-            short status = ByteFns.toUnsignedShort(file.readNBytes(1)); // to unsigned byte
-            messageLen++;
-            var pair = MidiEventType.fromStatusByte(status, prevEvent);
-            MidiEventType eventType = pair.first();
-            boolean runningStatus = pair.second();
-            if (runningStatus) {
-                status = prevStatus;
-            }
-
-            MidiEventSubType subType = MidiEventSubType.UNKNOWN;
-            int dataStart = 0;
-            int dataLen = 0;
-            switch (eventType) {
-                case META -> {
-                    // Meta-Event: <FF:1B> <type:1B> <len:Varlen><data:len B>
-                    short type = (short) (file.readNBytes(1)[0] & 0xFF);
-                    messageLen++;
-                    subType = MidiEventSubType.fromTypeByte(type);
-                    messageLen += switch (type) {
-                        // 8-byte events
-                        case 0x54 -> { // SMPTE Offset FF 54 05 hr mn se fr ff
-                            file.skipNBytes(6);
-                            dataStart = 3;
-                            dataLen = 5;
-                            yield 6;
-                        }
-                        // 7-byte events
-                        case 0x58 -> { // Time Signature FF 58 04 nn dd cc bb
-                            file.skipNBytes(1); // skip the 04
-                            byte[] timeSig = file.readNBytes(4);
-                            if ((timeSig[3] & 0xFF) != 0x08) {
-                                logDebug("WARNING: A Time Signature event (%s) is specifying a # of 32nd notes in a" +
-                                                "MIDI quarter-note (%02x) that is NOT supported by my parser, for now...\n",
-                                        "FF5804" + ByteFns.toHex(timeSig), timeSig[3] & 0xFF);
-                            }
-
-                            // TODO: Dynamically change time signature at runtime in MidiScheduler
-                            // For now, just save the first time signature event encountered
-                            var newTimeSig = new MidiChunk.TimeSignature(timeSig[0] & 0xFF, timeSig[1] & 0xFF,
-                                    timeSig[2] & 0xFF, timeSig[3] & 0xFF);
-                            if (timeSignatureSet) {
-                                logDebug("WARNING: The time signature for track#%d has already been set! Skipping... "
-                                                + "OLD=%s NEW=%s\n", trackNum, timeSignature, newTimeSig);
-                            } else {
-                                timeSignature = newTimeSig;
-                                timeSignatureSet = true;
-                                logDebug(String.format("New time signature detected: bytes=FF5804%s varlen_dt=%d parsed=%s",
-                                        ByteFns.toHex(timeSig), dt.value, newTimeSig));
-                            }
-
-                            dataStart = 3;
-                            dataLen = 4;
-                            yield 5;
-                        }
-                        // 6-byte events
-                        case 0x51 -> { // Tempo FF 51 03 tt tt tt
-                            file.skipNBytes(1); // skip the 03
-                            int newTempo = ByteFns.toUnsignedInt(file.readNBytes(3));
-                            // Setting the tempo of the track (and for format_1 all of the tracks) as the first SET_TEMPO event encountered
-                            // TODO: This is arbitrary but I will need to come up with a way to set each track'scurrent tempo dynamically at runtime
-                            if (tempoSet) {
-                                logDebug("WARNING: The tempo for track#%d has already been set! OLD=%d NEW=%d Skipping change...\n",
-                                        trackNum, tempo, newTempo);
-                            } else {
-                                tempo = newTempo;
-                                tempoSet = true;
-                            }
-
-                            dataStart = 3;
-                            dataLen = 3;
-                            yield 4;
-                        }
-                        // 5-byte events
-                        case 0x00, 0x59 -> { // Sequence Number (FF 00 02 ss ss),
-                                             // Key Signature (FF 59 02 sf mi)
-                            file.skipNBytes(3);
-                            dataStart = 3;
-                            dataLen = 2;
-                            yield 3;
-                        }
-                        // 4-byte events
-                        // MIDI Channel Prefix
-                        case 0x20, 0x21 -> { // MIDI Channel Prefix (FF 20 01 cc), MIDI Port
-                            file.skipNBytes(2);
-                            dataStart = 3;
-                            dataLen = 1;
-                            yield 2;
-                        }
-                        // 3-byte events
-                        case 0x2F -> { // End of Track FF 2F 00
-                            file.skipNBytes(1);
-                            dataStart = 2;
-                            yield 1;
-                        }
-                        // Text events, varlen
-                        case 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x7F -> {
-                            var length = VarLenQuant.readBytes(file);
-                            file.skipNBytes(length.value);
-                            dataStart = 2 + length.nbytes; // exclude the varlen bytes from the actual data bytes
-                            dataLen = length.value;
-                            yield length.value + length.nbytes; // rest of message len (varlen + data bytes)
-                        }
-                        default -> throw new MidiParseException("Unknown Meta-Event encountered! status=" + status);
-                    };
-                }
-                case MIDI -> {
-                    // Midi events: <status:1B> <data:1 | 2 B>
-                    // Special case: If the status byte is less than 0x80 (120),
-                    // then running status in effect which means that
-                    // this byte is actually the first data byte (the status is carried over from the previous event)
-                    // Only can occur if the last event was also a MIDI event.
-
-                    // Status byte is nibblised:
-                    // Top nibble is the message type
-                    // Lower nibble is the MIDI channel
-                    byte messageType = (byte)((status >> 4) & 0xF);
-                    byte channel = (byte)(status & 0xF);
-
-                    subType = MidiEventSubType.fromStatusNibble(messageType);
-                    messageLen += switch(messageType) {
-                        // 3-byte messages
-                        case 0x8, 0x9, 0xA, 0xB, 0xE : {
-                            if (messageType != 0xB) {
-                                // All messages except Controller
-                                channelUsed[channel] = true;
-                            }
-
-                            int nbyte = runningStatus ? 1 : 2;
-                            file.skipNBytes(nbyte);
-                            dataStart = 1;
-                            dataLen = 2;
-                            yield nbyte;
-                        }
-                        // 2-byte messages
-                        case 0xC, 0xD: {
-                            int nbyte = runningStatus ? 0 : 1;
-                            file.skipNBytes(nbyte);
-                            dataStart = 1;
-                            dataLen = 1;
-                            yield nbyte;
-                        }
-                        default: {
-                            String msg = String.format("Unexpected MIDI message!\n" +
-                                            "trackNum=%d, Status=%02x, messageType=%02x, subType=%s, bytesRead=%d, messageLen=%d",
-                                    trackNum, status, messageType, subType, bytesRead, messageLen);
-                            logDebug(msg);
-                            throw new IllegalStateException(msg);
-                        }
-                    };
-                }
-                case SYSEX -> {
-                    // SysEx event:
-                    // Complete message: <F0> <len:VarLen> <message:len B>
-                    var length = VarLenQuant.readBytes(file);
-                    file.skipNBytes(length.value);
-                    dataStart = 1 + length.nbytes;
-                    dataLen = length.value;
-                    messageLen += length.value + length.nbytes;
-                }
-                case UNKNOWN -> {
-                    String msg = String.format("Unexpected MIDI message!\n" +
-                                    "trackNum=%d, Status=%02x, bytesRead=%d, messageLen=%d, prevEvent=%s",
-                            trackNum, status, bytesRead, messageLen, prevEvent);
-                    throw new IllegalStateException(msg);
-                }
-            }
-
-            if (messageLen < 2 && !runningStatus) {
-                throw new RuntimeException("Failed to update the non-runningStatus message_len! status=" + status);
-            }
-
-            // Reset to the point before the event data
-            // Copy message_len bytes into a message buffer while advancing the filestream
-            // filestream should be at the end of the event
-            file.reset();
-            String message = ByteFns.toHex(file.readNBytes(messageLen));
-            bytesRead += messageLen;
+        var parser = new MidiTrackParser(file, offset, len, trackNum, verbose);
+        var events = new PackedEvents(len / 3); // most events are 3-byte MIDI messages with a 1-byte delta-time
+        var channelsUsed = new boolean[16];
+        parser.parseInto(events, channelsUsed);
+        events.trim();
 
-            // Just absolutely fuck it, add the previous status to the runningStatus message
-            // Yes, this negates the entire performance reason for having running status but it
-            // makes my life so easier so eh
-            if (runningStatus) {
-                message = ByteFns.toHex((byte) prevStatus) + message;
-            }
-
-            var event = new MidiChunk.Event(eventType, subType, dt.value, dt.nbytes, message, runningStatus, dataStart, dataLen);
-            prevEvent = event;
-            prevStatus = status;
-            events.add(event);
+        // The bytes read must equal the track len
+        if (parser.bytesRead() != len) {
+            throw new MidiParseException("Messed up parsing a track: ntrack=" + trackNum + " parsedTrack.len=" + parser.bytesRead());
         }
 
         // Last event in each chunk MUST be End of Track
-        if (!Midi.END_OF_TRACK.equalsIgnoreCase(events.get(events.size() - 1).message)) {
-            String msg = String.format("The last event in track#%d was NOT the End of Track event (%s): %s",
-                    trackNum, Midi.END_OF_TRACK, events.get(events.size() - 1).message);
+        int last = events.size() - 1;
+        if (last < 0 || (events.word(last) & 0xFFFF) != END_OF_TRACK_WORD || events.dataLength(last) != 0) {
+            String msg = String.format("The last event in track#%d was NOT the End of Track event (FF2F00): %s",
+                    trackNum, last < 0 ? "no events" : ByteFns.toHex(events.message(last)));
             throw new MidiParseException(msg);
         }
 
         // Format_1 only: Track#2+ must NOT have any timing related Meta Events
-        if (header.format == MidiFileFormat.FORMAT_1 && trackNum > 1) {
-            var timingRelatedEvents = events.stream().filter(e -> e.subType.isTimingRelated()).toList();
+        if (verbose && header.format == MidiFileFormat.FORMAT_1 && trackNum > 1) {
+            var timingRelatedEvents = new ArrayList<String>();
+            for (int i = 0; i < events.size(); ++i) {
+                int word = events.word(i);
+                if (PackedEvents.status(word) == 0xFF
+                        && MidiEventSubType.fromTypeByte((short) PackedEvents.data1(word)).isTimingRelated()) {
+                    timingRelatedEvents.add(ByteFns.toHex(events.message(i)));
+                }
+            }
             if (!timingRelatedEvents.isEmpty()) {
                 String msg = String.format("WARNING: In a format 1 Midi file, track#2+ must NOT have any timing related Meta Events," +
                         "but timing related Meta events were encountered!\n" +
-                        "track#=%d, bytesRead=%d, timing related events=%s", trackNum, bytesRead, timingRelatedEvents);
+                        "track#=%d, bytesRead=%d, timing related events=%s", trackNum, parser.bytesRead(), timingRelatedEvents);
                 logDebug(msg);
             }
         }
 
-        var track = new MidiChunk.Track(trackNum, id, len, events, tempo, timeSignature);
-        return new MidiTrackParseResult(track, bytesRead);
+        return new MidiTrackParseResult(events, parser.tempo, parser.timeSignature, channelsUsed);
     }
 
     public List<List<MidiChunk.Event>> eventsByDt() {
         return tracks.stream()
                 .flatMap(track -> track.events.stream())
-                .filter(event -> event.subType != MidiEventSubType.END_OF_TRACK)
-                .collect(Collectors.groupingBy(event -> event.ticks, TreeMap::new, Collectors.toList()))
+                .filter(event -> event.subType() != MidiEventSubType.END_OF_TRACK)
+                .collect(Collectors.groupingBy(event -> event.ticks(), TreeMap::new, Collectors.toList()))
                 .values()
                 .stream()
                 .toList();
@@ -441,24 +340,20 @@ public class Midi {
      * @return Every event sorted by absolute time in milliseconds
      */
     public List<List<MidiChunk.Event>> allEventsInAbsoluteTime() {
-        return updateAbsoluteTimes(-1).values().stream().toList();
-    }
-
-    public List<List<MidiChunk.Event>> allEventsInAbsoluteTime(long elapsedTime) {
-        return updateAbsoluteTimes(elapsedTime).values().stream().toList();
+        return updateAbsoluteTimes().values().stream().toList();
     }
 
     /**
-     * Converts every track's events relative delta-times into absolute times in milliseconds
-     * @return Every event sorted by absolute time in milliseconds
+     * Converts every track's events relative delta-times into absolute times in milliseconds, following the tempo map
+     * @return Every event grouped and sorted by absolute time in milliseconds
      */
-    public TreeMap<Double, List<MidiChunk.Event>> updateAbsoluteTimes(long elapsedTime) {
+    public TreeMap<Double, List<MidiChunk.Event>> updateAbsoluteTimes() {
         // convert track events in absolute time and keep in same internal order
         // but group all by absolute time
+        var tempoMap = tempoMap();
         return tracks.stream()
-                .flatMap(track -> track.eventsInAbsoluteTime2(header.tickdiv, elapsedTime).stream())
-                .filter(event -> event.absoluteTime > elapsedTime)
-                .filter(event -> event.subType != MidiEventSubType.END_OF_TRACK)
+                .flatMap(track -> track.updateAbsoluteTimes(tempoMap).stream())
+                .filter(event -> event.subType() != MidiEventSubType.END_OF_TRACK)
                 .collect(Collectors.groupingBy(MidiChunk.Event::absoluteTime, TreeMap::new, Collectors.toList()));
     }
 
@@ -491,6 +386,9 @@ public class Midi {
             public final int tickdiv;
             public final boolean useMetricalTiming;
 
+            /** The # of bytes in an MThd chunk, including its id and len */
+            public static final int CHUNK_BYTES = 14;
+
             private static final Map<Integer, MidiFileFormat> VALID_FORMATS = Map.of(
                     0, MidiFileFormat.FORMAT_0,
                     1, MidiFileFormat.FORMAT_1,
@@ -552,22 +450,23 @@ public class Midi {
             }
 
             /**
-             * Reads the bytes that make up a MIDI header from the file
-             * @param file an open file input stream
+             * Reads the bytes that make up a MIDI header from the start of the file
+             * @param file the whole file, mapped into memory
              * @return A MIDI Header
-             * @throws IOException When EOF or other file reading exception is thrown.
              */
-            public static Header readFrom(BufferedInputStream file) throws IOException {
-                if (file.available() < 1) {
-                    throw new IllegalArgumentException("The file input stream does not have any remaining bytes. file=" + file);
+            public static Header readFrom(ByteBuffer file) {
+                if (file.limit() < CHUNK_BYTES) {
+                    throw new IllegalArgumentException("The file is too short to hold a MIDI header: bytes=" + file.limit());
                 }
 
                 // <Header> = <ident:4B> <len:4B> <format:2B> <ntracks:2B> <tickdiv:2B>
-                byte[] chunkId = file.readNBytes(4);
-                int chunklen = ByteFns.toUnsignedInt(file.readNBytes(4));
-                short format = ByteFns.toUnsignedShort(file.readNBytes(2));
-                short ntracks = ByteFns.toUnsignedShort(file.readNBytes(2));
-                byte[] tickdiv = file.readNBytes(2);
+                byte[] chunkId = new byte[4];
+                file.get(0, chunkId);
+                int chunklen = ByteFns.toUnsignedInt(file, 4);
+                short format = ByteFns.toUnsignedShort(file, 8);
+                short ntracks = ByteFns.toUnsignedShort(file, 10);
+                byte[] tickdiv = new byte[2];
+                file.get(12, tickdiv);
                 return new MidiChunk.Header(chunkId, chunklen, format, ntracks, tickdiv);
             }
 
@@ -602,13 +501,35 @@ public class Midi {
             public final int trackNum;
             public final MidiIdentifier id;
             public final int len;
+            /** A read-only view over the packed events, each element is created on access */
             public final List<Event> events;
+            /** The file the events are decoded from, null when they can't be decoded (again) */
+            private final Midi owner;
+            private ByteBuffer source;
+            private final int offset;
+            private volatile PackedEvents packed;
+            /** Set once the tempo and time signature have been taken from the decoded events */
+            private boolean decoded;
+            /** The events' absolute times in milliseconds, not allocated until the track sets them */
+            private double[] absoluteTimes;
             /** In microseconds per quarter-note */
             private volatile int tempo;
-            public TimeSignature timeSignature;
+            private TimeSignature timeSignature;
 
-            public synchronized int getTempo() { return tempo; }
-            public synchronized void setTempo(int tempo) { this.tempo = tempo; }
+            public synchronized int getTempo() {
+                if (!decoded) load();
+                return tempo;
+            }
+
+            public synchronized void setTempo(int tempo) {
+                if (!decoded) load();
+                this.tempo = tempo;
+            }
+
+            public synchronized TimeSignature getTimeSignature() {
+                if (!decoded) load();
+                return timeSignature;
+            }
 
             /**
              * Constructs and validates a Midi Track
@@ -621,7 +542,7 @@ public class Midi {
                     int trackNum,
                     byte[] id,
                     int len,
-                    List<Event> events,
+                    PackedEvents events,
                     int tempo,
                     TimeSignature timeSignature
             ) {
@@ -636,73 +557,113 @@ public class Midi {
 
                 this.id = MidiIdentifier.MTrk;
                 this.len = len;
-                this.events = events;
+                this.owner = null;
+                this.offset = 0;
+                this.packed = events;
+                this.events = new EventList();
+                setDecodedState(tempo, timeSignature);
+                this.trackNum = trackNum;
+            }
+
+            /** A track whose events stay in the file until they are first accessed */
+            private Track(Midi owner, int trackNum, ByteBuffer source, TrackChunk chunk) {
+                this.id = MidiIdentifier.MTrk;
+                this.len = chunk.len();
+                this.owner = owner;
+                this.source = source;
+                this.offset = chunk.offset();
+                this.events = new EventList();
+                this.trackNum = trackNum;
+            }
+
+            private void setDecodedState(int tempo, TimeSignature timeSignature) {
                 // Set the default tempo of 500,000 microseconds per beat (120 BPM)
-                this.tempo = (tempo <= 0) ? 500_000 : tempo;
+                this.tempo = (tempo <= 0) ? TempoMap.DEFAULT_TEMPO : tempo;
                 // Set the default time signature of 4/4 with a metronome click every 1/4 note
                 this.timeSignature = (timeSignature == null) ? new TimeSignature(4, 2, 24, 8)
                                                              : timeSignature;
-                this.trackNum = trackNum;
+                this.decoded = true;
             }
 
             /**
-             * Convert the track's events relative delta-times into absolute times in milliseconds
-             * @param tickdiv Comes from the MIDI header
-             * @return The track's events sorted by absolute time in milliseconds
+             * Decodes the events from the file if they are not loaded
+             * @throws MidiParseException When the track is unparsable
              */
-            public List<Event> updateAbsoluteTimes(int tickdiv) {
-                double msPerTick = tempo / (double)tickdiv / 1000.0;
-
-                int t = 0;
-                List<Event> eventsSortedByAbsoluteTime = new ArrayList<>();
-                for (var event : events) {
-                    t += event.ticks;
-                    event.absoluteTime = t * msPerTick;
-                    eventsSortedByAbsoluteTime.add(event);
+            private synchronized PackedEvents load() {
+                if (packed != null) {
+                    return packed;
+                }
+                if (source == null) {
+                    throw new IllegalStateException("Track#" + trackNum + " has no file left to decode its events from");
                 }
 
-                return eventsSortedByAbsoluteTime;
+                var parsed = owner.parseMidiTrack(source, offset, len, trackNum);
+                owner.markChannelsUsed(parsed.channelsUsed());
+                if (!decoded) {
+                    // In format 1, all tracks get their tempo and time signature from the first global tempo track
+                    if (owner.header.format == MidiFileFormat.FORMAT_1 && trackNum > 0) {
+                        var conductor = owner.tracks.get(0);
+                        setDecodedState(conductor.getTempo(), conductor.getTimeSignature());
+                    } else {
+                        setDecodedState(parsed.tempo(), parsed.timeSignature());
+                    }
+                }
+                packed = parsed.events();
+                return packed;
             }
 
-            /** Does not modify the events. Makes a copy. */
-            public List<Event> eventsInAbsoluteTime(int tickdiv, long elapsedTime) {
-                double msPerTick = tempo / (double)tickdiv / 1000.0;
+            /** Forget the file once the events are loaded for good */
+            private synchronized void detach() {
+                source = null;
+            }
 
-                long t = 0;
-                List<Event> eventsCopy = new ArrayList<>(events);
-                List<Event> eventsSortedByAbsoluteTime = new ArrayList<>();
-                for (var event : eventsCopy) {
-//                    if (event.absoluteTime < elapsedTime) continue;
-                    t += event.ticks;
-                    event.absoluteTime = t * msPerTick;
-                    eventsSortedByAbsoluteTime.add(event);
+            /** True when the events are decoded and held in memory */
+            public boolean isLoaded() {
+                return packed != null;
+            }
+
+            /**
+             * Drops the decoded events, they are decoded again on the next access.
+             * @return false when the track was not opened lazily, and so its events are kept
+             */
+            public synchronized boolean release() {
+                if (source == null) {
+                    return false;
                 }
+                packed = null;
+                absoluteTimes = null;
+                return true;
+            }
 
-                return eventsSortedByAbsoluteTime;
+            /** The track's events as parallel primitive arrays. Reading these does not allocate. */
+            public PackedEvents packedEvents() {
+                var events = packed;
+                return events != null ? events : load();
+            }
+
+            private double[] absoluteTimes() {
+                if (absoluteTimes == null) {
+                    absoluteTimes = new double[packedEvents().size()];
+                }
+                return absoluteTimes;
             }
 
             /**
-             * Does not modify the events. Makes a copy.
-             * @param elapsedTime in milliseconds
-             * @return events after elapsedTime with absolute times per track tempo
+             * Convert the track's events relative delta-times into absolute times in milliseconds
+             * @param tempoMap The file's tempo changes
+             * @return The track's events sorted by absolute time in milliseconds
              */
-            public List<Event> eventsInAbsoluteTime2(int tickdiv, long elapsedTime) {
-                double msPerTick = tempo / (double)tickdiv / 1000.0;
-
-                long ticks = 0;
-//                List<Event> eventsCopy = new ArrayList<>(events);
-                List<Event> eventsSortedByAbsoluteTime = new ArrayList<>();
-                for (var event : events) {
-                    ticks += event.ticks;
-                    if (event.absoluteTime < elapsedTime) continue;
-
-                    // ticks caught up to elapsedTime, rest of ticks use new tempo/msPerTick
-//                    double newAbsoluteTime = event.absoluteTime +
-                    event.absoluteTime = ticks * msPerTick;
-                    eventsSortedByAbsoluteTime.add(event);
+            public List<Event> updateAbsoluteTimes(TempoMap tempoMap) {
+                var events = packedEvents();
+                double[] times = absoluteTimes();
+
+                long t = 0;
+                for (int i = 0; i < events.size(); ++i) {
+                    t += events.ticks(i);
+                    times[i] = tempoMap.tickToNanos(t) / 1_000_000.0;
                 }
 
-                return eventsSortedByAbsoluteTime;
+                return this.events;
             }
 
             @Override
@@ -713,6 +674,7 @@ public class Midi {
                         ", len=" + len +
                         ", tempo=" + tempo +
                         ", timeSignature=" + timeSignature +
+                        ", loaded=" + isLoaded() +
                         '}';
             }
 
@@ -724,65 +686,122 @@ public class Midi {
                         + String.format("%08x", len)
                         + events.stream().map(event -> event.hexdump()).collect(Collectors.joining(""));
             }
+
+            private final class EventList extends AbstractList<Event> implements RandomAccess {
+                @Override
+                public Event get(int index) {
+                    Objects.checkIndex(index, packedEvents().size());
+                    return new Event(Track.this, index);
+                }
+
+                @Override
+                public int size() {
+                    return packedEvents().size();
+                }
+            }
         }
 
         record MetaEventParseResult(int type, byte[] data, int len) {}
 
         record ChannelMidiEventParseResult(int cmd, int channel, int data1, int data2) {}
 
-        class Event {
+        /** A lightweight view of one of a track's packed events */
+        final class Event {
+            private final Track track;
+            private final int index;
+
+            Event(Track track, int index) {
+                this.track = track;
+                this.index = index;
+            }
+
+            private int word() {
+                return track.packedEvents().word(index);
+            }
+
+            /** The track this event belongs to */
+            public Track track() {
+                return track;
+            }
+
+            /** The event's index in its track's packed events */
+            public int index() {
+                return index;
+            }
+
             /** One of the three main types of Events: MIDI, Meta, or Sysex */
-            public final MidiEventType type;
+            public MidiEventType type() {
+                return switch (status()) {
+                    case 0xFF -> MidiEventType.META;
+                    case 0xF0, 0xF7 -> MidiEventType.SYSEX;
+                    default -> MidiEventType.MIDI;
+                };
+            }
 
             /** Specifies the specific event */
-            public final MidiEventSubType subType;
+            public MidiEventSubType subType() {
+                return switch (type()) {
+                    case META -> MidiEventSubType.fromTypeByte((short) data1());
+                    case MIDI -> MidiEventSubType.fromStatusNibble((byte) (status() >> 4));
+                    default -> MidiEventSubType.UNKNOWN;
+                };
+            }
 
             /** The duration of the event in ticks */
-            public final int ticks;
+            public int ticks() {
+                return track.packedEvents().ticks(index);
+            }
 
             /** The number of bytes used to store the ticks in the file. 1-4 bytes. */
-            public final int tickBytes;
+            public int tickBytes() {
+                return PackedEvents.tickBytes(word());
+            }
 
-            /** The event's bytes */
-            public final String message;
+            /** The status byte. Under running status this is the previous message's status byte. */
+            public int status() {
+                return PackedEvents.status(word());
+            }
+
+            /** The first data byte of a MIDI event, or the type byte of a Meta event */
+            public int data1() {
+                return PackedEvents.data1(word());
+            }
+
+            /** The second data byte of a 3-byte MIDI event */
+            public int data2() {
+                return PackedEvents.data2(word());
+            }
+
+            /** The event's bytes as hex. Decoded on every call. */
+            public String message() {
+                return ByteFns.toHex(track.packedEvents().message(index));
+            }
 
             /** If set, the message's status byte is the same the previous message and the receiver should assume it was the same as the last one. */
-            public final boolean runningStatus;
+            public boolean runningStatus() {
+                return PackedEvents.runningStatus(word());
+            }
 
             /** The byte where the data starts in the message */
-            public final int dataStart;
+            public int dataStart() {
+                if (!track.packedEvents().hasPayload(index)) return 1;
+                return (type() == MidiEventType.META ? 2 : 1) + track.packedEvents().payloadLenBytes(index);
+            }
 
             /** The byte length of the data in the message */
-            public final int dataLen;
+            public int dataLen() {
+                if (!track.packedEvents().hasPayload(index)) return subType().dataBytes();
+                return track.packedEvents().dataLength(index);
+            }
 
             /** Is not set until the track sets it */
-            public double absoluteTime;
-
-            /**
-             * A MidiEvent consists of:
-             * @param type The type of event (MIDI, SYSEX, or META)
-             * @param ticks a variable length quantity (1 - 4 bytes) denoting the time since the last event
-             * @param message 2 or more bytes describing the event itself
-             */
-            public Event(MidiEventType type, MidiEventSubType subType, int ticks, int tickBytes,
-                         String message, boolean runningStatus, int dataStart, int dataLen) {
-                if (tickBytes < 0 || tickBytes > 4) {
-                    throw new IllegalArgumentException("The varlen for ticks must be between 1 and 4 bytes: tickBytes=" + tickBytes);
-                }
-
-                this.type = type;
-                this.subType = subType;
-                this.ticks = ticks;
-                this.tickBytes = tickBytes;
-                this.message = message;
-                this.runningStatus = runningStatus;
-                this.dataStart = dataStart;
-                this.dataLen = dataLen;
+            public double absoluteTime() {
+                return track.absoluteTimes == null ? 0 : track.absoluteTimes[index];
             }
 
             /** Returns the number of bytes represented in the message */
             public int nbytes() {
-                return message.length() / 2;
+                return track.packedEvents().messageLength(index);
             }
 
             /**
@@ -790,72 +809,63 @@ public class Midi {
              * @return The type byte, the data, and the length of the message
              */
             public MetaEventParseResult parseAsMetaEvent() {
-                if (type != MidiEventType.META) {
+                if (type() != MidiEventType.META) {
                     throw new IllegalStateException("Attempting to parse a NON Meta event as a Meta event! event=" + this);
                 }
-                byte[] msgBytes = ByteFns.fromHex(message);
-                byte[] data = Arrays.copyOfRange(msgBytes, dataStart, msgBytes.length); // skip status + varlen
-
-                // Only End of Track events have 0 dataLen
-                if (data.length != dataLen && subType != MidiEventSubType.END_OF_TRACK) {
-                    throw new MidiParseException("data.length !+ dataLen: " + Arrays.toString(data) + " " + dataLen);
-                }
-
-                return new MetaEventParseResult(subType.idByte, data, data.length);
+                byte[] data = payloadData();
+                return new MetaEventParseResult(subType().idByte, data, data.length);
             }
 
             public ChannelMidiEventParseResult parseAsChannelMidiEvent() {
-                if (type != MidiEventType.MIDI) {
+                if (type() != MidiEventType.MIDI) {
                     throw new IllegalStateException("Attempting to parse a NON Midi event as a Midi event! " + this);
                 }
-                if (!subType.isChannelType()) {
+                if (!subType().isChannelType()) {
                     throw new RuntimeException("Attempting to parse a non-channel MIDI event! " + this);
                 }
 
-                int cmd = Integer.parseUnsignedInt(message.substring(0, 2), 16);
+                int cmd = status();
                 int channel = (cmd & 0xF);
-                int data1 = Integer.parseUnsignedInt(message.substring(2, 4), 16);
-                int data2 = message.length() == 6 ? Integer.parseUnsignedInt(message.substring(4), 16)
-                                                  : 0xDEADBEEF;
-                return new ChannelMidiEventParseResult(cmd, channel, data1, data2);
+                int data2 = subType().dataBytes() == 2 ? data2() : 0xDEADBEEF;
+                return new ChannelMidiEventParseResult(cmd, channel, data1(), data2);
             }
 
             public MetaEventParseResult parseAsSysexEvent() {
-                if (type != MidiEventType.SYSEX) {
+                if (type() != MidiEventType.SYSEX) {
                     throw new IllegalStateException("Attempting to parse a NON SYSEX event as a SYSEX event! " + this);
                 }
 
-                byte[] msg = ByteFns.fromHex(message);
-                byte[] data = Arrays.copyOfRange(msg, dataStart, msg.length);
-                int status = Integer.parseUnsignedInt(message.substring(0, 2), 16);
-                return new MetaEventParseResult(status, data, data.length);
+                byte[] data = payloadData();
+                return new MetaEventParseResult(status(), data, data.length);
+            }
+
+            private byte[] payloadData() {
+                int start = track.packedEvents().dataOffset(index);
+                return Arrays.copyOfRange(track.packedEvents().pool(), start, start + track.packedEvents().dataLength(index));
             }
 
             @Override
             public String toString() {
                 return "Event{" +
-                        "type=" + type +
-                        ", subType=" + subType +
-                        ", ticks=" + ticks +
-                        ", message='" + message + '\'' +
-                        ", runningStatus=" + runningStatus +
-                        ", dataStart=" + dataStart +
-                        ", dataLen=" + dataLen +
-                        ", absoluteTime=" + absoluteTime +
+                        "type=" + type() +
+                        ", subType=" + subType() +
+                        ", ticks=" + ticks() +
+                        ", message='" + message() + '\'' +
+                        ", runningStatus=" + runningStatus() +
+                        ", dataStart=" + dataStart() +
+                        ", dataLen=" + dataLen() +
+                        ", absoluteTime=" + absoluteTime() +
                         '}';
             }
 
-            public double absoluteTime() {
-                return absoluteTime;
-            }
-
             /**
              * The hexadecimal contents in the same format as Unix hexdump
              */
             public String hexdump() {
                 // running status means this event is using the previous event's status byte
-                String msgBytes = runningStatus ? message.substring(2) : message;
-                return VarLenQuant.encode(ticks) + msgBytes;
+                String msg = message();
+                String msgBytes = runningStatus() ? msg.substring(2) : msg;
+                return VarLenQuant.encode(ticks()) + msgBytes;
             }
         }
     }
@@ -0,0 +1,220 @@
+package io.feydor.midi;
+
+import io.feydor.midi.exceptions.MidiParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * A directory of pre-parsed MIDI files, so a library is only parsed once.
+ * <p>
+ * Each entry is the parsed model in a compact binary format: the MIDI header, channelsUsed, the tempo map and
+ * every track's packed events, stored as the arrays {@link PackedEvents} keeps them in. Entries are memory-mapped
+ * and bulk-copied back into those arrays, with no parsing at all.
+ * <p>
+ * An entry is named after its file's absolute path and records the file's size, last modified time and a CRC32C of
+ * its contents. It is used while the size and modified time match. When only the modified time changed,
+ * the contents are checksummed to tell a touched file from an edited one, and a touched file's entry takes the new
+ * modified time so the next load is cheap again. Stale, corrupt or older version entries are parsed again and rewritten.
+ * <p>
+ * Entry layout, big-endian:
+ * <pre>
+ * "MCCH" version:int size:long mtime:long crc32c:long pathLen:int path:UTF-8
+ * header:14B channelsUsed:16B tempoMap
+ * ntracks:int { len:int tempo:int timeSignature:4B events }*
+ * </pre>
+ */
+public final class MidiBinaryCache {
+    private static final int MAGIC = 0x4D434348; // MCCH
+    /** Bump whenever the layout or anything it stores changes */
+    static final int VERSION = 1;
+    private static final String SUFFIX = ".mcache";
+    /** Where mtime is in an entry: after the magic, the version and the size */
+    private static final int MTIME_OFFSET = 4 + 4 + 8;
+    /** A track with no events: its len, tempo, time signature, then the # of events and of pool bytes */
+    private static final int TRACK_MIN_BYTES = 4 + 4 + 4 + 4 + 4;
+
+    private final Path dir;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong checksums = new AtomicLong();
+
+    /**
+     * @param dir Where the entries live, created if missing
+     */
+    public MidiBinaryCache(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    /**
+     * The parsed file: from its entry when it is up to date, otherwise parsed and written to a new entry
+     * @throws MidiParseException When the file is not found or unparsable
+     */
+    public Midi load(String filename, boolean verbose) throws IOException {
+        Path source = Path.of(filename).toAbsolutePath();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            throw new MidiParseException("File not found!: " + filename);
+        }
+
+        Path entry = entryFor(source);
+        if (Files.isRegularFile(entry)) {
+            var midi = read(entry, filename, source, attrs);
+            if (midi != null) {
+                hits.incrementAndGet();
+                return midi;
+            }
+        }
+
+        misses.incrementAndGet();
+        var midi = new Midi(filename, verbose);
+        try {
+            write(entry, source, attrs, midi);
+        } catch (IOException e) {
+            // The cache is only an optimization
+            if (verbose) System.out.printf("WARNING: Could not write the cache entry for %s: %s\n", filename, e);
+        }
+        return midi;
+    }
+
+    Path entryFor(Path source) {
+        return dir.resolve(UUID.nameUUIDFromBytes(source.toString().getBytes(StandardCharsets.UTF_8)) + SUFFIX);
+    }
+
+    /** @return null when the entry is stale, corrupt or from another version */
+    private Midi read(Path entry, String filename, Path source, BasicFileAttributes attrs) throws IOException {
+        ByteBuffer in;
+        try (var channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) return null;
+            long size = in.getLong(), mtime = in.getLong(), crc = in.getLong();
+            byte[] path = new byte[checkCount(in.getInt(), 1, in)];
+            in.get(path);
+            if (size != attrs.size() || !Arrays.equals(path, source.toString().getBytes(StandardCharsets.UTF_8))) return null;
+            if (mtime != attrs.lastModifiedTime().toMillis()) {
+                if (crc != checksum(source)) return null;
+                touch(entry, attrs);
+            }
+
+            byte[] headerBytes = new byte[Midi.MidiChunk.Header.CHUNK_BYTES];
+            in.get(headerBytes);
+            var header = Midi.MidiChunk.Header.readFrom(ByteBuffer.wrap(headerBytes));
+            boolean[] channelsUsed = new boolean[16];
+            for (int i = 0; i < 16; ++i) {
+                channelsUsed[i] = in.get() != 0;
+            }
+            var tempoMap = in.get() != 0 ? TempoMap.readFrom(in) : null;
+
+            int ntracks = checkCount(in.getInt(), TRACK_MIN_BYTES, in);
+            var tracks = new ArrayList<Midi.MidiChunk.Track>(ntracks);
+            for (int i = 0; i < ntracks; ++i) {
+                int len = in.getInt(), tempo = in.getInt();
+                var timeSignature = new Midi.MidiChunk.TimeSignature(in.get() & 0xFF, in.get() & 0xFF, in.get() & 0xFF, in.get() & 0xFF);
+                tracks.add(new Midi.MidiChunk.Track(i, MidiIdentifier.MTrk.id, len, PackedEvents.readFrom(in), tempo, timeSignature));
+            }
+            return new Midi(filename, header, tracks, channelsUsed, tempoMap);
+        } catch (RuntimeException e) {
+            return null; // truncated or corrupt
+        }
+    }
+
+    /** A count read from an entry, if that many items of at least minBytes each fit in what is left of it */
+    private static int checkCount(int count, int minBytes, ByteBuffer in) {
+        if (count < 0 || (long) count * minBytes > in.remaining()) {
+            throw new IllegalArgumentException("More items than bytes left: count=" + count + ", remaining=" + in.remaining());
+        }
+        return count;
+    }
+
+    /** Only the file's modified time changed: record the new one, the rest of the entry is still valid */
+    private static void touch(Path entry, BasicFileAttributes attrs) throws IOException {
+        try (var channel = FileChannel.open(entry, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, attrs.lastModifiedTime().toMillis()), MTIME_OFFSET);
+        }
+    }
+
+    private void write(Path entry, Path source, BasicFileAttributes attrs, Midi midi) throws IOException {
+        byte[] path = source.toString().getBytes(StandardCharsets.UTF_8);
+        // Format 2 files have no tempo map
+        var tempoMap = midi.header.format == MidiFileFormat.FORMAT_2 ? null : midi.tempoMap();
+        var tracks = midi.getTracks();
+
+        int bytes = 4 + 4 + 8 + 8 + 8 + 4 + path.length + Midi.MidiChunk.Header.CHUNK_BYTES + 16
+                + 1 + (tempoMap == null ? 0 : tempoMap.serializedBytes()) + 4;
+        for (var track : tracks) {
+            bytes += 4 + 4 + 4 + track.packedEvents().serializedBytes();
+        }
+
+        var out = ByteBuffer.allocate(bytes);
+        out.putInt(MAGIC).putInt(VERSION)
+                .putLong(attrs.size()).putLong(attrs.lastModifiedTime().toMillis()).putLong(checksum(source))
+                .putInt(path.length).put(path);
+        try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            // The header is the first chunk of the file
+            channel.read(out.slice(out.position(), Midi.MidiChunk.Header.CHUNK_BYTES), 0);
+            out.position(out.position() + Midi.MidiChunk.Header.CHUNK_BYTES);
+        }
+        for (boolean used : midi.channelsUsed) {
+            out.put((byte) (used ? 1 : 0));
+        }
+        out.put((byte) (tempoMap == null ? 0 : 1));
+        if (tempoMap != null) tempoMap.writeTo(out);
+
+        out.putInt(tracks.size());
+        for (var track : tracks) {
+            var timeSignature = track.getTimeSignature();
+            out.putInt(track.len).putInt(track.getTempo())
+                    .put((byte) timeSignature.numerator()).put((byte) timeSignature.denominator())
+                    .put((byte) timeSignature.clocksPerClick()).put((byte) timeSignature.notated32ndNotesPerBeat());
+            track.packedEvents().writeTo(out);
+        }
+
+        // Write then rename, so a reader never maps a half written entry
+        Path tmp = Files.createTempFile(entry.getParent(), "entry", ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** The CRC32C of a file's contents */
+    private long checksum(Path source) throws IOException {
+        checksums.incrementAndGet();
+        try (var channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            var crc = new CRC32C();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+
+    /** The # of loads served from an entry */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** The # of loads that had to parse the file */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** The # of times a source file was checksummed, to write an entry or check a touched file */
+    long checksums() {
+        return checksums.get();
+    }
+}
@@ -1,23 +1,50 @@
 package io.feydor.midi;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
 /**
- * The current state of a single MIDI channel
+ * The current state of a single MIDI channel, written by the timing thread and read by any number of UI threads.
+ * <p>
+ * Guarded by a seqlock: the writer bumps a sequence number to odd before changing the state and back to even after,
+ * without ever waiting for readers. A reader copies the state into a {@link Snapshot} and retries if the sequence
+ * moved while it was copying, so it always sees the state between two whole updates. Snapshots are reused from
+ * frame to frame, reading allocates nothing. Only one thread may write at a time.
  */
 public class MidiChannel {
     public final int channel; // voice, 1 to 16
     public final boolean used;
-    public byte note; // 0 to 127
-    public boolean noteOn;
-    public byte noteVelocity; // 0 to 127
-    public final byte[] controllers; // controller values, 0 to 127, https://anotherproducer.com/online-tools-for-musicians/midi-cc-list/
-    public int lastController; // index of the last controller message on this channel
-    public byte program; // currently selected instrument, 0 to 127
-    public int pitchBend; // 0 to 16,383, 8,192 means no pitch bend
-    public byte pressure; // the pressure applied to all notes on the channel 0 to 127
-    public final byte[] polyphonicPressure; // polyphonic aftertouch values for individual notes on the channel, 0 to 127
+
+    // Guarded by seq, read them through snapshot()
+    /** The keys held down, bit k of notes[k / 64] for key k */
+    private final long[] notes = new long[2];
+    private final byte[] velocities; // the velocity each held key was struck with, 0 to 127
+    private final byte[] controllers; // controller values, 0 to 127, https://anotherproducer.com/online-tools-for-musicians/midi-cc-list/
+    private int lastController; // index of the last controller message on this channel
+    private byte program; // currently selected instrument, 0 to 127
+    private int pitchBend; // 0 to 16,383, 8,192 means no pitch bend
+    private byte pressure; // the pressure applied to all notes on the channel 0 to 127
+    private final byte[] polyphonicPressure; // polyphonic aftertouch values for individual notes on the channel, 0 to 127
+
+    /** Odd while the writer is changing the state */
+    private volatile long seq;
+    private static final VarHandle SEQ;
+
+    static {
+        try {
+            SEQ = MethodHandles.lookup().findVarHandle(MidiChannel.class, "seq", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public static final int CONTROLLER_VOLUME = 7;
     public static final int CONTROLLER_PAN = 10;
+    public static final int PITCH_BEND_CENTER = 8192;
+    private static final int CC_SUSTAIN = 64;
+    private static final int CC_ALL_SOUND_OFF = 120;
+    private static final int CC_ALL_NOTES_OFF = 123;
 
     public MidiChannel(int channel, boolean used) {
         if (channel < 1 || channel > 16)
@@ -25,57 +52,219 @@ public class MidiChannel {
         this.channel = channel;
         this.controllers = new byte[128]; // MIDI CC 120 to 127 are “Channel Mode Messages.”
         this.polyphonicPressure = new byte[128];
+        this.velocities = new byte[128];
         this.used = used;
     }
 
+    /**
+     * A consistent copy of a channel's state. Allocate one per channel and pass it to {@link #snapshot(Snapshot)}
+     * every frame.
+     */
+    public static final class Snapshot {
+        public int channel;
+        public boolean used;
+        /** The keys held down, bit k of notes[k / 64] for key k */
+        public final long[] notes = new long[2];
+        /** The velocity of each held key, 0 for keys that are up */
+        public final byte[] velocities = new byte[128];
+        public final byte[] controllers = new byte[128];
+        public int lastController;
+        public byte program;
+        public int pitchBend;
+        public byte pressure;
+        public final byte[] polyphonicPressure = new byte[128];
+
+        public byte getVolume() {
+            return controllers[CONTROLLER_VOLUME];
+        }
+
+        public boolean isNoteOn(int key) {
+            return (notes[key >> 6] >>> (key & 63) & 1) != 0;
+        }
+
+        /** The # of keys held down */
+        public int voices() {
+            return Long.bitCount(notes[0]) + Long.bitCount(notes[1]);
+        }
+
+        /** The highest key held down, -1 when none are */
+        public int highestNote() {
+            if (notes[1] != 0) return 127 - Long.numberOfLeadingZeros(notes[1]);
+            return 63 - Long.numberOfLeadingZeros(notes[0]); // -1 when empty
+        }
+
+        /** The lowest key held down, -1 when none are */
+        public int lowestNote() {
+            if (notes[0] != 0) return Long.numberOfTrailingZeros(notes[0]);
+            if (notes[1] != 0) return 64 + Long.numberOfTrailingZeros(notes[1]);
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return "MidiChannel{" +
+                    "channel=" + channel +
+                    ", voices=" + String.format("%03d", voices()) +
+                    ", lowest=" + String.format("%03d", lowestNote()) +
+                    ", highest=" + String.format("%03d", highestNote()) +
+                    ", volume=" + getVolume() +
+                    ", lastController=" + controllerName(lastController) +
+                    ", program=" + program +
+                    ", pitchBend=" + pitchBend +
+                    ", pressure=" + pressure +
+                    '}';
+        }
+    }
+
+    /**
+     * Copy the channel's state as it was between two updates. Never blocks the writer: retries while it is writing.
+     * @param into Overwritten with the state
+     * @return into
+     */
+    public Snapshot snapshot(Snapshot into) {
+        into.channel = channel;
+        into.used = used;
+        while (true) {
+            long before = (long) SEQ.getAcquire(this);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            into.notes[0] = notes[0];
+            into.notes[1] = notes[1];
+            System.arraycopy(velocities, 0, into.velocities, 0, 128);
+            System.arraycopy(controllers, 0, into.controllers, 0, 128);
+            into.lastController = lastController;
+            into.program = program;
+            into.pitchBend = pitchBend;
+            into.pressure = pressure;
+            System.arraycopy(polyphonicPressure, 0, into.polyphonicPressure, 0, 128);
+            VarHandle.loadLoadFence(); // the copies above are done before seq is read again
+            if ((long) SEQ.getOpaque(this) == before) {
+                return into;
+            }
+        }
+    }
+
+    private void beginWrite() {
+        SEQ.setOpaque(this, seq + 1);
+        VarHandle.storeStoreFence(); // odd is visible before any of the state changes
+    }
+
+    private void endWrite() {
+        SEQ.setRelease(this, seq + 1);
+    }
+
     /** Set pressure for note */
     public void setPolyphonicPressure(byte note, byte pressure) {
         if (note < 0)
             throw new IllegalArgumentException("MIDI notes must be between 0 and 127: note=" + note);
         else if (pressure < 0)
             throw new IllegalArgumentException("MIDI pressure must be between 0 and 127: pressure=" + pressure);
+        beginWrite();
         polyphonicPressure[note] = pressure;
+        endWrite();
     }
 
-    /** Set value for channel */
+    /** Set value for channel. All Sound Off and All Notes Off also release every key. */
     public void setController(byte controller, byte value) {
         if (controller < 0)
             throw new IllegalArgumentException("MIDI controller must be between 0 and 127: controller=" + controller);
+        beginWrite();
         controllers[controller] = value;
         lastController = controller;
+        if (controller == CC_ALL_SOUND_OFF || controller == CC_ALL_NOTES_OFF) {
+            releaseAll();
+        }
+        endWrite();
     }
 
-    public void setNote(byte note) {
-        this.note = note;
+    /** A NOTE_ON: the key goes down with its velocity. A velocity of 0 is a NOTE_OFF, as the spec allows. */
+    public void noteOn(byte note, byte velocity) {
+        if (note < 0)
+            throw new IllegalArgumentException("MIDI notes must be between 0 and 127: note=" + note);
+        beginWrite();
+        if (velocity > 0) {
+            notes[note >> 6] |= 1L << (note & 63);
+            velocities[note] = velocity;
+        } else {
+            release(note);
+        }
+        endWrite();
     }
 
-    public void setNoteOn(boolean noteOn) {
-        this.noteOn = noteOn;
+    /** A NOTE_OFF: only that key goes up, any others stay down */
+    public void noteOff(byte note) {
+        if (note < 0)
+            throw new IllegalArgumentException("MIDI notes must be between 0 and 127: note=" + note);
+        beginWrite();
+        release(note);
+        endWrite();
+    }
+
+    private void release(int note) {
+        notes[note >> 6] &= ~(1L << (note & 63));
+        velocities[note] = 0;
+    }
+
+    private void releaseAll() {
+        notes[0] = 0;
+        notes[1] = 0;
+        Arrays.fill(velocities, (byte) 0);
+    }
+
+    /**
+     * Every key up and the sustain pedal released, as on a pause. Unlike the controller messages that do this on the
+     * device, the last controller is left as it was.
+     */
+    public void silence() {
+        beginWrite();
+        releaseAll();
+        controllers[CC_SUSTAIN] = 0;
+        endWrite();
     }
 
     public void setProgram(byte program) {
+        beginWrite();
         this.program = program;
+        endWrite();
     }
 
     public void setPitchBend(int pitchBend) {
         if (pitchBend < 0 || pitchBend > 16383)
             throw new IllegalArgumentException("MIDI pitch bend must be between 0 and 16383: pitchBend=" + pitchBend);
+        beginWrite();
         this.pitchBend = pitchBend;
+        endWrite();
     }
 
     public void setPressure(byte pressure) {
+        beginWrite();
         this.pressure = pressure;
+        endWrite();
     }
 
-    public void setNoteVelocity(byte noteVelocity) {
-        this.noteVelocity = noteVelocity;
-    }
-
-    public byte getVolume() {
-        return controllers[CONTROLLER_VOLUME];
+    /**
+     * Replace the whole state at once, as after a seek: notes off, then the given controllers, program and pitch bend.
+     * @param controllers 128 controller values from offset, negative for unset ones which are cleared
+     */
+    public void restore(byte[] controllers, int offset, int program, int pitchBend) {
+        if (program < 0 || program > 127)
+            throw new IllegalArgumentException("MIDI programs must be between 0 and 127: program=" + program);
+        if (pitchBend < 0 || pitchBend > 16383)
+            throw new IllegalArgumentException("MIDI pitch bend must be between 0 and 16383: pitchBend=" + pitchBend);
+        beginWrite();
+        releaseAll();
+        for (int controller = 0; controller < 128; ++controller) {
+            byte value = controllers[offset + controller];
+            this.controllers[controller] = value < 0 ? 0 : value;
+        }
+        this.program = (byte) program;
+        this.pitchBend = pitchBend;
+        endWrite();
     }
 
-    public String controllerName(int controller) {
+    public static String controllerName(int controller) {
         return switch (controller) {
             case CONTROLLER_VOLUME -> "Volume";
             case CONTROLLER_PAN -> "Pan";
@@ -85,16 +274,6 @@ public class MidiChannel {
 
     @Override
     public String toString() {
-        return "MidiChannel{" +
-                "channel=" + channel +
-                ", note=" + String.format("%03d", note) +
-                ", noteOn=" + (noteOn ? '1' : '0') +
-                ", noteVelocity=" + String.format("%03d", noteVelocity) +
-                ", volume=" + getVolume() +
-                ", lastController=" + controllerName(lastController) +
-                ", program=" + program +
-                ", pitchBend=" + pitchBend +
-                ", pressure=" + pressure +
-                '}';
+        return snapshot(new Snapshot()).toString();
     }
 }
@@ -0,0 +1,130 @@
+package io.feydor.midi;
+
+import io.feydor.midi.exceptions.MidiParseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * A pull-based stream of a MIDI file's events, merged across tracks in time order.
+ * <p>
+ * Every track gets a cursor that decodes one event at a time straight out of the mapped file. The cursors sit in a
+ * priority queue ordered by the absolute tick of their pending event (then by track #), so the next event of the
+ * whole file is always at the head: a k-way merge. Memory stays bounded by the # of tracks, not the # of events.
+ * <p>
+ * Tempo changes are applied as they stream by, so each event also carries its time in microseconds.
+ * Open one with {@link Midi#openStream(String)}.
+ */
+public final class MidiEventStream implements Iterator<MidiEventStream.Event>, AutoCloseable {
+    /**
+     * An event pulled from the stream
+     * @param tick The absolute time in ticks
+     * @param micros The absolute time in microseconds, following every tempo change before it
+     * @param trackNum The track the event is from
+     * @param status The status byte, with running status resolved
+     * @param data1 The first data byte (MIDI events) or the type byte (Meta events)
+     * @param data2 The second data byte (3-byte MIDI events only)
+     * @param data The data bytes of Meta and SysEx events, null for MIDI events. A read-only view into the file.
+     */
+    public record Event(long tick, long micros, int trackNum, MidiEventType type, MidiEventSubType subType,
+                        int status, int data1, int data2, ByteBuffer data) {}
+
+    /** A track's position in the file and the absolute tick of its pending event */
+    private static final class Cursor {
+        final MidiTrackParser parser;
+        long tick;
+
+        Cursor(MidiTrackParser parser) {
+            this.parser = parser;
+        }
+
+        /** Decode the track's next event, false at the end of the track */
+        boolean advance() {
+            if (!parser.next()) {
+                return false;
+            }
+            tick += parser.ticks;
+            return true;
+        }
+    }
+
+    public final Midi.MidiChunk.Header header;
+    public final String filename;
+    private final ByteBuffer file;
+    private final PriorityQueue<Cursor> pending;
+
+    private int tempo = 500_000; // microseconds per quarter-note, 120 BPM until the first SET_TEMPO
+    private long tempoTick;
+    private long tempoMicros;
+
+    MidiEventStream(String filename) throws IOException {
+        this.filename = filename;
+        this.file = Midi.mapFile(filename);
+        this.header = Midi.MidiChunk.Header.readFrom(file);
+        if (header.format == MidiFileFormat.FORMAT_2) {
+            throw new MidiParseException("Format 2 tracks are played independently and can't be merged into one stream");
+        }
+
+        var chunks = Midi.scanTrackChunks(file, header.ntracks);
+        this.pending = new PriorityQueue<>(Math.max(chunks.size(), 1),
+                Comparator.<Cursor>comparingLong(c -> c.tick).thenComparingInt(c -> c.parser.trackNum));
+        for (int i = 0; i < chunks.size(); ++i) {
+            var cursor = new Cursor(new MidiTrackParser(file, chunks.get(i).offset(), chunks.get(i).len(), i, false));
+            if (cursor.advance()) {
+                pending.add(cursor);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Decodes the next event in time order
+     * @throws MidiParseException When the track holding the next event is unparsable
+     */
+    @Override
+    public Event next() {
+        var cursor = pending.poll();
+        if (cursor == null) {
+            throw new NoSuchElementException("No events left in " + filename);
+        }
+
+        var parser = cursor.parser;
+        long micros = toMicros(cursor.tick);
+        ByteBuffer data = null;
+        if (parser.type != MidiEventType.MIDI) {
+            data = file.slice(parser.dataOffset, parser.dataLen).asReadOnlyBuffer();
+        }
+        var event = new Event(cursor.tick, micros, parser.trackNum, parser.type, parser.subType,
+                parser.status, parser.data1, parser.data2, data);
+
+        if (parser.subType == MidiEventSubType.SET_TEMPO && parser.dataLen >= 3) {
+            // Every later event is timed against the new tempo
+            tempoMicros = micros;
+            tempoTick = cursor.tick;
+            tempo = (data.get(0) & 0xFF) << 16 | (data.get(1) & 0xFF) << 8 | (data.get(2) & 0xFF);
+        }
+
+        if (cursor.advance()) {
+            pending.add(cursor);
+        }
+        return event;
+    }
+
+    private long toMicros(long tick) {
+        return tempoMicros + (tick - tempoTick) * tempo / header.tickdiv;
+    }
+
+    /** Stops the stream, dropping every track cursor */
+    @Override
+    public void close() {
+        pending.clear();
+    }
+}
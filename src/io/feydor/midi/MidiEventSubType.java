@@ -1,6 +1,6 @@
 package io.feydor.midi;
 
-import java.util.List;
+import java.util.Arrays;
 
 /** All of the supported io.feydor.Midi/Meta events and their identifying byte */
 public enum MidiEventSubType {
@@ -43,11 +43,23 @@ public enum MidiEventSubType {
         idByte = id;
     }
 
-    private static final List<MidiEventSubType> CHANNEL_TYPES = List.of(
-            PROGRAM_CHANGE, CHANNEL_PRESSURE, CONTROLLER, PITCH_BEND, NOTE_ON, NOTE_OFF, POLYPHONIC_PRESSURE
-    );
-    private static final List<MidiEventSubType> TIMING_RELATED_TYPES = List.of(MARKER, CUEPOINT, SET_TEMPO, SMPTE_OFFSET,
-            TIME_SIGNATURE, KEY_SIGNATURE);
+    /** The channel message type of every status nibble, indexed by the upper nibble */
+    private static final MidiEventSubType[] CHANNEL_TYPE_BY_NIBBLE = new MidiEventSubType[16];
+
+    /** The Meta event of every type byte, indexed by the unsigned byte */
+    private static final MidiEventSubType[] META_TYPE_BY_BYTE = new MidiEventSubType[256];
+
+    static {
+        Arrays.fill(CHANNEL_TYPE_BY_NIBBLE, UNKNOWN);
+        Arrays.fill(META_TYPE_BY_BYTE, UNKNOWN);
+        for (var subType : values()) {
+            if (subType.isChannelType()) {
+                CHANNEL_TYPE_BY_NIBBLE[subType.idByte] = subType;
+            } else if (subType != UNKNOWN) {
+                META_TYPE_BY_BYTE[subType.idByte] = subType;
+            }
+        }
+    }
 
     /**
      * Only Meta-events have a type byte
@@ -55,48 +67,34 @@ public enum MidiEventSubType {
      * @return The tag specifing the Meta event
      */
     public static MidiEventSubType fromTypeByte(short type) {
-        return switch (type) {
-            case 0x0 -> SEQUENCE_NUMBER;
-            case 0x1 -> TEXT;
-            case 0x2 -> COPYRIGHT;
-            case 0x3 -> TRACK_NAME;
-            case 0x4 -> INSTRUMENT_NAME;
-            case 0x5 -> LYRIC;
-            case 0x6 -> MARKER;
-            case 0x7 -> CUEPOINT;
-            case 0x8 -> PROGRAM_NAME;
-            case 0x9 -> DEVICE_NAME;
-            case 0x20 -> CHANNEL_PREFIX;
-            case 0x21 -> MIDI_PORT;
-            case 0x2F -> END_OF_TRACK;
-            case 0x51 -> SET_TEMPO;
-            case 0x54 -> SMPTE_OFFSET;
-            case 0x58 -> TIME_SIGNATURE;
-            case 0x59 -> KEY_SIGNATURE;
-            case 0x7F -> SEQUENCER_SPECIFIC;
-            default -> UNKNOWN;
-        };
+        return META_TYPE_BY_BYTE[type & 0xFF];
     }
 
     public static MidiEventSubType fromStatusNibble(byte status) {
-        return switch (status) {
-            case 0x8 -> NOTE_OFF;
-            case 0x9 -> NOTE_ON;
-            case 0xA -> POLYPHONIC_PRESSURE;
-            case 0xB -> CONTROLLER;
-            case 0xC -> PROGRAM_CHANGE;
-            case 0xD -> CHANNEL_PRESSURE;
-            case 0xE -> PITCH_BEND;
-            default -> UNKNOWN;
+        return CHANNEL_TYPE_BY_NIBBLE[status & 0xF];
+    }
+
+    /** The # of data bytes following the status byte of a MIDI channel event, 0 for every other type */
+    public int dataBytes() {
+        return switch (this) {
+            case PROGRAM_CHANGE, CHANNEL_PRESSURE -> 1;
+            case NOTE_OFF, NOTE_ON, POLYPHONIC_PRESSURE, CONTROLLER, PITCH_BEND -> 2;
+            default -> 0;
         };
     }
 
     public boolean isChannelType() {
-        return CHANNEL_TYPES.stream().anyMatch(st -> this == st);
+        return switch (this) {
+            case PROGRAM_CHANGE, CHANNEL_PRESSURE, CONTROLLER, PITCH_BEND, NOTE_ON, NOTE_OFF, POLYPHONIC_PRESSURE -> true;
+            default -> false;
+        };
     }
 
     /** META_TIMING_RELATED(0xFF0), Marker, Cue Point, Tempo, SMPTE Offset, Time Signature, and Key Signature */
     public boolean isTimingRelated() {
-        return TIMING_RELATED_TYPES.stream().anyMatch(st -> this == st);
+        return switch (this) {
+            case MARKER, CUEPOINT, SET_TEMPO, SMPTE_OFFSET, TIME_SIGNATURE, KEY_SIGNATURE -> true;
+            default -> false;
+        };
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,5 @@
 package io.feydor.midi;
 
-import io.feydor.util.Pair;
-
 /**
  * All supported io.feydor.Midi event types by status byte(s)
  */
@@ -20,27 +18,46 @@ public enum MidiEventType {
         this.id = id;
     }
 
-    /**
-     * Returns the even'ts type. Handles running status when the last event was a MIDI event and the status byte is 'missing'.
-     *
-     * @param status The upper status byte
-     * @return The identifying tag
-     */
-    public static Pair<MidiEventType, Boolean> fromStatusByte(short status, Midi.MidiChunk.Event prevEvent) {
-        short upperNibble = (short) ((status >> 4) & 0xF);
-        return switch (status) {
-            case 0xFF -> new Pair<>(META, false);
-            case 0xF0, 0xF7 -> new Pair<>(SYSEX, false);
-            default -> switch (upperNibble) {
-                case 0x8, 0x9, 0xA, 0xB, 0xC, 0xD, 0xE -> new Pair<>(MIDI, false);
-                default -> {
-                    if (prevEvent != null && prevEvent.type == MIDI) {
-                        yield new Pair<>(MIDI, true);
-                    } else {
-                        yield new Pair<>(UNKNOWN, false);
-                    }
+    /** The type of every status byte, indexed by the unsigned byte. Data bytes (0x00 to 0x7F) are UNKNOWN. */
+    private static final MidiEventType[] TYPE_BY_STATUS = new MidiEventType[256];
+
+    /** The # of data bytes following every MIDI channel status byte, 0 for every other byte */
+    private static final byte[] DATA_BYTES_BY_STATUS = new byte[256];
+
+    static {
+        for (int status = 0; status < 256; ++status) {
+            TYPE_BY_STATUS[status] = switch (status >> 4) {
+                case 0x8, 0x9, 0xA, 0xB, 0xE -> {
+                    DATA_BYTES_BY_STATUS[status] = 2;
+                    yield MIDI;
+                }
+                case 0xC, 0xD -> {
+                    DATA_BYTES_BY_STATUS[status] = 1;
+                    yield MIDI;
                 }
+                default -> switch (status) {
+                    case 0xFF -> META;
+                    case 0xF0, 0xF7 -> SYSEX;
+                    default -> UNKNOWN;
+                };
             };
-        };
+        }
+    }
+
+    /**
+     * Table lookup of a status byte's type. Does not handle running status: data bytes are UNKNOWN.
+     * @param status The unsigned status byte, 0 to 255
+     */
+    public static MidiEventType fromStatus(int status) {
+        return TYPE_BY_STATUS[status];
+    }
+
+    /**
+     * Table lookup of the # of data bytes following a MIDI channel status byte
+     * @param status The unsigned status byte, 0 to 255
+     * @return 1 or 2 for MIDI channel messages, 0 for every other byte
+     */
+    public static int dataBytes(int status) {
+        return DATA_BYTES_BY_STATUS[status];
     }
 }
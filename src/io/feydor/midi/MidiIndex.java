@@ -0,0 +1,247 @@
+package io.feydor.midi;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Metadata about every MIDI file of a library, kept on disk as a tab-separated file so it can be queried here or
+ * with grep and awk.
+ * <p>
+ * Files are indexed straight from the mapped file with {@link MidiTrackParser} cursors: nothing is stored per event,
+ * and Meta and SysEx payloads are skipped over except for the few that are summarized. Rescans only index the files
+ * whose size or modified time changed.
+ */
+public final class MidiIndex {
+    private static final String HEADER = "# coolmidi index v1";
+    private static final String COLUMNS = "path\tsize\tmtime\tformat\tntracks\ttickdiv\tdurationMs\tevents\tnotes"
+            + "\tchannels\tprograms\ttimeSignature\tkeySignature\terror";
+
+    /**
+     * One file's metadata
+     * @param durationMs Until the last event, following every tempo change
+     * @param channels Bit c is set when channel c+1 plays a note, pitch bend or pressure
+     * @param programs The programs selected by program changes, bit p of programs[p / 64]
+     * @param timeSignature The first time signature as numerator/denominator, empty if none
+     * @param keySignature The first key signature as the # of sharps (negative for flats) and "maj" or "min", empty if none
+     * @param error Why the file could not be indexed, empty when it was
+     */
+    public record Entry(String path, long size, long mtime, int format, int ntracks, int tickdiv, long durationMs,
+                        long events, long notes, int channels, long[] programs, String timeSignature,
+                        String keySignature, String error) {
+        public boolean failed() {
+            return !error.isEmpty();
+        }
+
+        public boolean usesChannel(int channel) {
+            return (channels >> (channel - 1) & 1) != 0;
+        }
+
+        public boolean usesProgram(int program) {
+            return (programs[program >> 6] >> (program & 63) & 1) != 0;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private MidiIndex(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** Every indexed file, sorted by path */
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** The entries matching a query, sorted by path */
+    public List<Entry> query(Predicate<Entry> where) {
+        return entries.values().stream().filter(where).toList();
+    }
+
+    /**
+     * Index the MIDI files under the given files and directories, in parallel on the fork-join pool's work-stealing
+     * threads. Entries of the previous index are kept for files with the same size and modified time.
+     * @param previous The last index of the library, may be null
+     */
+    public static MidiIndex scan(List<java.io.File> roots, MidiIndex previous) {
+        var files = MidiLibrary.findMidiFiles(roots);
+        var indexed = files.parallelStream().map(path -> {
+            try {
+                var attrs = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+                var old = previous == null ? null : previous.entries.get(path);
+                if (old != null && old.size == attrs.size() && old.mtime == attrs.lastModifiedTime().toMillis()) {
+                    return old;
+                }
+                return index(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return failed(path, 0, 0, e);
+            }
+        }).toList();
+
+        var entries = new TreeMap<String, Entry>();
+        for (var entry : indexed) {
+            entries.put(entry.path, entry);
+        }
+        return new MidiIndex(entries);
+    }
+
+    /** Index one file without decoding it into a model */
+    static Entry index(String path, long size, long mtime) {
+        try {
+            ByteBuffer file = Midi.mapFile(path);
+            var header = Midi.MidiChunk.Header.readFrom(file);
+            var chunks = Midi.scanTrackChunks(file, header.ntracks);
+
+            long events = 0, notes = 0, lastTick = 0;
+            int channels = 0;
+            long[] programs = new long[2];
+            String timeSignature = "", keySignature = "";
+            // The conductor track's tempo changes: the only track in format 0, the first in format 1
+            long[] tempoTicks = {0};
+            int[] tempos = {TempoMap.DEFAULT_TEMPO};
+            int ntempos = 1;
+
+            for (int t = 0; t < chunks.size(); ++t) {
+                var parser = new MidiTrackParser(file, chunks.get(t).offset(), chunks.get(t).len(), t, false);
+                long tick = 0;
+                while (parser.next()) {
+                    tick += parser.ticks;
+                    events++;
+                    int status = parser.status;
+                    switch (parser.type) {
+                        case MIDI -> {
+                            int messageType = status >> 4;
+                            if (messageType == 0x9 && parser.data2 > 0) notes++;
+                            if (messageType == 0xC) programs[parser.data1 >> 6] |= 1L << (parser.data1 & 63);
+                            if (messageType != 0xB && MidiEventType.dataBytes(status) == 2) channels |= 1 << (status & 0xF);
+                        }
+                        case META -> {
+                            switch (parser.subType) {
+                                case SET_TEMPO -> {
+                                    if (t != 0 || header.format == MidiFileFormat.FORMAT_2 || parser.dataLen < 3) break;
+                                    int tempo = (file.get(parser.dataOffset) & 0xFF) << 16
+                                            | (file.get(parser.dataOffset + 1) & 0xFF) << 8 | (file.get(parser.dataOffset + 2) & 0xFF);
+                                    if (tick == tempoTicks[ntempos - 1]) {
+                                        tempos[ntempos - 1] = tempo;
+                                        break;
+                                    }
+                                    if (ntempos == tempos.length) {
+                                        tempoTicks = Arrays.copyOf(tempoTicks, ntempos * 2);
+                                        tempos = Arrays.copyOf(tempos, ntempos * 2);
+                                    }
+                                    tempoTicks[ntempos] = tick;
+                                    tempos[ntempos++] = tempo;
+                                }
+                                case TIME_SIGNATURE -> {
+                                    if (timeSignature.isEmpty() && parser.dataLen >= 2) {
+                                        timeSignature = (file.get(parser.dataOffset) & 0xFF) + "/" + (1 << file.get(parser.dataOffset + 1));
+                                    }
+                                }
+                                case KEY_SIGNATURE -> {
+                                    if (keySignature.isEmpty() && parser.dataLen >= 2) {
+                                        keySignature = file.get(parser.dataOffset) + (file.get(parser.dataOffset + 1) == 0 ? "maj" : "min");
+                                    }
+                                }
+                                default -> {}
+                            }
+                        }
+                        default -> {}
+                    }
+                }
+                lastTick = Math.max(lastTick, tick);
+            }
+
+            long durationMs = 0;
+            if (header.format != MidiFileFormat.FORMAT_2) {
+                var tempoMap = new TempoMap(header.tickdiv, Arrays.copyOf(tempoTicks, ntempos), Arrays.copyOf(tempos, ntempos));
+                durationMs = tempoMap.tickToNanos(lastTick) / 1_000_000;
+            }
+            return new Entry(path, size, mtime, header.format.ordinal(), header.ntracks, header.tickdiv, durationMs,
+                    events, notes, channels, programs, timeSignature, keySignature, "");
+        } catch (IOException | RuntimeException e) {
+            return failed(path, size, mtime, e);
+        }
+    }
+
+    private static Entry failed(String path, long size, long mtime, Exception e) {
+        String error = String.valueOf(e.getMessage()).replaceAll("\\s+", " ");
+        return new Entry(path, size, mtime, -1, 0, 0, 0, 0, 0, 0, new long[2], "", "", error.isEmpty() ? e.toString() : error);
+    }
+
+    /**
+     * Read an index written by {@link #write(Path)}
+     * @return An empty index when the file does not exist or is from another version
+     */
+    public static MidiIndex read(Path index) throws IOException {
+        var entries = new TreeMap<String, Entry>();
+        if (!Files.isRegularFile(index)) {
+            return new MidiIndex(entries);
+        }
+        var lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+            return new MidiIndex(entries);
+        }
+        for (var line : lines.subList(1, lines.size())) {
+            if (line.isEmpty() || line.startsWith("path\t")) continue;
+            String[] f = line.split("\t", -1);
+            var entry = new Entry(unescape(f[0]), Long.parseLong(f[1]), Long.parseLong(f[2]), Integer.parseInt(f[3]),
+                    Integer.parseInt(f[4]), Integer.parseInt(f[5]), Long.parseLong(f[6]), Long.parseLong(f[7]),
+                    Long.parseLong(f[8]), Integer.parseInt(f[9], 16),
+                    new long[]{Long.parseUnsignedLong(f[10].substring(16), 16), Long.parseUnsignedLong(f[10].substring(0, 16), 16)},
+                    f[11], f[12], unescape(f[13]));
+            entries.put(entry.path, entry);
+        }
+        return new MidiIndex(entries);
+    }
+
+    /** Write the index, replacing the file in one step */
+    public void write(Path index) throws IOException {
+        Path dir = index.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, "index", ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                out.write(HEADER + "\n" + COLUMNS + "\n");
+                for (var e : entries.values()) {
+                    out.write(String.join("\t", escape(e.path), Long.toString(e.size), Long.toString(e.mtime),
+                            Integer.toString(e.format), Integer.toString(e.ntracks), Integer.toString(e.tickdiv),
+                            Long.toString(e.durationMs), Long.toString(e.events), Long.toString(e.notes),
+                            String.format("%04x", e.channels), String.format("%016x%016x", e.programs[1], e.programs[0]),
+                            e.timeSignature, e.keySignature, escape(e.error)));
+                    out.write('\n');
+                }
+            }
+            Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        var out = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,201 @@
+package io.feydor.midi;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds and loads the MIDI files of a library too big to hold in memory at once.
+ * <p>
+ * Files are parsed on a bounded pool of worker threads, only when asked for. Parsed files are kept in an LRU cache
+ * weighted by their # of events, so playing a file again is free while it is recent, and the least recently used
+ * files are dropped (and parsed again on demand) once the cache is over its weight.
+ */
+public final class MidiLibrary implements AutoCloseable {
+    /** About 100 MB of packed events */
+    public static final long DEFAULT_MAX_CACHED_EVENTS = 8_000_000;
+
+    private final ExecutorService parsers;
+    private final long maxCachedEvents;
+    private final boolean verbose;
+    /** Pre-parsed files on disk, null to always parse */
+    private final MidiBinaryCache diskCache;
+    /** In access order, guarded by itself */
+    private final LinkedHashMap<String, Midi> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedEvents;
+    private final ConcurrentHashMap<String, CompletableFuture<Midi>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param parseThreads The most files parsed at once
+     * @param maxCachedEvents The total # of events of the files kept parsed, the most recently loaded file is always kept
+     */
+    public MidiLibrary(int parseThreads, long maxCachedEvents, boolean verbose) {
+        this(parseThreads, maxCachedEvents, verbose, null);
+    }
+
+    /**
+     * @param diskCache Loads files parsed by an earlier run instead of parsing them, may be null
+     */
+    public MidiLibrary(int parseThreads, long maxCachedEvents, boolean verbose, MidiBinaryCache diskCache) {
+        if (parseThreads < 1) {
+            throw new IllegalArgumentException("parseThreads must be greater than 0: parseThreads=" + parseThreads);
+        }
+        this.parsers = Executors.newFixedThreadPool(parseThreads, task -> {
+            var thread = new Thread(task, "midi-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxCachedEvents = maxCachedEvents;
+        this.verbose = verbose;
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * The given files as they are, and every MIDI file (.mid or .midi) under the given directories, walking them
+     * recursively and in parallel. Symbolic links to directories are only followed when given.
+     * @return The absolute paths in the order given, each directory's sorted
+     */
+    public static List<String> findMidiFiles(List<File> roots) {
+        List<String> found = new ArrayList<>();
+        for (var root : roots) {
+            if (!root.isDirectory()) {
+                found.add(root.getAbsolutePath());
+                continue;
+            }
+            var children = root.listFiles();
+            if (children == null) continue;
+            var inDir = ForkJoinPool.commonPool().invoke(new Walk(children));
+            Collections.sort(inDir);
+            found.addAll(inDir);
+        }
+        return found;
+    }
+
+    /** Lists one directory, forking a task per subdirectory */
+    private static final class Walk extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final File[] files;
+
+        Walk(File[] files) {
+            this.files = files;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> found = new ArrayList<>();
+            List<Walk> subdirs = new ArrayList<>();
+            for (var file : files) {
+                if (file.isDirectory()) {
+                    if (Files.isSymbolicLink(file.toPath())) continue;
+                    var children = file.listFiles();
+                    if (children != null) {
+                        var walk = new Walk(children);
+                        walk.fork();
+                        subdirs.add(walk);
+                    }
+                } else if (isMidiFile(file.getName())) {
+                    found.add(file.getAbsolutePath());
+                }
+            }
+            for (var walk : subdirs) {
+                found.addAll(walk.join());
+            }
+            return found;
+        }
+    }
+
+    private static boolean isMidiFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".mid") || lower.endsWith(".midi");
+    }
+
+    /**
+     * The parsed file, from the cache or parsed on the worker pool. Loading a file that is already being parsed
+     * waits for that parse instead of starting another.
+     * @return Fails with the parse's IOException or MidiParseException
+     */
+    public CompletableFuture<Midi> load(String filename) {
+        while (true) {
+            synchronized (cache) {
+                var midi = cache.get(filename);
+                if (midi != null) {
+                    return CompletableFuture.completedFuture(midi);
+                }
+            }
+            var parse = startParse(filename);
+            if (parse != null) {
+                return parse;
+            }
+            // A parse finished between the two lookups, its file is in the cache now (unless evicted already)
+        }
+    }
+
+    /** The parse in flight, a new one, or null if the file got cached since it was looked up */
+    private CompletableFuture<Midi> startParse(String filename) {
+        return inFlight.computeIfAbsent(filename, f -> {
+            // A parse is cached before it leaves inFlight, so this sees any that finished since the lookup
+            synchronized (cache) {
+                if (cache.containsKey(f)) return null;
+            }
+            var parse = new CompletableFuture<Midi>();
+            parsers.execute(() -> {
+                // Leave inFlight before completing, or a load right after could get this parse once evicted
+                try {
+                    var midi = diskCache != null ? diskCache.load(f, verbose) : new Midi(f, verbose);
+                    put(f, midi);
+                    inFlight.remove(f);
+                    parse.complete(midi);
+                } catch (Throwable e) {
+                    inFlight.remove(f);
+                    parse.completeExceptionally(e);
+                }
+            });
+            return parse;
+        });
+    }
+
+    private void put(String filename, Midi midi) {
+        synchronized (cache) {
+            var old = cache.put(filename, midi);
+            if (old != null) cachedEvents -= weigh(old);
+            cachedEvents += weigh(midi);
+
+            // Drop the least recently used files, but never the one just loaded
+            var lru = cache.entrySet().iterator();
+            while (cachedEvents > maxCachedEvents && cache.size() > 1) {
+                var eldest = lru.next();
+                cachedEvents -= weigh(eldest.getValue());
+                lru.remove();
+            }
+        }
+    }
+
+    private static long weigh(Midi midi) {
+        long events = 0;
+        for (var track : midi.getTracks()) {
+            events += track.packedEvents().size();
+        }
+        return events;
+    }
+
+    /** The total # of events of the cached files */
+    public long cachedEvents() {
+        synchronized (cache) {
+            return cachedEvents;
+        }
+    }
+
+    /** True if the file is parsed and in the cache */
+    public boolean isCached(String filename) {
+        synchronized (cache) {
+            return cache.containsKey(filename);
+        }
+    }
+
+    /** Stops the worker threads, files already being parsed are finished */
+    @Override
+    public void close() {
+        parsers.shutdown();
+    }
+}
@@ -0,0 +1,247 @@
+package io.feydor.midi;
+
+import io.feydor.midi.exceptions.MidiParseException;
+import io.feydor.util.ByteFns;
+import io.feydor.util.VarLenQuant;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the events of a single MTrk chunk straight out of the mapped file, by absolute offset.
+ * <p>
+ * Works like a cursor: each call to {@link #next()} decodes one event into this parser's fields.
+ * Event classification is done with lookup tables and every value is kept in a primitive,
+ * so decoding a track allocates nothing beyond the events stored by {@link #parseInto(PackedEvents, boolean[])}.
+ */
+final class MidiTrackParser {
+    private final ByteBuffer file;
+    private final int start;
+    private final int len;
+    final int trackNum;
+    private final boolean verbose;
+
+    /** The offset of the next event, relative to the start of the chunk */
+    private int bytesRead;
+    private int prevStatus;
+    private MidiEventType prevType;
+
+    // The event decoded by the last call to next()
+    int ticks;
+    int tickBytes;
+    int status;
+    int data1;
+    int data2;
+    boolean runningStatus;
+    MidiEventType type;
+    MidiEventSubType subType;
+    /** The absolute offset of the first byte of the event data */
+    int messageStart;
+    /** The # of bytes in the event data, excluding the delta-time */
+    int messageLen;
+    /** Meta and SysEx only: the absolute offset of the data, just past the VarLen length */
+    int dataOffset;
+    /** Meta and SysEx only: the # of data bytes */
+    int dataLen;
+
+    // Track-wide state gathered by parseInto
+    /** The first SET_TEMPO in the track, 0 if there was none. See {@link TempoMap} for the rest. */
+    int tempo;
+    /** The first TIME_SIGNATURE in the track, null if there was none */
+    Midi.MidiChunk.TimeSignature timeSignature;
+
+    /**
+     * @param file the mapped file to read from
+     * @param start the absolute offset of the first event in the Track Chunk (just after the chunk header)
+     * @param len the # of bytes in the Track Chunk, parsed from the header
+     */
+    MidiTrackParser(ByteBuffer file, int start, int len, int trackNum, boolean verbose) {
+        this.file = file;
+        this.start = start;
+        this.len = len;
+        this.trackNum = trackNum;
+        this.verbose = verbose;
+    }
+
+    /** Rewind to the first event of the track */
+    void reset() {
+        bytesRead = 0;
+        prevStatus = 0;
+        prevType = null;
+        tempo = 0;
+        timeSignature = null;
+    }
+
+    /** The # of bytes of the chunk consumed so far */
+    int bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Decode every event of the track, appending them to events
+     * @param events Where to store the events
+     * @param channelUsed Set for every channel that plays a note, pitch bend or pressure
+     */
+    void parseInto(PackedEvents events, boolean[] channelUsed) {
+        while (next()) {
+            switch (type) {
+                case MIDI -> {
+                    // All messages except Controller and the 2-byte messages
+                    int messageType = status >> 4;
+                    if (messageType != 0xB && MidiEventType.dataBytes(status) == 2) {
+                        channelUsed[status & 0xF] = true;
+                    }
+                    events.addChannelEvent(ticks, tickBytes, status, data1, data2, runningStatus);
+                    continue;
+                }
+                case META -> {
+                    if (subType == MidiEventSubType.SET_TEMPO) {
+                        onTempo();
+                    } else if (subType == MidiEventSubType.TIME_SIGNATURE) {
+                        onTimeSignature();
+                    }
+                }
+            }
+            int header = type == MidiEventType.META ? 2 : 1; // status (and type) byte
+            events.addPayloadEvent(ticks, tickBytes, status, data1, file, messageStart + header, messageLen - header);
+        }
+    }
+
+    /**
+     * Decode the next event.
+     * @return false when the end of the track was reached
+     * @throws MidiParseException When the event is malformed or runs past the end of the track
+     */
+    boolean next() {
+        if (bytesRead >= len) {
+            return false;
+        }
+
+        // Format: <MTrk chunk> = <delta-time:VarLen(1-4B)><event:(2+ B)>
+        // Note: Delta-time is associated with an event
+        int dt = VarLenQuant.decodePacked(file, start + bytesRead);
+        ticks = VarLenQuant.value(dt);
+        tickBytes = VarLenQuant.nbytes(dt);
+        bytesRead += tickBytes;
+
+        messageStart = start + bytesRead;
+        messageLen = 1; // the status byte
+
+        // Look at first byte of the event (the status byte) to determine the type
+        // If the status byte is less than 0x80, running status is in effect which means that
+        // this byte is actually the first data byte (the status is carried over from the previous event)
+        // Only can occur if the last event was also a MIDI event.
+        int firstByte = file.get(messageStart) & 0xFF;
+        type = MidiEventType.fromStatus(firstByte);
+        runningStatus = type == MidiEventType.UNKNOWN && firstByte < 0x80 && prevType == MidiEventType.MIDI;
+        status = runningStatus ? prevStatus : firstByte;
+        if (runningStatus) {
+            type = MidiEventType.MIDI;
+        }
+
+        switch (type) {
+            case META -> {
+                // Meta-Event: <FF:1B> <type:1B> <len:Varlen><data:len B>
+                data1 = file.get(messageStart + 1) & 0xFF;
+                data2 = 0;
+                subType = MidiEventSubType.fromTypeByte((short) data1);
+                if (subType == MidiEventSubType.UNKNOWN) {
+                    throw new MidiParseException("Unknown Meta-Event encountered! status=" + status + " type=" + data1);
+                }
+                int length = VarLenQuant.decodePacked(file, messageStart + 2);
+                dataOffset = messageStart + 2 + VarLenQuant.nbytes(length);
+                dataLen = VarLenQuant.value(length);
+                messageLen += 1 + VarLenQuant.nbytes(length) + dataLen;
+            }
+            case MIDI -> {
+                // Midi events: <status:1B> <data:1 | 2 B>
+                // Status byte is nibblised:
+                // Top nibble is the message type
+                // Lower nibble is the MIDI channel
+                subType = MidiEventSubType.fromStatusNibble((byte) (status >> 4));
+                int nbytes = MidiEventType.dataBytes(status);
+                // Under running status the byte at messageStart is already the first data byte
+                int dataStart = runningStatus ? messageStart : messageStart + 1;
+                messageLen += runningStatus ? nbytes - 1 : nbytes;
+                checkInTrack();
+                data1 = file.get(dataStart) & 0xFF;
+                data2 = nbytes == 2 ? file.get(dataStart + 1) & 0xFF : 0;
+                dataOffset = dataStart;
+                dataLen = nbytes;
+            }
+            case SYSEX -> {
+                // SysEx event:
+                // Complete message: <F0> <len:VarLen> <message:len B>
+                subType = MidiEventSubType.UNKNOWN;
+                data1 = 0;
+                data2 = 0;
+                int length = VarLenQuant.decodePacked(file, messageStart + 1);
+                dataOffset = messageStart + 1 + VarLenQuant.nbytes(length);
+                dataLen = VarLenQuant.value(length);
+                messageLen += VarLenQuant.nbytes(length) + dataLen;
+            }
+            case UNKNOWN -> {
+                String msg = String.format("Unexpected MIDI message!\n" +
+                                "trackNum=%d, Status=%02x, bytesRead=%d, prevStatus=%02x",
+                        trackNum, firstByte, bytesRead, prevStatus);
+                if (verbose) System.out.println(msg);
+                throw new IllegalStateException(msg);
+            }
+        }
+
+        checkInTrack();
+        bytesRead += messageLen;
+        prevType = type;
+        prevStatus = status;
+        return true;
+    }
+
+    /** The event must not run past the end of the track chunk */
+    private void checkInTrack() {
+        if (messageStart + messageLen > start + len) {
+            throw new MidiParseException(String.format("An event in track#%d runs past the end of the track: "
+                    + "status=%02x, bytesRead=%d, messageLen=%d, len=%d", trackNum, status, bytesRead, messageLen, len));
+        }
+    }
+
+    private void onTempo() {
+        // Tempo FF 51 03 tt tt tt
+        if (dataLen < 3) {
+            throw new MidiParseException("A Set Tempo event must have 3 data bytes! Given: " + dataLen);
+        }
+        // The track's tempo is its first SET_TEMPO, every later change is followed through the file's TempoMap
+        if (tempo == 0) {
+            tempo = ByteFns.toUnsignedInt24(file, dataOffset);
+        }
+    }
+
+    private void onTimeSignature() {
+        // Time Signature FF 58 04 nn dd cc bb
+        if (dataLen < 4) {
+            throw new MidiParseException("A Time Signature event must have 4 data bytes! Given: " + dataLen);
+        }
+        int bb = file.get(dataOffset + 3) & 0xFF;
+        if (bb != 0x08 && verbose) {
+            System.out.printf("WARNING: A Time Signature event (%s) is specifying a # of 32nd notes in a" +
+                            "MIDI quarter-note (%02x) that is NOT supported by my parser, for now...\n",
+                    ByteFns.toHex(file, messageStart, messageLen), bb);
+        }
+
+        // TODO: Dynamically change time signature at runtime in MidiScheduler
+        // For now, just save the first time signature event encountered
+        if (timeSignature != null && !verbose) {
+            return;
+        }
+        var newTimeSig = new Midi.MidiChunk.TimeSignature(file.get(dataOffset) & 0xFF, file.get(dataOffset + 1) & 0xFF,
+                file.get(dataOffset + 2) & 0xFF, bb);
+        if (timeSignature != null) {
+            System.out.printf("WARNING: The time signature for track#%d has already been set! Skipping... "
+                    + "OLD=%s NEW=%s\n", trackNum, timeSignature, newTimeSig);
+        } else {
+            timeSignature = newTimeSig;
+            if (verbose) {
+                System.out.printf("New time signature detected: bytes=%s varlen_dt=%d parsed=%s\n",
+                        ByteFns.toHex(file, messageStart, messageLen), ticks, newTimeSig);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package io.feydor.midi;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A track's events packed into parallel primitive arrays (struct-of-arrays), instead of one object per event.
+ * <p>
+ * Each event is a delta-time in ticks plus a packed status/data word:
+ * <ul>
+ *     <li>bits 0-7: the status byte, with running status already resolved</li>
+ *     <li>bits 8-15: the first data byte (MIDI events) or the type byte (Meta events)</li>
+ *     <li>bits 16-23: the second data byte (3-byte MIDI events only)</li>
+ *     <li>bit 24: set when the event used running status in the file</li>
+ *     <li>bits 25-26: the # of bytes used to store the delta-time in the file, minus 1</li>
+ * </ul>
+ * Meta and SysEx events also own a payload in the track's byte pool: every byte after the status (and type) byte,
+ * i.e. the VarLen data length followed by the data itself.
+ */
+public final class PackedEvents {
+    private static final int RUNNING_STATUS = 1 << 24;
+    private static final int TICK_BYTES_SHIFT = 25;
+    private static final int NO_PAYLOAD = -1;
+
+    private int size;
+    private int[] ticks;
+    private int[] words;
+    private int[] payloads; // offset into pool or NO_PAYLOAD
+    private byte[] pool;
+    private int poolSize;
+
+    PackedEvents(int capacity) {
+        capacity = Math.max(capacity, 1);
+        this.ticks = new int[capacity];
+        this.words = new int[capacity];
+        this.payloads = new int[capacity];
+        this.pool = new byte[16];
+    }
+
+    private PackedEvents(int[] ticks, int[] words, int[] payloads, byte[] pool) {
+        this.size = ticks.length;
+        this.ticks = ticks;
+        this.words = words;
+        this.payloads = payloads;
+        this.pool = pool;
+        this.poolSize = pool.length;
+    }
+
+    /** The # of bytes written by {@link #writeTo(ByteBuffer)} */
+    int serializedBytes() {
+        return 8 + size * 12 + poolSize;
+    }
+
+    /** Write the arrays as they are: size, pool size, ticks, words, payload offsets, then the pool */
+    void writeTo(ByteBuffer out) {
+        out.putInt(size).putInt(poolSize);
+        for (int[] array : new int[][]{ticks, words, payloads}) {
+            out.asIntBuffer().put(array, 0, size);
+            out.position(out.position() + size * Integer.BYTES);
+        }
+        out.put(pool, 0, poolSize);
+    }
+
+    /** Read events written by {@link #writeTo(ByteBuffer)}, with bulk copies */
+    static PackedEvents readFrom(ByteBuffer in) {
+        int size = in.getInt(), poolSize = in.getInt();
+        // Checked before allocating, so a corrupt count fails here instead of running out of memory
+        if (size < 0 || poolSize < 0 || 3L * size * Integer.BYTES + poolSize > in.remaining()) {
+            throw new IllegalArgumentException("More events than bytes left: size=" + size + ", poolSize=" + poolSize
+                    + ", remaining=" + in.remaining());
+        }
+        int[][] arrays = new int[3][size];
+        for (int[] array : arrays) {
+            in.asIntBuffer().get(array);
+            in.position(in.position() + size * Integer.BYTES);
+        }
+        byte[] pool = new byte[poolSize];
+        in.get(pool);
+        return new PackedEvents(arrays[0], arrays[1], arrays[2], pool);
+    }
+
+    /** Append a MIDI channel event. For 2-byte messages data2 is ignored. */
+    void addChannelEvent(int ticks, int tickBytes, int status, int data1, int data2, boolean runningStatus) {
+        int i = grow();
+        this.ticks[i] = ticks;
+        this.words[i] = pack(tickBytes, status, data1, data2, runningStatus);
+        this.payloads[i] = NO_PAYLOAD;
+    }
+
+    /**
+     * Append a Meta or SysEx event, copying its payload out of the source buffer
+     * @param type The Meta event's type byte, 0 for SysEx events
+     * @param src The buffer holding the payload
+     * @param offset The absolute offset of the first payload byte (the VarLen length)
+     * @param len The # of payload bytes
+     */
+    void addPayloadEvent(int ticks, int tickBytes, int status, int type, ByteBuffer src, int offset, int len) {
+        int i = grow();
+        if (poolSize + len > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + len));
+        }
+        src.get(offset, pool, poolSize, len);
+        this.ticks[i] = ticks;
+        this.words[i] = pack(tickBytes, status, type, 0, false);
+        this.payloads[i] = poolSize;
+        poolSize += len;
+    }
+
+    /** Drop every event, keeping the arrays for reuse */
+    void clear() {
+        size = 0;
+        poolSize = 0;
+    }
+
+    /** Shrink the arrays to fit once the track has been fully parsed */
+    void trim() {
+        ticks = Arrays.copyOf(ticks, size);
+        words = Arrays.copyOf(words, size);
+        payloads = Arrays.copyOf(payloads, size);
+        pool = Arrays.copyOf(pool, poolSize);
+    }
+
+    private int grow() {
+        if (size == words.length) {
+            int capacity = words.length * 2;
+            ticks = Arrays.copyOf(ticks, capacity);
+            words = Arrays.copyOf(words, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        return size++;
+    }
+
+    private static int pack(int tickBytes, int status, int data1, int data2, boolean runningStatus) {
+        return (status & 0xFF)
+                | (data1 & 0xFF) << 8
+                | (data2 & 0xFF) << 16
+                | (runningStatus ? RUNNING_STATUS : 0)
+                | ((tickBytes - 1) & 0x3) << TICK_BYTES_SHIFT;
+    }
+
+    /** The # of events */
+    public int size() {
+        return size;
+    }
+
+    /** The delta-time of event i in ticks */
+    public int ticks(int i) {
+        return ticks[i];
+    }
+
+    /** The packed status/data word of event i, see the class docs for the layout */
+    public int word(int i) {
+        return words[i];
+    }
+
+    public static int status(int word) {
+        return word & 0xFF;
+    }
+
+    public static int data1(int word) {
+        return (word >>> 8) & 0xFF;
+    }
+
+    public static int data2(int word) {
+        return (word >>> 16) & 0xFF;
+    }
+
+    public static boolean runningStatus(int word) {
+        return (word & RUNNING_STATUS) != 0;
+    }
+
+    public static int tickBytes(int word) {
+        return ((word >>> TICK_BYTES_SHIFT) & 0x3) + 1;
+    }
+
+    /** True if event i has a payload in the pool (Meta and SysEx events) */
+    public boolean hasPayload(int i) {
+        return payloads[i] != NO_PAYLOAD;
+    }
+
+    /** The # of bytes used by the VarLen length at the start of event i's payload */
+    public int payloadLenBytes(int i) {
+        int p = payloads[i];
+        int n = 1;
+        while ((pool[p++] & 0x80) != 0) n++;
+        return n;
+    }
+
+    /** The offset into {@link #pool()} of event i's data, just past its VarLen length */
+    public int dataOffset(int i) {
+        return payloads[i] + payloadLenBytes(i);
+    }
+
+    /** The # of data bytes in event i's payload, as given by its VarLen length */
+    public int dataLength(int i) {
+        int p = payloads[i];
+        int val = 0, b;
+        do {
+            b = pool[p++];
+            val = (val << 7) | (b & 0x7F);
+        } while ((b & 0x80) != 0);
+        return val;
+    }
+
+    /** The shared byte pool holding every Meta and SysEx payload of the track */
+    public byte[] pool() {
+        return pool;
+    }
+
+    /** The # of bytes event i takes up as a complete message, including the status byte even under running status */
+    public int messageLength(int i) {
+        int word = words[i];
+        if (payloads[i] != NO_PAYLOAD) {
+            int header = status(word) == 0xFF ? 2 : 1;
+            return header + payloadLenBytes(i) + dataLength(i);
+        }
+        return MidiEventType.dataBytes(status(word)) + 1;
+    }
+
+    /** Copies event i as a complete message: status, data and for Meta and SysEx events the VarLen length */
+    public byte[] message(int i) {
+        int word = words[i];
+        byte[] msg = new byte[messageLength(i)];
+        msg[0] = (byte) status(word);
+        if (payloads[i] != NO_PAYLOAD) {
+            int header = 1;
+            if (status(word) == 0xFF) {
+                msg[header++] = (byte) data1(word);
+            }
+            System.arraycopy(pool, payloads[i], msg, header, msg.length - header);
+        } else {
+            msg[1] = (byte) data1(word);
+            if (msg.length > 2) {
+                msg[2] = (byte) data2(word);
+            }
+        }
+        return msg;
+    }
+}
@@ -0,0 +1,178 @@
+package io.feydor.midi;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Every tempo change of a MIDI file, precomputed so that converting between ticks and time is a binary search.
+ * <p>
+ * Built once from the conductor track (the only track of a format 0 file, the first track of a format 1 file).
+ * Each breakpoint is the tick a tempo starts at, the tempo and the time in nanoseconds up to that tick.
+ * Times are integer nanoseconds counted from each breakpoint, so no rounding error accumulates across a song.
+ */
+public final class TempoMap {
+    /** The tempo before the first SET_TEMPO: 120 BPM, in microseconds per quarter-note */
+    public static final int DEFAULT_TEMPO = 500_000;
+
+    private final int tickdiv;
+    private final int size;
+    private final long[] ticks;
+    private final int[] tempos;
+    private final long[] nanos;
+
+    /**
+     * @param conductor The track holding the SET_TEMPO events
+     * @param tickdiv The # of ticks per quarter-note, from the MIDI header
+     */
+    public TempoMap(PackedEvents conductor, int tickdiv) {
+        if (tickdiv < 1) {
+            throw new IllegalArgumentException("tickdiv must be greater than 0: tickdiv=" + tickdiv);
+        }
+        this.tickdiv = tickdiv;
+
+        int capacity = 1;
+        for (int i = 0; i < conductor.size(); ++i) {
+            if (isTempo(conductor, i)) capacity++;
+        }
+        long[] ticks = new long[capacity];
+        int[] tempos = new int[capacity];
+        long[] nanos = new long[capacity];
+        tempos[0] = DEFAULT_TEMPO;
+
+        int n = 1;
+        long tick = 0;
+        for (int i = 0; i < conductor.size(); ++i) {
+            tick += conductor.ticks(i);
+            if (!isTempo(conductor, i)) continue;
+
+            int tempo = tempoOf(conductor, i);
+            if (tick == ticks[n - 1]) {
+                // Several changes at once: the last one wins
+                tempos[n - 1] = tempo;
+                continue;
+            }
+            ticks[n] = tick;
+            tempos[n] = tempo;
+            nanos[n] = nanos[n - 1] + toNanos(tick - ticks[n - 1], tempos[n - 1]);
+            n++;
+        }
+
+        this.size = n;
+        this.ticks = Arrays.copyOf(ticks, n);
+        this.tempos = Arrays.copyOf(tempos, n);
+        this.nanos = Arrays.copyOf(nanos, n);
+    }
+
+    /**
+     * From breakpoints already in order, such as those written by {@link #writeTo(ByteBuffer)}
+     * @param ticks Strictly increasing, starting at 0
+     */
+    TempoMap(int tickdiv, long[] ticks, int[] tempos) {
+        this.tickdiv = tickdiv;
+        this.size = ticks.length;
+        this.ticks = ticks;
+        this.tempos = tempos;
+        this.nanos = new long[size];
+        for (int i = 1; i < size; ++i) {
+            nanos[i] = nanos[i - 1] + toNanos(ticks[i] - ticks[i - 1], tempos[i - 1]);
+        }
+    }
+
+    /** The # of bytes written by {@link #writeTo(ByteBuffer)} */
+    int serializedBytes() {
+        return 8 + size * (Long.BYTES + Integer.BYTES);
+    }
+
+    /** Write tickdiv, the # of breakpoints, then each breakpoint's tick and tempo */
+    void writeTo(ByteBuffer out) {
+        out.putInt(tickdiv).putInt(size);
+        for (int i = 0; i < size; ++i) {
+            out.putLong(ticks[i]).putInt(tempos[i]);
+        }
+    }
+
+    static TempoMap readFrom(ByteBuffer in) {
+        int tickdiv = in.getInt(), size = in.getInt();
+        if (size < 0 || (long) size * (Long.BYTES + Integer.BYTES) > in.remaining()) {
+            throw new IllegalArgumentException("More breakpoints than bytes left: size=" + size
+                    + ", remaining=" + in.remaining());
+        }
+        long[] ticks = new long[size];
+        int[] tempos = new int[size];
+        for (int i = 0; i < size; ++i) {
+            ticks[i] = in.getLong();
+            tempos[i] = in.getInt();
+        }
+        return new TempoMap(tickdiv, ticks, tempos);
+    }
+
+    private static boolean isTempo(PackedEvents events, int i) {
+        int word = events.word(i);
+        return PackedEvents.status(word) == 0xFF && PackedEvents.data1(word) == 0x51 && events.dataLength(i) >= 3;
+    }
+
+    private static int tempoOf(PackedEvents events, int i) {
+        byte[] pool = events.pool();
+        int p = events.dataOffset(i);
+        return (pool[p] & 0xFF) << 16 | (pool[p + 1] & 0xFF) << 8 | (pool[p + 2] & 0xFF);
+    }
+
+    private long toNanos(long dticks, int tempo) {
+        return dticks * tempo * 1000 / tickdiv;
+    }
+
+    /** The index of the last breakpoint at or before tick */
+    private int breakpointAtTick(long tick) {
+        int i = Arrays.binarySearch(ticks, 0, size, tick);
+        return i >= 0 ? i : Math.max(-i - 2, 0);
+    }
+
+    /** The index of the last breakpoint at or before time */
+    private int breakpointAtNanos(long time) {
+        int i = Arrays.binarySearch(nanos, 0, size, time);
+        if (i < 0) return Math.max(-i - 2, 0);
+        // Several breakpoints can share a time only if none are apart in ticks, take the last
+        while (i + 1 < size && nanos[i + 1] == time) i++;
+        return i;
+    }
+
+    /** The time of an absolute tick, in nanoseconds from the start of the file */
+    public long tickToNanos(long tick) {
+        int i = breakpointAtTick(tick);
+        return nanos[i] + toNanos(tick - ticks[i], tempos[i]);
+    }
+
+    /** The last absolute tick whose {@link #tickToNanos(long)} is at or before a time in nanoseconds */
+    public long nanosToTick(long time) {
+        int i = breakpointAtNanos(time);
+        long dticks = (time - nanos[i]) * tickdiv / (tempos[i] * 1000L);
+        // tickToNanos rounds down, so the next tick can already have started
+        if (toNanos(dticks + 1, tempos[i]) <= time - nanos[i]) dticks++;
+        return ticks[i] + dticks;
+    }
+
+    /** The tempo in effect at an absolute tick, in microseconds per quarter-note */
+    public int tempoAt(long tick) {
+        return tempos[breakpointAtTick(tick)];
+    }
+
+    /** The milliseconds per tick in effect at an absolute tick */
+    public double msPerTick(long tick) {
+        return tempoAt(tick) / (double) tickdiv / 1000.0;
+    }
+
+    /** The # of tempos, including the default one at tick 0 when the file does not set one there */
+    public int size() {
+        return size;
+    }
+
+    /** The tick breakpoint i starts at */
+    public long tick(int i) {
+        return ticks[i];
+    }
+
+    /** The tempo of breakpoint i, in microseconds per quarter-note */
+    public int tempo(int i) {
+        return tempos[i];
+    }
+}
@@ -0,0 +1,159 @@
+package io.feydor.midi;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Every event of a MIDI file merged into one tick-ordered timeline.
+ * <p>
+ * Built once with a k-way merge of the tracks through a priority queue ordered by (absolute tick, track #), so
+ * simultaneous events keep the order of their tracks. Events are stored as parallel arrays of the absolute tick,
+ * the track # and the index into that track's {@link PackedEvents}. Events that share a tick form a batch,
+ * which a scheduler dispatches together at one deadline.
+ * <p>
+ * Times come from the file's {@link TempoMap}, so they follow every tempo change and cost nothing to look up at playback.
+ */
+public final class Timeline {
+    private final PackedEvents[] tracks;
+    private final int size;
+    private final long[] ticks;
+    private final long[] nanos;
+    private final int[] trackNums;
+    private final int[] indices;
+    /** The index of the first event of each batch, plus size as a sentinel */
+    private final int[] batchStarts;
+    private final int nbatches;
+
+    /** A track's position in the merge */
+    private static final class Cursor {
+        final int trackNum;
+        final PackedEvents events;
+        int index;
+        long tick;
+
+        Cursor(int trackNum, PackedEvents events) {
+            this.trackNum = trackNum;
+            this.events = events;
+            this.tick = events.ticks(0);
+        }
+    }
+
+    /**
+     * Merge the tracks of a MIDI file, decoding any that are not loaded yet
+     * @param midi The file to merge
+     */
+    public Timeline(Midi midi) {
+        var midiTracks = midi.getTracks();
+        this.tracks = new PackedEvents[midiTracks.size()];
+        int total = 0;
+        for (int i = 0; i < tracks.length; ++i) {
+            tracks[i] = midiTracks.get(i).packedEvents();
+            total += tracks[i].size();
+        }
+
+        this.size = total;
+        this.ticks = new long[total];
+        this.nanos = new long[total];
+        this.trackNums = new int[total];
+        this.indices = new int[total];
+        int[] starts = new int[total + 1];
+
+        var pending = new PriorityQueue<Cursor>(Math.max(tracks.length, 1),
+                Comparator.<Cursor>comparingLong(c -> c.tick).thenComparingInt(c -> c.trackNum));
+        for (int i = 0; i < tracks.length; ++i) {
+            if (tracks[i].size() > 0) {
+                pending.add(new Cursor(i, tracks[i]));
+            }
+        }
+
+        var tempoMap = midi.tempoMap();
+        int batches = 0;
+        for (int n = 0; n < total; ++n) {
+            var cursor = pending.poll();
+            long tick = cursor.tick;
+            ticks[n] = tick;
+            nanos[n] = tempoMap.tickToNanos(tick);
+            trackNums[n] = cursor.trackNum;
+            indices[n] = cursor.index;
+            if (n == 0 || tick != ticks[n - 1]) {
+                starts[batches++] = n;
+            }
+
+            if (++cursor.index < cursor.events.size()) {
+                cursor.tick += cursor.events.ticks(cursor.index);
+                pending.add(cursor);
+            }
+        }
+        starts[batches] = total;
+        this.batchStarts = Arrays.copyOf(starts, batches + 1);
+        this.nbatches = batches;
+    }
+
+    /** The # of events */
+    public int size() {
+        return size;
+    }
+
+    /** The absolute time of event n in ticks */
+    public long tick(int n) {
+        return ticks[n];
+    }
+
+    /** The absolute time of event n in nanoseconds from the start of the file */
+    public long nanos(int n) {
+        return nanos[n];
+    }
+
+    /** The track event n is from */
+    public int trackNum(int n) {
+        return trackNums[n];
+    }
+
+    /** The index of event n in its track's events */
+    public int index(int n) {
+        return indices[n];
+    }
+
+    /** The packed events of the track event n is from */
+    public PackedEvents events(int n) {
+        return tracks[trackNums[n]];
+    }
+
+    /** The first event at or after an absolute tick, size() if there is none */
+    public int indexAtTick(long tick) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ticks[mid] < tick) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** The batch event n belongs to, batches() for n == size() */
+    public int batchOf(int n) {
+        int b = Arrays.binarySearch(batchStarts, 0, nbatches + 1, n);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /** The # of batches, i.e. distinct ticks that have events */
+    public int batches() {
+        return nbatches;
+    }
+
+    /** The first event of batch b */
+    public int batchStart(int b) {
+        return batchStarts[b];
+    }
+
+    /** One past the last event of batch b */
+    public int batchEnd(int b) {
+        return batchStarts[b + 1];
+    }
+
+    /** The time of the last event in nanoseconds, 0 for an empty file */
+    public long durationNanos() {
+        return size == 0 ? 0 : nanos[size - 1];
+    }
+}
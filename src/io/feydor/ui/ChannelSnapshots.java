@@ -0,0 +1,250 @@
+package io.feydor.ui;
+
+import io.feydor.midi.MidiChannel;
+import io.feydor.midi.PackedEvents;
+import io.feydor.midi.Timeline;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.Arrays;
+
+/**
+ * The program, controller and pitch bend state of all 16 channels, snapshotted every N ticks of a timeline.
+ * <p>
+ * Seeking restores the nearest snapshot at or before the target and replays only the events between the two,
+ * so the cost is bounded by the snapshot interval instead of the length of the file.
+ * Each state is a flat byte array, -1 marking a value the file has not set yet:
+ * 16 programs, then 16 x 128 controllers, then 16 pitch bends as LSB/MSB pairs, then the parameters set through
+ * data entry: per channel the MSB/LSB of RPNs 0 to 5, then the last NRPN as its number and value MSB/LSB pairs,
+ * then which of RPN or NRPN is selected. Data entry only means something after its select, so the parameters are
+ * replayed one by one, select then value, rather than as the last value of each controller.
+ */
+final class ChannelSnapshots {
+    private static final int PROGRAMS = 0;
+    private static final int CONTROLLERS = PROGRAMS + 16;
+    private static final int PITCH_BENDS = CONTROLLERS + 16 * 128;
+    /** The registered parameters General MIDI defines: pitch bend sensitivity, fine and coarse tuning and so on */
+    private static final int RPN_COUNT = 6;
+    private static final int RPNS = PITCH_BENDS + 16 * 2;
+    private static final int NRPNS = RPNS + 16 * RPN_COUNT * 2;
+    private static final int SELECTED = NRPNS + 16 * 4;
+    private static final int STATE_BYTES = SELECTED + 16;
+    private static final byte UNSET = -1;
+    private static final byte SELECTED_RPN = 1;
+    private static final byte SELECTED_NRPN = 2;
+
+    private static final int CC_DATA_ENTRY = 6;
+    private static final int CC_DATA_ENTRY_LSB = 38;
+    private static final int CC_NRPN_LSB = 98;
+    private static final int CC_NRPN_MSB = 99;
+    private static final int CC_RPN_LSB = 100;
+    private static final int CC_RPN_MSB = 101;
+    private static final int CC_RESET_ALL_CONTROLLERS = 121;
+    private static final int CC_ALL_NOTES_OFF = 123;
+    private static final int NULL_PARAMETER = 127;
+
+    private final Timeline timeline;
+    /** The timeline index each snapshot was taken just before */
+    private final int[] events;
+    private final byte[] states;
+    private final int size;
+    /** Only used by the thread seeking */
+    private final byte[] scratch = new byte[STATE_BYTES];
+
+    /**
+     * Walk the timeline once, snapshotting the state before the first event of every interval
+     * @param intervalTicks The # of ticks between snapshots
+     */
+    ChannelSnapshots(Timeline timeline, long intervalTicks) {
+        if (intervalTicks < 1) {
+            throw new IllegalArgumentException("intervalTicks must be greater than 0: intervalTicks=" + intervalTicks);
+        }
+        this.timeline = timeline;
+        int capacity = timeline.size() == 0 ? 1 : (int) Math.min(timeline.size(), timeline.tick(timeline.size() - 1) / intervalTicks + 1);
+        int[] events = new int[capacity];
+        byte[] states = new byte[capacity * STATE_BYTES];
+
+        byte[] state = new byte[STATE_BYTES];
+        Arrays.fill(state, UNSET);
+        int n = 0;
+        long nextTick = 0;
+        for (int i = 0; i < timeline.size(); ++i) {
+            long tick = timeline.tick(i);
+            if (tick >= nextTick) {
+                events[n] = i;
+                System.arraycopy(state, 0, states, n * STATE_BYTES, STATE_BYTES);
+                n++;
+                nextTick = (tick / intervalTicks + 1) * intervalTicks;
+            }
+            apply(state, timeline.events(i).word(timeline.index(i)));
+        }
+
+        this.size = n;
+        this.events = events;
+        this.states = states;
+    }
+
+    /** Update state with a program change, control change or pitch bend, ignoring everything else */
+    private static void apply(byte[] state, int word) {
+        int status = PackedEvents.status(word);
+        int channel = status & 0xF;
+        switch (status >> 4) {
+            case 0xB -> {
+                int controller = PackedEvents.data1(word);
+                int value = PackedEvents.data2(word);
+                if (controller == CC_RESET_ALL_CONTROLLERS) {
+                    // Clears the selection too, but the parameters keep their values
+                    Arrays.fill(state, CONTROLLERS + channel * 128, CONTROLLERS + (channel + 1) * 128, UNSET);
+                    Arrays.fill(state, PITCH_BENDS + channel * 2, PITCH_BENDS + channel * 2 + 2, UNSET);
+                    state[SELECTED + channel] = UNSET;
+                } else if (controller < 120) { // 120-127 are channel mode messages, not state
+                    state[CONTROLLERS + channel * 128 + controller] = (byte) value;
+                    switch (controller) {
+                        case CC_RPN_MSB, CC_RPN_LSB -> state[SELECTED + channel] = SELECTED_RPN;
+                        case CC_NRPN_MSB, CC_NRPN_LSB -> state[SELECTED + channel] = SELECTED_NRPN;
+                        case CC_DATA_ENTRY -> dataEntry(state, channel, 0, value);
+                        case CC_DATA_ENTRY_LSB -> dataEntry(state, channel, 1, value);
+                    }
+                }
+            }
+            case 0xC -> state[PROGRAMS + channel] = (byte) PackedEvents.data1(word);
+            case 0xE -> {
+                state[PITCH_BENDS + channel * 2] = (byte) PackedEvents.data1(word);
+                state[PITCH_BENDS + channel * 2 + 1] = (byte) PackedEvents.data2(word);
+            }
+        }
+    }
+
+    /**
+     * Store a data entry in the parameter selected on the channel: one of RPNs 0 to 5, or the NRPN, which starts over
+     * when a different one is selected. Other RPNs are not kept.
+     * @param half 0 for the MSB, 1 for the LSB
+     */
+    private static void dataEntry(byte[] state, int channel, int half, int value) {
+        int controllers = CONTROLLERS + channel * 128;
+        switch (state[SELECTED + channel]) {
+            case SELECTED_RPN -> {
+                byte msb = state[controllers + CC_RPN_MSB], lsb = state[controllers + CC_RPN_LSB];
+                if (msb == 0 && lsb >= 0 && lsb < RPN_COUNT) {
+                    state[RPNS + (channel * RPN_COUNT + lsb) * 2 + half] = (byte) value;
+                }
+            }
+            case SELECTED_NRPN -> {
+                byte msb = state[controllers + CC_NRPN_MSB], lsb = state[controllers + CC_NRPN_LSB];
+                if (msb == UNSET || lsb == UNSET) return;
+                int nrpn = NRPNS + channel * 4;
+                if (state[nrpn] != msb || state[nrpn + 1] != lsb) {
+                    state[nrpn] = msb;
+                    state[nrpn + 1] = lsb;
+                    state[nrpn + 2] = UNSET;
+                    state[nrpn + 3] = UNSET;
+                }
+                state[nrpn + 2 + half] = (byte) value;
+            }
+        }
+    }
+
+    /** The # of snapshots */
+    int size() {
+        return size;
+    }
+
+    /** Data entry and the selects, which are replayed per parameter by {@link #restoreParameters} */
+    private static boolean isParameterController(int controller) {
+        return controller == CC_DATA_ENTRY || controller == CC_DATA_ENTRY_LSB
+                || (controller >= 96 && controller <= CC_RPN_MSB); // data increment, decrement and the selects
+    }
+
+    /**
+     * Send every parameter set through data entry as its select then its value, then select what the file had
+     * selected at that point, or nothing, so no later data entry lands on the wrong parameter
+     */
+    private void restoreParameters(Receiver receiver, int channel) throws InvalidMidiDataException {
+        for (int rpn = 0; rpn < RPN_COUNT; ++rpn) {
+            int at = RPNS + (channel * RPN_COUNT + rpn) * 2;
+            sendParameter(receiver, channel, CC_RPN_MSB, CC_RPN_LSB, 0, rpn, scratch[at], scratch[at + 1]);
+        }
+        int nrpn = NRPNS + channel * 4;
+        if (scratch[nrpn] != UNSET) {
+            sendParameter(receiver, channel, CC_NRPN_MSB, CC_NRPN_LSB, scratch[nrpn], scratch[nrpn + 1],
+                    scratch[nrpn + 2], scratch[nrpn + 3]);
+        }
+
+        int controllers = CONTROLLERS + channel * 128;
+        byte selected = scratch[SELECTED + channel];
+        int msbController = selected == SELECTED_NRPN ? CC_NRPN_MSB : CC_RPN_MSB;
+        int lsbController = selected == SELECTED_NRPN ? CC_NRPN_LSB : CC_RPN_LSB;
+        byte msb = scratch[controllers + msbController], lsb = scratch[controllers + lsbController];
+        if (selected == UNSET) {
+            msb = NULL_PARAMETER;
+            lsb = NULL_PARAMETER;
+        }
+        // A select the file only sent one half of has 0 for the other
+        receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, msbController, Math.max(msb, 0)), -1);
+        receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, lsbController, Math.max(lsb, 0)), -1);
+    }
+
+    private static void sendParameter(Receiver receiver, int channel, int msbController, int lsbController,
+                                      int msb, int lsb, byte valueMsb, byte valueLsb) throws InvalidMidiDataException {
+        if (valueMsb == UNSET && valueLsb == UNSET) return;
+        receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, msbController, msb), -1);
+        receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, lsbController, lsb), -1);
+        if (valueMsb != UNSET) {
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_DATA_ENTRY, valueMsb), -1);
+        }
+        if (valueLsb != UNSET) {
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_DATA_ENTRY_LSB, valueLsb), -1);
+        }
+    }
+
+    /**
+     * Rebuild the channel state at an event and send it: all notes off, then every channel's controllers,
+     * program and pitch bend, as they would be had the file played from the start.
+     * @param n The timeline index playback resumes at
+     * @param receiver Where to send the state
+     * @param channels The UI's copy of the channel state, updated to match. May be null.
+     * @throws InvalidMidiDataException Never, every message is built from valid data bytes
+     */
+    void restore(int n, Receiver receiver, MidiChannel[] channels) throws InvalidMidiDataException {
+        if (size == 0) {
+            Arrays.fill(scratch, UNSET);
+        } else {
+            // The last snapshot taken at or before n
+            int s = Arrays.binarySearch(events, 0, size, n);
+            s = s >= 0 ? s : Math.max(-s - 2, 0);
+            System.arraycopy(states, s * STATE_BYTES, scratch, 0, STATE_BYTES);
+            for (int i = events[s]; i < n; ++i) {
+                apply(scratch, timeline.events(i).word(timeline.index(i)));
+            }
+        }
+
+        for (int channel = 0; channel < 16; ++channel) {
+            var ui = channels == null ? null : channels[channel];
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_ALL_NOTES_OFF, 0), -1);
+            receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_RESET_ALL_CONTROLLERS, 0), -1);
+
+            // Controllers first: bank selects only take effect at the next program change
+            for (int controller = 0; controller < 120; ++controller) {
+                byte value = scratch[CONTROLLERS + channel * 128 + controller];
+                if (value == UNSET || isParameterController(controller)) continue;
+                receiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, controller, value), -1);
+            }
+            restoreParameters(receiver, channel);
+
+            // Before the file's first program change, the GM default rather than whatever was playing
+            byte program = scratch[PROGRAMS + channel];
+            if (program == UNSET) program = 0;
+            receiver.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0), -1);
+
+            byte lsb = scratch[PITCH_BENDS + channel * 2], msb = scratch[PITCH_BENDS + channel * 2 + 1];
+            if (lsb == UNSET) {
+                lsb = 0;
+                msb = 0x40; // centered
+            }
+            receiver.send(new ShortMessage(ShortMessage.PITCH_BEND, channel, lsb, msb), -1);
+            // One update, so the UI never sees the channel half restored
+            if (ui != null) ui.restore(scratch, CONTROLLERS + channel * 128, program, msb << 7 | lsb);
+        }
+    }
+}
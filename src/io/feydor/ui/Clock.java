@@ -0,0 +1,41 @@
+package io.feydor.ui;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * The time source the timing thread schedules against. The system clock waits for real, a {@link VirtualClock}
+ * jumps straight to each deadline so a whole song plays at CPU speed.
+ */
+public interface Clock {
+    /** The current time in nanoseconds, only meaningful relative to other readings of this clock */
+    long nanoTime();
+
+    /**
+     * Block until {@link #nanoTime()} reaches deadline, or wake turns true
+     * @param deadline Returns immediately if it has passed
+     * @param wake Checked while waiting, ends the wait early when true
+     * @return false when woken early
+     * @throws InterruptedException When the thread is interrupted while waiting
+     */
+    boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException;
+
+    /** System.nanoTime(), waited on with the given strategy */
+    static Clock system(WaitStrategy waitStrategy) {
+        return new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+
+            @Override
+            public boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException {
+                return waitStrategy.waitUntil(deadline, wake);
+            }
+
+            @Override
+            public String toString() {
+                return waitStrategy.toString();
+            }
+        };
+    }
+}
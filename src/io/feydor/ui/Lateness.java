@@ -0,0 +1,43 @@
+package io.feydor.ui;
+
+/**
+ * Measures how late the timing thread dispatches each batch relative to its deadline.
+ * Only the timing thread records, read it once playback is done.
+ */
+public final class Lateness {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private long overOneMs;
+
+    /** Record one dispatch, lateNanos = dispatch time - deadline. Early dispatches count as 0. */
+    public void record(long lateNanos) {
+        lateNanos = Math.max(lateNanos, 0);
+        count++;
+        totalNanos += lateNanos;
+        maxNanos = Math.max(maxNanos, lateNanos);
+        if (lateNanos > 1_000_000) overOneMs++;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double meanMicros() {
+        return count == 0 ? 0 : totalNanos / (double) count / 1000.0;
+    }
+
+    public double maxMicros() {
+        return maxNanos / 1000.0;
+    }
+
+    /** The # of dispatches more than 1ms late */
+    public long overOneMs() {
+        return overOneMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("dispatches=%d mean=%.1fus max=%.1fus >1ms=%d", count, meanMicros(), maxMicros(), overOneMs);
+    }
+}
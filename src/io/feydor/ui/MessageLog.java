@@ -0,0 +1,123 @@
+package io.feydor.ui;
+
+import javax.sound.midi.MidiMessage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sink that records every message with when it was due and when it was actually sent, in a compact binary log.
+ * <p>
+ * Layout: the magic "MLOG" and a version byte, then one record per message: the due time as a delta from the previous
+ * record's, the lateness (sent - due), the message length, then the message bytes. Every number is a zigzag VarLen,
+ * so a message sent on time takes 2-3 bytes on top of its own.
+ * Only the timing thread sends, so the log is not thread-safe.
+ */
+public final class MessageLog implements MidiSink {
+    private static final byte[] MAGIC = "MLOG".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    /** One recorded message */
+    public record Entry(long dueNanos, long sentNanos, byte[] message) {
+        public long errorNanos() {
+            return sentNanos - dueNanos;
+        }
+
+        public int status() {
+            return message[0] & 0xFF;
+        }
+    }
+
+    private final OutputStream out;
+    private final Clock clock;
+    private long lastDue;
+    private long count;
+
+    /**
+     * @param out Where to write the log, closed with the log
+     * @param clock Read for the time each message is actually sent
+     */
+    public MessageLog(OutputStream out, Clock clock) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.clock = clock;
+        try {
+            this.out.write(MAGIC);
+            this.out.write(VERSION);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void send(MidiMessage message, long timestamp, long dueNanos) {
+        long sent = clock.nanoTime();
+        try {
+            writeVarLong(dueNanos - lastDue);
+            writeVarLong(sent - dueNanos);
+            writeVarLong(message.getLength());
+            out.write(message.getMessage(), 0, message.getLength());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        lastDue = dueNanos;
+        count++;
+    }
+
+    /** The # of messages recorded */
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    /**
+     * Read back a log written by a MessageLog
+     * @throws IOException When the log is not one, or is cut short mid-record
+     */
+    public static List<Entry> read(InputStream in) throws IOException {
+        var data = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic) || data.read() != VERSION) {
+            throw new IOException("Not a version " + VERSION + " message log");
+        }
+        List<Entry> entries = new ArrayList<>();
+        long due = 0;
+        int first;
+        while ((first = data.read()) >= 0) {
+            due += readVarLong(data, first);
+            long sent = due + readVarLong(data, data.readUnsignedByte());
+            byte[] message = new byte[(int) readVarLong(data, data.readUnsignedByte())];
+            data.readFully(message);
+            entries.add(new Entry(due, sent, message));
+        }
+        return entries;
+    }
+
+    private static long readVarLong(DataInputStream in, int first) throws IOException {
+        long zigzag = first & 0x7F;
+        for (int shift = 7, b = first; (b & 0x80) != 0; shift += 7) {
+            b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
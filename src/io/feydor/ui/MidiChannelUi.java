@@ -1,65 +1,68 @@
 package io.feydor.ui;
 
-import io.feydor.midi.Midi;
 import io.feydor.midi.MidiChannel;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Future;
-
 public class MidiChannelUi implements MidiUi {
-    private static final int UPDATE_PERIOD = 100; // ms
-    private static TotalTime remainingTime;
-
-    @Override
-    public void block(Midi midi, Future<Void> playbackThread, MidiChannel[] channels, TotalTime remainingTime) throws Exception {
-        MidiChannelUi.remainingTime = remainingTime;
-        var timer = new Timer();
-        timer.scheduleAtFixedRate(new UiThread(timer, channels), 0, UPDATE_PERIOD);
-
-        Thread.sleep((long) remainingTime.ms() + 2000);
+    private static final int MAX_FPS = 60;
+    private static final int WIDTH = 120;
 
-        timer.purge();
-    }
-
-    private static class UiThread extends TimerTask {
-        private final Timer timerHandle;
-        private final List<MidiChannel> usedChannels;
-        private int time = 0;
+    private TerminalRenderer renderer;
+    /** The channels the file uses, 0 to 15, one per line */
+    private int[] usedChannels;
 
-        public UiThread(Timer timerHandle, MidiChannel[] channels) {
-            this.timerHandle = timerHandle;
-            this.usedChannels = Arrays.stream(channels).filter(ch -> ch.used).toList();
-            System.out.println();
+    @Override
+    public void start(PreparedTimeline song) {
+        var midi = song.midi;
+        int n = 0;
+        for (boolean used : midi.channelsUsed) if (used) n++;
+        usedChannels = new int[n];
+        for (int channel = 0, i = 0; channel < 16; ++channel) {
+            if (midi.channelsUsed[channel]) usedChannels[i++] = channel;
         }
+        renderer = new TerminalRenderer(WIDTH, Math.max(1, n), System.out, MAX_FPS);
+    }
 
-        @Override
-        public void run() {
-            time += UPDATE_PERIOD;
-            resetCursor();
-
-            printChannelStates();
-
-            if (time >= remainingTime.ms()) {
-                timerHandle.cancel();
-                System.out.println();
-                System.out.println();
-                System.out.flush();
-            }
+    @Override
+    public void frame(long positionNanos, boolean paused, MidiChannel.Snapshot[] channels) {
+        final byte style = TerminalRenderer.DEFAULT;
+        for (int row = 0; row < usedChannels.length; ++row) {
+            var snapshot = channels[usedChannels[row]];
+            renderer.clearRow(row);
+            int col = renderer.put(row, 0, "channel=", style);
+            col = renderer.putInt(row, col, snapshot.channel, 2, style);
+            col = renderer.put(row, col, " voices=", style);
+            col = renderer.putInt(row, col, snapshot.voices(), 3, style);
+            col = renderer.put(row, col, " lowest=", style);
+            col = putNote(row, col, snapshot.lowestNote());
+            col = renderer.put(row, col, " highest=", style);
+            col = putNote(row, col, snapshot.highestNote());
+            col = renderer.put(row, col, " volume=", style);
+            col = renderer.putInt(row, col, snapshot.getVolume(), 3, style);
+            col = renderer.put(row, col, " lastController=", style);
+            col = switch (snapshot.lastController) {
+                case MidiChannel.CONTROLLER_VOLUME -> renderer.put(row, col, "Volume", style);
+                case MidiChannel.CONTROLLER_PAN -> renderer.put(row, col, "Pan", style);
+                default -> renderer.putInt(row, col, snapshot.lastController, 1, style);
+            };
+            col = renderer.put(row, col, " program=", style);
+            col = renderer.putInt(row, col, snapshot.program, 3, style);
+            col = renderer.put(row, col, " pitchBend=", style);
+            col = renderer.putInt(row, col, snapshot.pitchBend, 5, style);
+            col = renderer.put(row, col, " pressure=", style);
+            renderer.putInt(row, col, snapshot.pressure, 3, style);
         }
+        renderer.present();
+    }
 
-        private void resetCursor() {
-            Terminal.moveCursorUp(usedChannels.size());
-            Terminal.carriageReturn();
-        }
+    /** A key, or --- when none is held */
+    private int putNote(int row, int col, int note) {
+        return note < 0 ? renderer.put(row, col, "---", TerminalRenderer.DEFAULT)
+                : renderer.putInt(row, col, note, 3, TerminalRenderer.DEFAULT);
+    }
 
-        private void printChannelStates() {
-            for (MidiChannel channel : usedChannels) {
-                System.out.println(channel);
-            }
-            System.out.flush();
-        }
+    @Override
+    public void stop() {
+        renderer.presentNow();
+        renderer.close();
     }
 }
@@ -0,0 +1,277 @@
+package io.feydor.ui;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Receiver that hands messages to a dedicated output thread, so a slow or blocking device never stalls the timing thread.
+ * <p>
+ * Messages pass through a lock-free single-producer/single-consumer ring buffer: only one thread may call
+ * {@link #send(MidiMessage, long)}, and only the output thread reads. Each side owns one counter and caches the other's,
+ * so neither takes a lock. When the ring is full the {@link OverflowPolicy} decides what the producer does; only the
+ * overflow list of COALESCE_CC takes a lock, and only while the ring is full.
+ */
+public final class MidiOutput implements Receiver {
+    /** What the producer does when the output thread falls a whole ring behind */
+    public enum OverflowPolicy {
+        /** Wait for the output thread to make room: every message is delivered, late if need be */
+        BLOCK,
+        /**
+         * Never wait: messages go to an overflow list behind the ring, where a Control Change replaces the one still
+         * waiting for the same channel and controller, keeping the latest value. Continuous controller sweeps are the
+         * cheapest to lose. Notes, switches like sustain, bank selects, RPN/NRPN and channel mode messages are never
+         * coalesced.
+         */
+        COALESCE_CC,
+        /** Throw an IllegalStateException */
+        FAIL;
+
+        /** Parses a command line name: block, coalesce-cc or fail */
+        public static OverflowPolicy fromName(String name) {
+            return switch (name) {
+                case "block" -> BLOCK;
+                case "coalesce-cc" -> COALESCE_CC;
+                case "fail" -> FAIL;
+                default -> throw new IllegalArgumentException("Unknown overflow policy: " + name + ". Expected block, coalesce-cc or fail");
+            };
+        }
+    }
+
+    private final Receiver downstream;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final int mask;
+    private final MidiMessage[] messages;
+    private final long[] timestamps;
+
+    /** The next slot to read, only written by the output thread */
+    private final AtomicLong head = new AtomicLong();
+    /** The next slot to write, only written by the producer */
+    private final AtomicLong tail = new AtomicLong();
+    private long producerTail;
+    private long cachedHead; // producer's copy
+    private long cachedTail; // output thread's copy
+
+    /** A message waiting in the overflow list, its fields replaced when a CC is coalesced into it */
+    private static final class Pending {
+        MidiMessage message;
+        long timeStamp;
+
+        Pending(MidiMessage message, long timeStamp) {
+            this.message = message;
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    // COALESCE_CC only. Every message after the ring's, guarded by overflowLock.
+    private final Object overflowLock = new Object();
+    private ArrayList<Pending> overflow = new ArrayList<>();
+    /** The CC still in the overflow list for each channel * 128 + controller, null when none */
+    private final Pending[] pendingCc = new Pending[16 * 128];
+    /** Only set by the producer and cleared by the output thread once it took the whole list: false means empty */
+    private volatile boolean overflowing;
+    private ArrayList<Pending> draining = new ArrayList<>(); // output thread's
+
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+    private volatile long coalesced;
+    private final Thread thread;
+
+    /**
+     * Starts the output thread
+     * @param downstream Where the messages finally go
+     * @param capacity The # of messages the ring holds, rounded up to a power of 2
+     * @param policy What to do when the ring is full
+     */
+    public MidiOutput(Receiver downstream, int capacity, OverflowPolicy policy) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2: capacity=" + capacity);
+        }
+        this.downstream = downstream;
+        this.policy = policy;
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.messages = new MidiMessage[this.capacity];
+        this.timestamps = new long[this.capacity];
+        this.thread = new Thread(this::drain, "midi-output");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a message for the output thread. Must only be called from one thread.
+     * @throws IllegalStateException When the ring is full under the FAIL policy, or the output is closed
+     */
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (closed) {
+            throw new IllegalStateException("The MIDI output is closed");
+        }
+        // Once anything overflowed, everything after it does too, until the output thread catches up
+        if (overflowing) {
+            overflow(message, timeStamp);
+            return;
+        }
+        long t = producerTail;
+        if (t - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (t - cachedHead >= capacity) {
+                if (policy == OverflowPolicy.COALESCE_CC) {
+                    overflow(message, timeStamp);
+                    return;
+                }
+                awaitRoom(t);
+            }
+        }
+
+        int i = (int) (t & mask);
+        messages[i] = message;
+        timestamps[i] = timeStamp;
+        producerTail = t + 1;
+        // Publishes the slot. A full volatile store, not lazySet: it must not be reordered after the read of
+        // consumerParked, or the output thread could park after checking tail and miss this message until its timeout.
+        tail.set(t + 1);
+        if (consumerParked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Queue behind the ring, coalescing CCs. Never waits for the output thread. */
+    private void overflow(MidiMessage message, long timeStamp) {
+        synchronized (overflowLock) {
+            int key = coalescingKey(message);
+            var pending = key < 0 ? null : pendingCc[key];
+            if (pending != null) {
+                pending.message = message;
+                pending.timeStamp = timeStamp;
+                coalesced++;
+            } else {
+                pending = new Pending(message, timeStamp);
+                overflow.add(pending);
+                if (key >= 0) pendingCc[key] = pending;
+            }
+            overflowing = true;
+        }
+        if (consumerParked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * channel * 128 + controller for the Control Changes that only carry a level, where the latest value is all
+     * that matters. -1 for everything else: notes, switches, selects and data entry, whose order is their meaning.
+     */
+    static int coalescingKey(MidiMessage message) {
+        if (!(message instanceof ShortMessage cc) || cc.getCommand() != ShortMessage.CONTROL_CHANGE) return -1;
+        int controller = cc.getData1();
+        return switch (controller) {
+            case 0, 32 -> -1; // bank select, applied at the next program change
+            case 6, 38, 96, 97, 98, 99, 100, 101 -> -1; // data entry, increment and decrement, NRPN and RPN selects
+            case 64, 65, 66, 67, 68, 69 -> -1; // sustain and the other switches
+            default -> controller >= 120 ? -1 : cc.getChannel() * 128 + controller; // channel mode messages
+        };
+    }
+
+    private void awaitRoom(long t) {
+        if (policy == OverflowPolicy.FAIL) {
+            throw new IllegalStateException("The MIDI output fell " + capacity + " messages behind");
+        }
+        while (t - (cachedHead = head.get()) >= capacity) {
+            if (closed || !thread.isAlive()) {
+                throw new IllegalStateException("The MIDI output is closed");
+            }
+            LockSupport.unpark(thread);
+            Thread.onSpinWait();
+        }
+    }
+
+    /** The output thread: send every queued message in order, until closed and empty */
+    private void drain() {
+        long h = 0;
+        while (true) {
+            if (h == cachedTail) {
+                cachedTail = tail.get();
+                if (h == cachedTail) {
+                    if (overflowing) {
+                        drainOverflow();
+                        continue;
+                    }
+                    if (closed) return;
+                    idle(h);
+                    continue;
+                }
+            }
+
+            int i = (int) (h & mask);
+            var message = messages[i];
+            long timeStamp = timestamps[i];
+            messages[i] = null;
+            head.lazySet(++h); // frees the slot
+            sendDownstream(message, timeStamp);
+        }
+    }
+
+    /**
+     * The ring is empty: take the whole overflow list and send it. Whatever the producer queues meanwhile goes into
+     * the ring, after it.
+     */
+    private void drainOverflow() {
+        synchronized (overflowLock) {
+            var taken = overflow;
+            overflow = draining;
+            draining = taken;
+            Arrays.fill(pendingCc, null);
+            overflowing = false;
+        }
+        for (var pending : draining) {
+            sendDownstream(pending.message, pending.timeStamp);
+        }
+        draining.clear();
+    }
+
+    private void sendDownstream(MidiMessage message, long timeStamp) {
+        try {
+            downstream.send(message, timeStamp);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void idle(long h) {
+        consumerParked = true;
+        // Re-check after announcing, or a message published in between would wait for the timeout.
+        // Pairs with send(): both sides store then load volatiles, so at least one of them sees the other.
+        if (tail.get() == h && !overflowing && !closed) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        consumerParked = false;
+    }
+
+    /** The # of Control Change messages replaced by a later value under the COALESCE_CC policy */
+    public long coalesced() {
+        return coalesced;
+    }
+
+    /** The # of messages in the ring waiting for the output thread, not counting any overflow */
+    public int backlog() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /** Sends whatever is still queued, then stops the output thread and closes the downstream receiver */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        downstream.close();
+    }
+}
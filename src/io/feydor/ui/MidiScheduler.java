@@ -5,272 +5,505 @@ import io.feydor.midi.MidiChannel;
 import io.feydor.util.ByteFns;
 
 import javax.sound.midi.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 
 public class MidiScheduler {
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(20);
+    /** The timing thread: plays the whole playlist, every track of a file from one merged timeline */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /** Prepares the next file while the current one plays */
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+    /** Parses and caches the files */
+    private final MidiLibrary library;
+    /** Files handed from the timing thread to the UI thread as they start playing */
+    private final BlockingQueue<NowPlaying> nowPlaying = new LinkedBlockingQueue<>();
     private final MidiUi ui;
-    private final List<Midi> playlist;
-    private final Receiver receiver;
+    private final List<String> playlist;
+    private final MidiSink sink;
+    /** Sends the channel state restored by a seek to the sink, due right away */
+    private final Receiver seekReceiver;
     private final boolean verbose;
+    private final Clock clock;
+    private final Lateness lateness = new Lateness();
+    /** The device behind the sink, its clock timestamps messages in lookahead mode. Null when unknown. */
+    private final MidiDevice device;
+    private final long lookaheadNanos;
+    /** A pending seek in nanoseconds from the start of the file, -1 when there is none */
+    private final AtomicLong seekRequest = new AtomicLong(-1);
+    private volatile Thread timingThread;
+    private volatile double rate = 1.0;
+    private volatile boolean paused;
+    /** Where playback is, null between files. Replaced by the timing thread whenever its anchor moves. */
+    private volatile Position position;
+    private int uiFps = DEFAULT_UI_FPS;
+    public static final int DEFAULT_UI_FPS = 30;
+    private static final int CC_SUSTAIN = 64;
+    private static final int CC_ALL_NOTES_OFF = 123;
+    /** How often a paused timing thread checks for a resume or seek */
+    private static final long PAUSE_POLL_NANOS = 10_000_000;
+    /** The rate the timing thread's deadlines are scaled by, only touched by the timing thread */
+    private double appliedRate = 1.0;
 
-    public MidiScheduler(MidiUi ui, List<Midi> playlist, Receiver receiver, boolean verbose) {
+    /** A file ready to play: merged, rendered and with its channels set up */
+    private record Prepared(PreparedTimeline song, MidiChannel[] channels) {}
+
+    /** The file that just started playing, done completes when its last event has been sent */
+    private record NowPlaying(Prepared prepared, CompletableFuture<Void> done) {}
+
+    /** Sent after the last file */
+    private static final NowPlaying END = new NowPlaying(null, null);
+
+    /**
+     * Where the timing thread is in a file, published whenever it starts a file, seeks, changes rate, pauses or
+     * resumes. Between those, the position follows from the clock: readers never wait for the timing thread.
+     * @param anchorSong A time into the song in nanoseconds
+     * @param anchorWall The clock time anchorSong sounds at
+     */
+    public record Position(PreparedTimeline song, MidiChannel[] channels, long anchorSong, long anchorWall,
+                           double rate, boolean paused) {
+        /** How far into the song playback is at a time of the scheduler's clock, in nanoseconds */
+        public long songNanos(long clockNanos) {
+            long nanos = paused ? anchorSong : anchorSong + (long) ((clockNanos - anchorWall) * rate);
+            return Math.max(0, Math.min(nanos, song.timeline.durationNanos()));
+        }
+    }
+
+    /**
+     * @param playlist The MIDI files to play, in order. Each is parsed just before it plays.
+     */
+    public MidiScheduler(MidiUi ui, List<String> playlist, Receiver receiver, boolean verbose) {
+        this(ui, playlist, receiver, verbose, WaitStrategy.PARK_SPIN);
+    }
+
+    public MidiScheduler(MidiUi ui, List<String> playlist, Receiver receiver, boolean verbose, WaitStrategy waitStrategy) {
+        this(ui, playlist, receiver, verbose, waitStrategy, null, 0);
+    }
+
+    /**
+     * @param device The device the receiver belongs to. When it keeps a clock, events are sent lookaheadMs early
+     *               and timestamped for when they should play, so the device does the final timing instead of this thread.
+     * @param lookaheadMs How far ahead to send events, 0 to send each one at its deadline
+     */
+    public MidiScheduler(MidiUi ui, List<String> playlist, Receiver receiver, boolean verbose, WaitStrategy waitStrategy,
+                         MidiDevice device, int lookaheadMs) {
+        this(ui, playlist, receiver, verbose, waitStrategy, device, lookaheadMs,
+                new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, verbose));
+    }
+
+    /**
+     * @param library Parses the files of the playlist. Files coming up are parsed on its workers ahead of time.
+     */
+    public MidiScheduler(MidiUi ui, List<String> playlist, Receiver receiver, boolean verbose, WaitStrategy waitStrategy,
+                         MidiDevice device, int lookaheadMs, MidiLibrary library) {
+        this(ui, playlist, MidiSink.of(receiver), verbose, Clock.system(waitStrategy), device, lookaheadMs, library);
+    }
+
+    /**
+     * @param sink Where the messages go, told when each one was due
+     * @param clock What deadlines are measured and waited on with. A {@link VirtualClock} plays at CPU speed.
+     */
+    public MidiScheduler(MidiUi ui, List<String> playlist, MidiSink sink, boolean verbose, Clock clock,
+                         MidiDevice device, int lookaheadMs, MidiLibrary library) {
+        if (lookaheadMs < 0) {
+            throw new IllegalArgumentException("lookaheadMs must not be negative: lookaheadMs=" + lookaheadMs);
+        }
         this.ui = ui;
         this.playlist = playlist;
-        this.receiver = receiver;
+        this.sink = sink;
+        this.seekReceiver = new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timestamp) {
+                sink.send(message, timestamp, clock.nanoTime());
+            }
+
+            @Override
+            public void close() {
+            }
+        };
         this.verbose = verbose;
+        this.clock = clock;
+        this.device = device;
+        this.lookaheadNanos = lookaheadMs * 1_000_000L;
+        this.library = library;
     }
 
-    /** Play all of the loaded files */
-    public void scheduleEventsAndWait(boolean loop) throws Exception {
-        // For each MIDI file,
-        // i. Extract the # of channels used into a map of channel# and its current value
-        // ii. Sequence and play the file in a new thread, passing in the channels map to keep track of note values
-        // iii. In the thread, display the UI
-        do {
-            for (Midi midi : playlist) {
-                System.out.println("Playing: " + midi.filename);
-                MidiChannel[] channels = new MidiChannel[16];
-                for (int i=0; i<16; ++i) {
-                    channels[i] = new MidiChannel(i+1, midi.channelsUsed[i]);
-                }
+    /**
+     * Moves the playing file to a position: notes are silenced and every channel's program, controllers and pitch
+     * bend are restored to what they would be there, then playback carries on from that point.
+     * Ignored when nothing is playing.
+     * @param position From the start of the file
+     */
+    public void seek(TotalTime position) {
+        var thread = timingThread;
+        if (thread == null) {
+            return;
+        }
+        seekRequest.set(Math.max(0, (long) (position.ms() * 1_000_000)));
+        LockSupport.unpark(thread);
+    }
 
-                if (verbose)
-                    System.out.println("# of channels used: " + Arrays.stream(channels).mapToInt(ch -> ch.used ? 1 : 0).sum());
-
-                // Start playback in a new thread which will update the channel map and the time remaining
-                // and then sleep until the last event in the file
-//                var eventBatches = midi.allEventsInAbsoluteTime();
-//                TotalTime timeUntilLastEvent = new TotalTime(eventBatches.get(eventBatches.size()-1).get(0).absoluteTime);
-                List<Callable<Object>> scheduledThreads = new ArrayList<>(midi.numTracks());
-                for (var track : midi.getTracks()) {
-                    scheduledThreads.add(Executors.callable(() -> {
-                        try {
-                            scheduleTrack(midi, track, channels);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }));
-                }
-                var futures = executor.invokeAll(scheduledThreads);
+    /**
+     * Changes the playback speed, taking effect from the next event: 2.0 plays twice as fast, 0.5 at half speed.
+     * Costs O(1) and allocates nothing, the timing thread rescales its deadlines from the last event it sent.
+     * @param rate A multiplier of the file's tempo, greater than 0
+     */
+    public void setRate(double rate) {
+        if (!(rate > 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("rate must be a positive number: rate=" + rate);
+        }
+        this.rate = rate;
+        var thread = timingThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
 
-                // Display UI while playing thread
+    public double rate() {
+        return rate;
+    }
 
-                // block until all tracks completed
-                for (var f : futures) {
-                    f.get();
-                }
+    /** Stop at the current position, silencing every channel. Seeks still apply while paused. */
+    public void pause() {
+        paused = true;
+        var thread = timingThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
 
-                // Display the UI while the playing thread sleeps
-//                var schedulerThread = scheduledThreads.get(scheduledThreads.size()-1);
-//                if (ui != null) {
-//                    ui.block(midi, schedulerThread, channels, timeUntilLastEvent);
-//                } else {
-//                    while (!schedulerThread.isDone());
-//                }
-            }
-        } while (loop);
+    /** Carry on from where playback was paused */
+    public void resume() {
+        paused = false;
+        var thread = timingThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
 
-        executor.shutdown();
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /** The file playing and where in it, null when nothing is. See {@link Position#songNanos(long)}. */
+    public Position position() {
+        return position;
+    }
+
+    /** The time on the clock playback is scheduled against, for {@link Position#songNanos(long)} */
+    public long clockNanos() {
+        return clock.nanoTime();
+    }
+
+    /** How many frames per second the UI draws, takes effect from the next {@link #scheduleEventsAndWait(boolean)} */
+    public void setUiFrameRate(int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("fps must be greater than 0: fps=" + fps);
+        }
+        this.uiFps = fps;
+    }
+
+    /** Checked by the timing thread while it waits: a seek, a rate change or a pause moves its deadline */
+    private boolean controlChanged() {
+        return seekRequest.get() >= 0 || rate != appliedRate || paused;
+    }
+
+    /** How late batches have been dispatched so far, across the whole playlist */
+    public Lateness lateness() {
+        return lateness;
+    }
+
+    /**
+     * Play every file of the playlist, gaplessly.
+     * <p>
+     * The files are pipelined: while one plays, the next is parsed and prepared on a background thread, so only about
+     * two files are in memory at once. The timing thread starts each file at the deadline the previous one ended at.
+     * The UI draws on its own thread from the published {@link #position()}.
+     * Returns once the last file is done and the sink is closed.
+     */
+    public void scheduleEventsAndWait(boolean loop) throws Exception {
+        Future<Void> playback = executor.submit(() -> playPlaylist(loop));
+        try {
+            try (var uiHost = ui == null ? null : new UiHost(ui, this, uiFps)) {
+                while (true) {
+                    var next = nowPlaying.poll(100, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        if (playback.isDone()) break; // failed before handing over the next file, get() rethrows
+                        continue;
+                    }
+                    if (next == END) break;
+
+                    var song = next.prepared().song();
+                    var channels = next.prepared().channels();
+                    if (uiHost == null) System.out.println("Playing: " + song.midi.filename); // else the UI announces it
+                    if (verbose)
+                        System.out.println("# of channels used: " + Arrays.stream(channels).mapToInt(ch -> ch.used ? 1 : 0).sum());
+                    next.done().get();
+                    if (verbose) System.out.printf("Dispatch lateness (%s): %s\n", clock, lateness);
+                }
+            }
+            playback.get();
+        } finally {
+            playback.cancel(true); // only still running when waiting on it failed
+            executor.shutdown();
+            prefetcher.shutdown();
+            library.close();
+            sink.close(); // sends anything still queued for the device
+        }
         System.out.println("END");
-        System.exit(0);
     }
 
-    private void scheduleTrack(Midi midi, Midi.MidiChunk.Track track, MidiChannel[] channels) throws Exception {
-        long ticks = 0;
-        long time = 0;
-        long processingTime = 0;
-
-        for (int i=0; i <track.events.size(); ++i) {
-            var event = track.events.get(i);
-            double elapsedTime = event.ticks * midi.msPerTick();
-            Thread.sleep((long)elapsedTime);
-            ticks += event.ticks;
-            time += (long)elapsedTime;
-
-            if (event.subType == MidiEventSubType.SET_TEMPO) {
-                // handle global tempo change
-                int newTempo = Integer.parseUnsignedInt(event.message.substring(6), 16);
-//                midi.updateGlobalTempo(newTempo);
-                System.out.printf("Detected unsupported SET_TEMPO event with newTempo=%d with trknum=%d @ time=%d, ticks=%d, globalTempo=%d\n", newTempo, track.trackNum, time, ticks, midi.getTracks().get(1).getTempo());
-            } else if (event.subType == MidiEventSubType.TIME_SIGNATURE) {
-                System.out.println("WARNING: Encountered TIME_SIGNATURE change! " + event);
-            } else if (event.subType == MidiEventSubType.MARKER) {
-//                System.out.println("WARNING: Encountered MARKER! " + event);
-                byte[] msgBytes = ByteFns.fromHex(event.message.substring(event.dataStart * 2, (event.dataStart + event.dataLen)*2));
-                String msg = ByteFns.toAscii(msgBytes);
-                System.out.println(msg);
+    /** The timing thread: play the files back to back, each one prepared while the previous one plays */
+    private Void playPlaylist(boolean loop) throws Exception {
+        int size = playlist.size();
+        int i = 0, failuresInARow = 0;
+        long endWall = -1;
+        Future<Prepared> next = size > 0 ? prefetch(playlist.get(0)) : null;
+        while (next != null) {
+            Prepared prepared = null;
+            try {
+                prepared = next.get();
+                failuresInARow = 0;
+            } catch (ExecutionException e) {
+                System.err.printf("The file failed to load: %s\n%s. Skipping...\n", playlist.get(i % size), e.getCause().getMessage());
+                failuresInARow++;
+            }
+
+            // Start on the next file right away, it has the whole of this one to get ready
+            i++;
+            boolean more = loop ? failuresInARow < size : i < size;
+            next = more ? prefetch(playlist.get(i % size)) : null;
+            if (more && (loop || i + 1 < size)) {
+                library.load(playlist.get((i + 1) % size)); // warms the cache for the one after
             }
+            if (prepared == null) continue;
 
-            sendEvent(event, channels);
+            var done = new CompletableFuture<Void>();
+            nowPlaying.put(new NowPlaying(prepared, done));
+            try {
+                endWall = playTimeline(prepared.song(), prepared.channels(), endWall);
+                done.complete(null);
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+                throw e;
+            }
         }
+        position = null;
+        nowPlaying.put(END);
+        return null;
     }
 
-    private void sendEvent(Midi.MidiChunk.Event event, MidiChannel[] channels) {
-        MidiMessage msg;
-        try {
-            msg = makeMidiMessage(event, channels);
-        } catch (InvalidMidiDataException e) {
-            throw new RuntimeException(e);
+    private Future<Prepared> prefetch(String filename) {
+        return prefetcher.submit(() -> {
+            Midi midi;
+            try {
+                midi = library.load(filename).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+            MidiChannel[] channels = new MidiChannel[16];
+            for (int i=0; i<16; ++i) {
+                channels[i] = new MidiChannel(i+1, midi.channelsUsed[i]);
+            }
+            // Render every message up front, the timing thread only sends them
+            var song = new PreparedTimeline(midi);
+            preloadInstruments(song);
+            return new Prepared(song, channels);
+        });
+    }
+
+    /** Load every program the file selects into the synthesizer ahead of time, so it doesn't load mid-song */
+    private void preloadInstruments(PreparedTimeline song) {
+        if (!(device instanceof Synthesizer synth) || synth.getDefaultSoundbank() == null) {
+            return;
         }
-        if (msg != null) {
-            receiver.send(msg, -1);
+        var soundbank = synth.getDefaultSoundbank();
+        var timeline = song.timeline;
+        boolean[] loaded = new boolean[128];
+        for (int n = 0; n < timeline.size(); ++n) {
+            int word = timeline.events(n).word(timeline.index(n));
+            int status = PackedEvents.status(word);
+            // Channel 10 is percussion, its kits are not selected by program changes alone
+            if (status >> 4 != 0xC || (status & 0xF) == 9 || loaded[PackedEvents.data1(word)]) continue;
+            loaded[PackedEvents.data1(word)] = true;
+            var instrument = soundbank.getInstrument(new Patch(0, PackedEvents.data1(word)));
+            if (instrument != null) {
+                synth.loadInstrument(instrument);
+            }
         }
     }
 
     /**
-     * Sequences the events in a MIDI file and schedules when they will be sent according to each event's deltatime (in absolute time).
-     * Should be run in a new thread.
-     * @param midi The file to playback
+     * Plays a file's prepared timeline from the calling thread. Each batch of simultaneous events is sent together
+     * at its absolute deadline, measured from the start of playback, so no error accumulates between events.
+     * Deadlines are read and waited for on the {@link Clock}.
+     * <p>
+     * In lookahead mode each batch is sent early and timestamped against the device's clock, read once at the
+     * start. Devices that don't keep a clock get deadline dispatch instead.
+     * @param song The file's events merged across tracks and rendered
      * @param channels A map of channels used to their values. Set by this method.
-     * @param timeUntilLastEvent The file's remaining time. The time of the last event in absolute time.
-     * @throws InterruptedException When the thread is interrupted somehow
+     * @param startWall The clock time the file's first event is due at, to follow on from the previous file
+     *                  without a gap. -1 to start now.
+     * @return The clock time the last event was due at
+     * @throws InterruptedException When the thread is interrupted while waiting for a deadline
      */
-    private Void scheduleEventsAndWait(Midi midi, MidiChannel[] channels, TotalTime timeUntilLastEvent) throws InterruptedException {
-        // Schedule the events in absolute time, each batch is scheduled for the same time
-
-        List<List<Midi.MidiChunk.Event>> eventsByAbsoluteTime = midi.allEventsInAbsoluteTime();
-        long start = System.nanoTime();
-        for (int i=0; i<eventsByAbsoluteTime.size(); ++i) {
-            var batch = eventsByAbsoluteTime.get(i);
-            List<Midi.MidiChunk.Event> nextBatch = null;
-            if (i < (eventsByAbsoluteTime.size() - 1)) {
-                nextBatch = eventsByAbsoluteTime.get(i+1);
-            }
-            double ms = batch.get(0).absoluteTime;
-            // sleep the difference between when the event should be fired and the current song time in ms
-            Thread.sleep((long)(ms - (System.nanoTime() - start)/1_000_000));
-            long elapsedTime = (System.nanoTime() - start)/1_000_000; // ms
-
-            boolean tempoChanged = false;
-            for (var event : batch) {
-                if (event.subType == MidiEventSubType.SET_TEMPO) {
-                    if (tempoChanged) {
-                        throw new IllegalArgumentException("Cannot change tempo twice in same batch");
-                    }
-                    if (elapsedTime > 100) {
-//                        System.out.println("YEET");
-//                        System.out.println(nextBatch);
+    private long playTimeline(PreparedTimeline song, MidiChannel[] channels, long startWall) throws InterruptedException, InvalidMidiDataException {
+        timingThread = Thread.currentThread();
+        seekRequest.set(-1);
+        try {
+            var timeline = song.timeline;
+            long wallStart = clock.nanoTime();
+            long deviceStart = lookaheadStart(); // the device's clock at wallStart, -1 without lookahead
+            long lookahead = deviceStart < 0 ? 0 : lookaheadNanos;
+            BooleanSupplier woken = this::controlChanged;
+
+            // Deadlines are anchored: the song time anchorSong plays at anchorWall, later times are scaled by the rate
+            long anchorSong = 0;
+            // A file that wasn't ready in time starts late rather than rushing through its first events
+            long anchorWall = Math.max(startWall, wallStart + lookahead);
+            appliedRate = rate;
+            position = new Position(song, channels, anchorSong, anchorWall, appliedRate, false);
+            for (int b = 0; b < timeline.batches(); ++b) {
+                long seekTo = seekRequest.getAndSet(-1);
+                if (seekTo >= 0) {
+                    // Re-anchor so the first event after the seek is due now
+                    int n = song.seek(song.midi.tempoMap().nanosToTick(seekTo), seekReceiver, channels);
+                    b = timeline.batchOf(n) - 1;
+                    anchorSong = n < timeline.size() ? timeline.nanos(n) : seekTo;
+                    anchorWall = clock.nanoTime() + lookahead;
+                    position = new Position(song, channels, anchorSong, anchorWall, appliedRate, paused);
+                    continue;
+                }
+                if (paused) {
+                    // Hold the song where it is: no later than the next batch, which has not been sent
+                    long now = clock.nanoTime();
+                    long pausedAt = Math.min(timeline.nanos(timeline.batchStart(b)),
+                            anchorSong + Math.max(0, (long) ((now - anchorWall) * appliedRate)));
+                    // At the end of the lookahead window, after every batch already queued in the device
+                    silence(channels, deviceStart < 0 ? -1 : deviceStart + (now + lookahead - wallStart) / 1000, now);
+                    position = new Position(song, channels, pausedAt, now, appliedRate, true);
+                    while (paused && seekRequest.get() < 0) {
+                        LockSupport.parkNanos(PAUSE_POLL_NANOS); // real time, a virtual clock would never wake up
+                        if (Thread.interrupted()) throw new InterruptedException();
                     }
-                    System.out.println("tempo change @ " + elapsedTime);
-                    // handle global tempo change
-                    int newTempo = Integer.parseUnsignedInt(event.message.substring(6), 16);
-                    midi.updateGlobalTempo(newTempo);
-                    eventsByAbsoluteTime = midi.allEventsInAbsoluteTime(elapsedTime); // only affects batches in the future, same number of batches
-                    i = 0; // reset i to first batch (the next future batch)
-                    tempoChanged = true;
-                    // TODO: update timeUntilLastEvent
+                    anchorSong = pausedAt;
+                    anchorWall = clock.nanoTime() + lookahead;
+                    position = new Position(song, channels, anchorSong, anchorWall, appliedRate, paused);
+                    b--; // a seek while paused is handled at the top
+                    continue;
+                }
+                if (rate != appliedRate) {
+                    // Carry on from where the song is now at the new rate: O(1), no timeline rebuild. Now is the
+                    // dispatch horizon, which every batch sent so far is due before, and no earlier than the start.
+                    // Like a pause, the song is no later than the next batch, which has not been sent.
+                    long now = Math.max(clock.nanoTime() + lookahead, anchorWall);
+                    anchorSong = Math.min(timeline.nanos(timeline.batchStart(b)),
+                            anchorSong + (long) ((now - anchorWall) * appliedRate));
+                    anchorWall = now;
+                    appliedRate = rate;
+                    position = new Position(song, channels, anchorSong, anchorWall, appliedRate, false);
                 }
 
-                sendEvent(event, channels);
+                int first = timeline.batchStart(b);
+                long due = anchorWall + (long) ((timeline.nanos(first) - anchorSong) / appliedRate);
+                long deadline = due - lookahead;
+                if (!clock.waitUntil(deadline, woken)) {
+                    b--; // woken by a seek, a rate change or a pause, handled at the top
+                    continue;
+                }
+                lateness.record(clock.nanoTime() - deadline);
+                long timestamp = deviceStart < 0 ? -1 : deviceStart + (due - wallStart) / 1000;
+
+                for (int n = first; n < timeline.batchEnd(b); ++n) {
+                    var msg = song.message(n);
+                    if (msg == null) {
+                        if (verbose) onMetaEvent(timeline, n);
+                        continue; // META events are not for the Receiver
+                    }
+                    int status = msg.getStatus();
+                    if (status < 0xF0) {
+                        updateChannels(timeline.events(n).word(timeline.index(n)), channels);
+                    }
+                    sink.send(msg, timestamp, deadline);
+                }
             }
+            if (verbose) System.out.println("DONE playing!");
+            return anchorWall + (long) ((timeline.durationNanos() - anchorSong) / appliedRate);
+        } finally {
+            timingThread = null;
         }
+    }
 
-//        for (int i=0; i<eventsByAbsoluteTime.entrySet().size(); ++i) {
-//            double time = timeItr.next();
-//            Thread.sleep(Math.round(time));
-//            t += Math.round(time);
-//            for (var event : eventsByAbsoluteTime.get(time)) {
-//                if (event.subType == MidiEventSubType.SET_TEMPO) {
-//                    // handle global tempo change
-//                    int newTempo = Integer.parseUnsignedInt(event.message.substring(3), 16);
-//                    midi.updateGlobalTempo(newTempo);
-//                    eventsByAbsoluteTime = midi.updateAbsoluteTimes(t);
-//                }
-//
-//                MidiMessage msg;
-//                try {
-//                    msg = makeMidiMessage(event, channels);
-//                } catch (InvalidMidiDataException e) {
-//                    throw new RuntimeException(e);
-//                }
-//                if (msg != null)
-//                    receiver.send(msg, -1);
-//            }
-//        }
-
-//        var eventBatches = midi.allEventsInAbsoluteTime();
-//        Timer timer = new Timer();
-//        long beforeSequencing = System.nanoTime();
-//        for (var eventBatch : eventBatches) {
-//            long absoluteTimeInMs = Math.round(eventBatch.get(0).absoluteTime);
-//            timer.schedule(new TimerTask() {
-//                @Override
-//                public void run() {
-//                    for (var event : eventBatch) {
-//                        MidiMessage msg;
-//                        try {
-//                            msg = makeMidiMessage(event, channels);
-//                        } catch (InvalidMidiDataException e) {
-//                            throw new RuntimeException(e);
-//                        }
-//
-//                        if (msg != null)
-//                            receiver.send(msg, -1);
-//                    }
-//                }
-//            }, absoluteTimeInMs);
-//        }
-
-        // Sleep until the last event is played (accounting for how long the above sequencing loop took)
-//        long totalSequencingTimeMs = (System.nanoTime() - beforeSequencing) / 1_000_000;
-//        Thread.sleep(Math.round(timeUntilLastEvent.ms()));
-        System.out.println("DONE playing!");
-        return null;
+    /**
+     * Sustain off and all notes off on every channel, for a pause
+     * @param timestamp The device time to silence at, -1 for now
+     */
+    private void silence(MidiChannel[] channels, long timestamp, long dueNanos) throws InvalidMidiDataException {
+        for (int channel = 0; channel < 16; ++channel) {
+            sink.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_SUSTAIN, 0), timestamp, dueNanos);
+            sink.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, channel, CC_ALL_NOTES_OFF, 0), timestamp, dueNanos);
+            channels[channel].silence();
+        }
     }
 
     /**
-     * Parses each event into the format required to the Java MidiSystem Receiver.
-     * @param event The MIDI event to parse
-     * @param channels The map of channels and their values to update
-     * @return The formatted message ready to be sent
-     * @throws InvalidMidiDataException When an invalid MIDI event is encountered
+     * The device's clock now, in microseconds. Batches are timestamped relative to it, their deadlines already
+     * include the lookahead window.
+     * @return -1 when lookahead is off or the device does not support timestamps
      */
-    private MidiMessage makeMidiMessage(Midi.MidiChunk.Event event, MidiChannel[] channels) throws InvalidMidiDataException {
-        return switch (event.type) {
-            case MIDI -> {
-                var parsed = event.parseAsChannelMidiEvent();
-                updateChannels(event, parsed, channels);
-                yield new ShortMessage(parsed.cmd(), parsed.channel(), parsed.data1(), parsed.data2());
-            }
-            case META -> {
-                // TODO: META events are not for the Receiver, they are for me to manually adjust
-                //  the rest of the event's absolute times
-                // FORMAT_1 means track 1 has all of the Global tempo changes
-                // FORMAT_2 means each track has its own tempo changes
-                yield null;
-            }
-            case SYSEX -> {
-                var parsed = event.parseAsSysexEvent();
-                yield new SysexMessage(parsed.type(), parsed.data(), parsed.len());
-            }
-            case UNKNOWN -> throw new RuntimeException("Encountered a completely unknown event: " + event);
-        };
+    private long lookaheadStart() {
+        if (lookaheadNanos == 0 || device == null) {
+            return -1;
+        }
+        long now = device.getMicrosecondPosition();
+        if (now < 0) {
+            if (verbose) System.out.println("The device does not support timestamps, sending every event at its deadline");
+            return -1;
+        }
+        return now;
     }
 
-    private void updateChannels(Midi.MidiChunk.Event event, Midi.MidiChunk.ChannelMidiEventParseResult parsed, MidiChannel[] channels) {
-        var channel = channels[parsed.channel()];
-        switch (event.subType) {
-            case NOTE_ON -> {
-                channel.setNoteOn(true);
-                channel.setNote((byte) parsed.data1());
-                channel.setNoteVelocity((byte) parsed.data2());
-            }
-            case NOTE_OFF -> {
-                channel.setNoteOn(false);
-                channel.setNote((byte) 0);
-                channel.setNoteVelocity((byte) 0);
-            }
-            case POLYPHONIC_PRESSURE -> channel.setPolyphonicPressure((byte) parsed.data1(), (byte) parsed.data2());
-            case PITCH_BEND -> {
-                int pitch = (parsed.data2() << 7) | parsed.data1();
+    /**
+     * Print what a META event changes, in verbose mode only: the timing thread must not print over the block the UI
+     * draws in place
+     */
+    private static void onMetaEvent(Timeline timeline, int n) {
+        var events = timeline.events(n);
+        int i = timeline.index(n);
+        var subType = MidiEventSubType.fromTypeByte((short) PackedEvents.data1(events.word(i)));
+        if (subType == MidiEventSubType.SET_TEMPO) {
+            // Already in the timeline's times, through the file's TempoMap
+            int newTempo = ByteFns.toUnsignedInt(Arrays.copyOfRange(events.pool(), events.dataOffset(i), events.dataOffset(i) + 3));
+            System.out.printf("SET_TEMPO event with newTempo=%d with trknum=%d @ time=%dms, ticks=%d\n",
+                    newTempo, timeline.trackNum(n), timeline.nanos(n) / 1_000_000, timeline.tick(n));
+        } else if (subType == MidiEventSubType.TIME_SIGNATURE) {
+            System.out.println("WARNING: Encountered TIME_SIGNATURE change! " + ByteFns.toHex(events.message(i)));
+        } else if (subType == MidiEventSubType.MARKER) {
+            String msg = new String(events.pool(), events.dataOffset(i), events.dataLength(i), StandardCharsets.US_ASCII);
+            System.out.println(msg);
+        }
+    }
+
+    private void updateChannels(int word, MidiChannel[] channels) {
+        int status = PackedEvents.status(word);
+        int data1 = PackedEvents.data1(word);
+        int data2 = PackedEvents.data2(word);
+        var channel = channels[status & 0xF];
+        switch (status >> 4) {
+            case 0x9 -> channel.noteOn((byte) data1, (byte) data2);
+            case 0x8 -> channel.noteOff((byte) data1);
+            case 0xA -> channel.setPolyphonicPressure((byte) data1, (byte) data2);
+            case 0xE -> {
+                int pitch = (data2 << 7) | data1;
                 channel.setPitchBend(pitch);
             }
-            case PROGRAM_CHANGE -> channel.setProgram((byte) parsed.data1());
-            case CHANNEL_PRESSURE -> channel.setPressure((byte) parsed.data1());
-            case CONTROLLER -> channel.setController((byte) parsed.data1(), (byte) parsed.data2());
+            case 0xC -> channel.setProgram((byte) data1);
+            case 0xD -> channel.setPressure((byte) data1);
+            case 0xB -> channel.setController((byte) data1, (byte) data2);
         }
     }
 
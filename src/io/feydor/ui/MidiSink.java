@@ -0,0 +1,34 @@
+package io.feydor.ui;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+
+/**
+ * Where the scheduler sends messages. Unlike a {@link Receiver} it is also told when each message was due,
+ * so a sink can measure timing error against the scheduler's {@link Clock}.
+ */
+public interface MidiSink extends AutoCloseable {
+    /**
+     * @param timestamp The device time in microseconds the message should play at, -1 for as soon as possible
+     * @param dueNanos When the scheduler meant to send the message, on its clock
+     */
+    void send(MidiMessage message, long timestamp, long dueNanos);
+
+    @Override
+    void close();
+
+    /** Sends to a receiver, the due time is dropped */
+    static MidiSink of(Receiver receiver) {
+        return new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                receiver.send(message, timestamp);
+            }
+
+            @Override
+            public void close() {
+                receiver.close();
+            }
+        };
+    }
+}
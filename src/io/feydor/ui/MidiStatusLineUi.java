@@ -1,66 +1,44 @@
 package io.feydor.ui;
 
-import io.feydor.midi.Midi;
 import io.feydor.midi.MidiChannel;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Future;
-
 public class MidiStatusLineUi implements MidiUi {
-    private static final String BLOCK = " ";
     private static final int SEGMENTS = 30;
-    private static final int UPDATE_PERIOD = 1000; // ms
-    private static final String BG_GRN_ON = "\033[42m";
-    private static final String BG_WHITE_ON = "\033[47m";
-    private static final String BG_OFF = "\033[0m";
-
-    @Override
-    public void block(Midi midi, Future<Void> playbackThread, MidiChannel[] channels, TotalTime remainingTime) throws Exception {
-        var timer = new Timer();
-        timer.scheduleAtFixedRate(new UiThread(remainingTime, timer), 0, UPDATE_PERIOD);
+    private static final int MAX_FPS = 60;
+    private static final String PAUSED = " paused";
+    /** HH:MM:SS, the bar, HH:MM:SS and paused */
+    private static final int WIDTH = 8 + 1 + SEGMENTS + 1 + 8 + PAUSED.length();
 
-        Thread.sleep((long) remainingTime.ms() + 2000);
+    private TerminalRenderer renderer;
+    private double durationMs;
 
-        timer.purge();
+    @Override
+    public void start(PreparedTimeline song) {
+        this.renderer = new TerminalRenderer(WIDTH, 1, System.out, MAX_FPS);
+        this.durationMs = song.duration().ms();
     }
 
-    private static class UiThread extends TimerTask {
-        private int curSegment = 0;
-        private int millisec = 0;
-        private final TotalTime remainingTime;
-        private final double msPerSegment;
-        private final Timer timerHandle;
-
-        public UiThread(TotalTime remainingTime, Timer timerHandle) {
-            this.remainingTime = remainingTime;
-            this.msPerSegment = remainingTime.ms() / SEGMENTS;
-            this.timerHandle = timerHandle;
-        }
-
-        @Override
-        public void run() {
-            millisec += UPDATE_PERIOD;
-            Terminal.carriageReturn();
-            printStatusLine();
-
-            if (millisec >= curSegment * msPerSegment) {
-                curSegment++;
-            }
-
-            if (millisec >= remainingTime.ms()) {
-                timerHandle.cancel();
-                System.out.println();
-                Terminal.clearFromCursor();
-                curSegment = 0;
-            }
+    @Override
+    public void frame(long positionNanos, boolean paused, MidiChannel.Snapshot[] channels) {
+        double ms = positionNanos / 1e6;
+        int segments = durationMs <= 0 ? SEGMENTS : (int) Math.min(SEGMENTS, ms / durationMs * SEGMENTS);
+        int col = renderer.putTime(0, 0, ms, TerminalRenderer.DEFAULT);
+        col = renderer.put(0, col, " ", TerminalRenderer.DEFAULT);
+        col = renderer.fill(0, col, segments, ' ', TerminalRenderer.BG_GREEN);
+        col = renderer.fill(0, col, SEGMENTS - segments, ' ', TerminalRenderer.BG_WHITE);
+        col = renderer.put(0, col, " ", TerminalRenderer.DEFAULT);
+        col = renderer.putTime(0, col, durationMs, TerminalRenderer.DEFAULT);
+        if (paused) {
+            renderer.put(0, col, PAUSED, TerminalRenderer.DEFAULT);
+        } else {
+            renderer.fill(0, col, PAUSED.length(), ' ', TerminalRenderer.DEFAULT);
         }
+        renderer.present();
+    }
 
-        private void printStatusLine() {
-            TotalTime cur = new TotalTime(millisec);
-            System.out.printf("%s %s%s%s%s%s%s %s", cur, BG_GRN_ON, BLOCK.repeat(curSegment), BG_OFF,
-                    BG_WHITE_ON, BLOCK.repeat(SEGMENTS - curSegment), BG_OFF, remainingTime);
-            System.out.flush();
-        }
+    @Override
+    public void stop() {
+        renderer.presentNow();
+        renderer.close();
     }
 }
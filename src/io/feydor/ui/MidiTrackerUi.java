@@ -1,34 +1,59 @@
 package io.feydor.ui;
 
-import io.feydor.midi.Midi;
 import io.feydor.midi.MidiChannel;
 
-import java.util.concurrent.Future;
-
+/**
+ * A tracker: the file's batches of events one per row, scrolling past a fixed cursor line as the file plays.
+ * <p>
+ * Only the window of rows around the playback position is drawn, from a {@link TrackerRows} built over the
+ * song's timeline, so a frame costs the same at any point of any file and seeking just moves the window.
+ */
 public class MidiTrackerUi implements MidiUi {
+    private static final int MAX_FPS = 60;
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 16;
+    /** The line of the row playing, the rows above it have played */
+    private static final int CURSOR_LINE = 4;
+    /** Enough to scroll back over a few windows without formatting again */
+    private static final int CACHED_ROWS = 16 * HEIGHT;
+
+    private TerminalRenderer renderer;
+    private TrackerRows rows;
+    /** The row drawn on the cursor line, -2 before the first frame */
+    private int shown;
+    /** The last frame composed is not on screen yet */
+    private boolean dirty;
 
     @Override
-    public void block(Midi midi, Future<Void> playbackThread, MidiChannel[] channels, TotalTime remainingTime) throws Exception {
-        double t = 0;
-        int maxMsgLen = 6;
-        int totalTimeDigits = String.valueOf(Math.round(remainingTime.ms())).length();
-        var eventBatches = midi.allEventsInAbsoluteTime();
-        for (var eventBatch : eventBatches) {
-            // print the events on one line
-            var sb = new StringBuilder(String.format("%0" + totalTimeDigits + "d ", Math.round(t)));
-            for (var event : eventBatch) {
-                int spaces = maxMsgLen - event.message.length();
-                spaces = Math.max(spaces, 0);
-                sb.append("| ").append(event.message).append(" ".repeat(spaces+1));
-            }
-            sb.append("|");
-            System.out.println(sb);
+    public void start(PreparedTimeline song) {
+        this.rows = new TrackerRows(song.timeline, WIDTH, CACHED_ROWS);
+        this.renderer = new TerminalRenderer(WIDTH, HEIGHT, System.out, MAX_FPS);
+        this.shown = -2;
+        this.dirty = false;
+    }
 
-            // sleep for the absolute time - current time
-            // this is used to synchronize this UI thread with the playback thread
-            double dt = Math.abs(t - eventBatch.get(0).absoluteTime);
-            Thread.sleep((long) dt);
-            t = eventBatch.get(0).absoluteTime;
+    @Override
+    public void frame(long positionNanos, boolean paused, MidiChannel.Snapshot[] channels) {
+        int current = rows.rowAt(positionNanos);
+        if (current != shown) {
+            shown = current;
+            for (int line = 0; line < HEIGHT; ++line) {
+                int row = current - CURSOR_LINE + line;
+                renderer.clearRow(line);
+                if (row < 0 || row >= rows.size()) continue;
+                renderer.put(line, 0, rows.row(row), line == CURSOR_LINE ? TerminalRenderer.BG_GREEN : TerminalRenderer.DEFAULT);
+            }
+            dirty = true;
+        }
+        if (dirty) {
+            dirty = !renderer.present();
         }
     }
+
+    @Override
+    public void stop() {
+        renderer.presentNow();
+        renderer.close();
+        rows = null;
+    }
 }
@@ -1,79 +1,64 @@
 package io.feydor.ui;
 
-import io.feydor.midi.Midi;
 import io.feydor.midi.MidiChannel;
 
-import java.util.Map;
-import java.util.concurrent.Future;
-
 public class MidiTuiUi implements MidiUi {
+    private static final int MAX_FPS = 60;
+    private static final int TERM_WIDTH = 100;
+    /** The title, the scrolling filename, the time, then a line per channel */
+    private static final int CHANNELS_ROW = 3;
     private final static String[] NOTES = new String[]{"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
 
+    private TerminalRenderer renderer;
+    private String filename;
+    private TotalTime duration;
+
     @Override
-    public void block(Midi midi, Future<Void> playbackThread, MidiChannel[] channels, TotalTime timeUntilLastEvent) throws Exception {
-        // Display the UI while the playing thread sleeps
-        nowPlayingUi(midi, channels, timeUntilLastEvent, playbackThread);
+    public void start(PreparedTimeline song) {
+        this.filename = song.midi.filename;
+        this.duration = song.duration();
+        this.renderer = new TerminalRenderer(TERM_WIDTH, CHANNELS_ROW + 16, System.out, MAX_FPS);
+        int col = renderer.put(0, 0, "CoolMidi v0.1.0 ", TerminalRenderer.DEFAULT);
+        renderer.fill(0, col, TERM_WIDTH - col, '/', TerminalRenderer.DEFAULT);
     }
 
-    private void nowPlayingUi(Midi midi, MidiChannel[] channels, TotalTime timeRemaining, Future<Void> schedulerThread) throws InterruptedException {
-        int filenamePos = 0;
-        long ticks = 0;
-        int tickLength = 1000; // 1 sec
-        int TERM_WIDTH = 100;
-        System.out.print("\033[H\033[2J");
-        System.out.flush();
-        while (!schedulerThread.isDone()) {
-            System.out.print("\033[" + 1 + ";" + 1 + "H");
-            System.out.println("CoolMidi v0.1.0 " + "/".repeat(TERM_WIDTH - 16));
-            System.out.print("\033[" + 2 + ";" + 1 + "H");
-            System.out.print(" ".repeat(TERM_WIDTH));
-            System.out.print("\r");
-
-            // Scrolling filename with wrap around
-            int start = filenamePos;
-            int end = start + midi.filename.length();
-            int diff = TERM_WIDTH - end;
-            String overflowChars;
-            int pivot;
-            if (diff <= -1* midi.filename.length()) {
-                filenamePos = 0;
-                start = 0;
-                System.out.print(" ".repeat(start) + midi.filename);
-            } else if (diff < 0) {
-                // print overflow characters from filename (starting at the end)
-                pivot = Math.abs(diff);
-                overflowChars = midi.filename.substring(midi.filename.length()-1-pivot);
-                System.out.print(overflowChars);
-                System.out.print(" ".repeat(TERM_WIDTH - overflowChars.length() - (midi.filename.length()-overflowChars.length())));
-                System.out.print(midi.filename.substring(0, midi.filename.length()-pivot-1));
-            } else {
-                System.out.print(" ".repeat(start) + midi.filename);
-            }
-
-            filenamePos = Math.min(filenamePos+1, TERM_WIDTH + midi.filename.length());
+    @Override
+    public void frame(long positionNanos, boolean paused, MidiChannel.Snapshot[] channels) {
+        byte plain = TerminalRenderer.DEFAULT;
+        long seconds = positionNanos / 1_000_000_000L;
 
-            System.out.print("\033[" + 3 + ";" + 1 + "H");
-            System.out.println("time: " + ticks / 1000 + "/" + timeRemaining.asSeconds());
+        // Scrolling filename with wrap around, a column a second of playback
+        int filenamePos = (int) (seconds % TERM_WIDTH);
+        renderer.clearRow(1);
+        for (int i = 0; i < filename.length() && i < TERM_WIDTH; ++i) {
+            renderer.fill(1, (filenamePos + i) % TERM_WIDTH, 1, filename.charAt(i), plain);
+        }
 
-            System.out.print("\033[" + 4 + ";" + 1 + "H");
-            for (MidiChannel channel : channels) {
-                int ch = channel.channel;
-                byte note = channel.note;
-                int val = channel.getVolume();
-                System.out.print("\r");
-                System.out.print(" ".repeat(TERM_WIDTH));
-                System.out.print("\r");
-                int magnitude = Math.min(Math.max(val - 20, 0), TERM_WIDTH -30);
-                String ansiColor = "\u001B[3" + ((magnitude % 7) + 1) + "m"; // Red -> Cyan
-                int spaces = ((ch+1) / 10) > 0 ? 0 : 1; // for padding digits
-                System.out.println(" ".repeat(spaces) + (ch + 1) + " " + ansiColor + "#".repeat(magnitude) + " " + toMusicalNote(note) + "\u001B[0m");
-            }
+        renderer.clearRow(2);
+        int col = renderer.put(2, 0, "time: ", plain);
+        col = renderer.putInt(2, col, seconds, 1, plain);
+        col = renderer.put(2, col, "/", plain);
+        col = renderer.putInt(2, col, duration.asSeconds(), 1, plain);
+        if (paused) renderer.put(2, col, " (paused)", plain);
 
-            // Sleep for tickLength to set a decent refresh rate
-            //noinspection BusyWait
-            Thread.sleep(tickLength);
-            ticks += tickLength;
+        for (int channel = 0; channel < 16; ++channel) {
+            var snapshot = channels[channel];
+            int row = CHANNELS_ROW + channel;
+            int note = Math.max(snapshot.highestNote(), 0);
+            int magnitude = Math.min(Math.max(snapshot.getVolume() - 20, 0), TERM_WIDTH - 30);
+            byte color = TerminalRenderer.fg((magnitude % 7) + 1); // Red -> White
+            renderer.clearRow(row);
+            col = renderer.putInt(row, snapshot.channel < 10 ? 1 : 0, snapshot.channel, 1, plain);
+            col = renderer.fill(row, col + 1, magnitude, '#', color);
+            renderer.put(row, col + 1, toMusicalNote(note), color);
         }
+        renderer.present();
+    }
+
+    @Override
+    public void stop() {
+        renderer.presentNow();
+        renderer.close();
     }
 
     /** Maps a MIDI note value (0-127) to a musical note string */
@@ -1,17 +1,27 @@
 package io.feydor.ui;
 
-import io.feydor.midi.Midi;
 import io.feydor.midi.MidiChannel;
 
-import java.util.concurrent.Future;
-
+/**
+ * A view of the playing file, driven by a {@link UiHost} on its own thread: start when a file begins, a frame at the
+ * host's frame rate, then stop when the next file begins or playback ends. Every call comes from the host's thread.
+ */
 public interface MidiUi {
     /**
-     * Runs a UI in the current thread and blocks
-     * @param midi The currently playing midi. Used to access statistics.
-     * @param playbackThread The currently playing thread's future
-     * @param channels A map from midi channel # to that channel's current value
-     * @param remainingTime The time until the last event plays in absolute time
+     * A file started playing
+     * @param song The file with its merged timeline, used to access statistics and events.
+     *             {@link PreparedTimeline#duration()} is the time until the last event plays, at normal speed.
      */
-    void block(Midi midi, Future<Void> playbackThread, MidiChannel[] channels, TotalTime remainingTime) throws Exception;
+    void start(PreparedTimeline song);
+
+    /**
+     * Draw one frame. Should not allocate: it runs many times a second while the file plays.
+     * @param positionNanos How far into the file playback is, following seeks, pauses and the rate
+     * @param paused Whether playback is paused at positionNanos
+     * @param channels A consistent snapshot of all 16 channels, only valid during the call
+     */
+    void frame(long positionNanos, boolean paused, MidiChannel.Snapshot[] channels);
+
+    /** The file is done or playback ended: leave the terminal ready for whatever prints next */
+    void stop();
 }
@@ -0,0 +1,95 @@
+package io.feydor.ui;
+
+import io.feydor.midi.Midi;
+import io.feydor.midi.MidiChannel;
+import io.feydor.midi.PackedEvents;
+import io.feydor.midi.Timeline;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import java.util.Arrays;
+
+/**
+ * A file's merged timeline with every event already rendered into the message sent to the Receiver.
+ * Built before playback starts, so the timing thread only looks messages up: no parsing and no allocation.
+ */
+public final class PreparedTimeline {
+    public final Midi midi;
+    public final Timeline timeline;
+    /** Aligned with the timeline, null for the META events which are not for the Receiver */
+    private final MidiMessage[] messages;
+    private final ChannelSnapshots snapshots;
+
+    /** Snapshot the channel state every 16 quarter-notes */
+    private static final int SNAPSHOT_QUARTER_NOTES = 16;
+
+    /**
+     * Merge and render every event of the file
+     * @throws InvalidMidiDataException When an event can't be made into a valid message
+     */
+    public PreparedTimeline(Midi midi) throws InvalidMidiDataException {
+        this(midi, new Timeline(midi), (long) midi.header.tickdiv * SNAPSHOT_QUARTER_NOTES);
+    }
+
+    /**
+     * @param snapshotTicks The # of ticks between snapshots of the channel state, used to seek
+     */
+    public PreparedTimeline(Midi midi, Timeline timeline, long snapshotTicks) throws InvalidMidiDataException {
+        this.midi = midi;
+        this.timeline = timeline;
+        this.messages = new MidiMessage[timeline.size()];
+        for (int n = 0; n < timeline.size(); ++n) {
+            messages[n] = render(timeline.events(n), timeline.index(n));
+        }
+        this.snapshots = new ChannelSnapshots(timeline, snapshotTicks);
+    }
+
+    /**
+     * Builds the message for the Java MidiSystem Receiver straight from the event's packed word and payload.
+     * @param events The track's packed events
+     * @param i The index of the event
+     * @return The formatted message ready to be sent, null for META events
+     * @throws InvalidMidiDataException When an invalid MIDI event is encountered
+     */
+    static MidiMessage render(PackedEvents events, int i) throws InvalidMidiDataException {
+        int word = events.word(i);
+        int status = PackedEvents.status(word);
+        return switch (status) {
+            // META events are not for the Receiver, the scheduler handles them itself
+            case 0xFF -> null;
+            case 0xF0, 0xF7 -> {
+                byte[] data = Arrays.copyOfRange(events.pool(), events.dataOffset(i), events.dataOffset(i) + events.dataLength(i));
+                yield new SysexMessage(status, data, data.length);
+            }
+            default -> new ShortMessage(status, PackedEvents.data1(word), PackedEvents.data2(word));
+        };
+    }
+
+    /** The message of timeline event n, null for META events */
+    public MidiMessage message(int n) {
+        return messages[n];
+    }
+
+    /**
+     * Moves playback to an absolute tick: silences every note and sends each channel's program, controllers and
+     * pitch bend as they would be at that tick. Cost is bounded by the snapshot interval, not the song's length.
+     * Only one thread may seek at a time.
+     * @param tick Where to resume
+     * @param receiver Where to send the channel state
+     * @param channels The UI's channel state, updated to match. May be null.
+     * @return The timeline index of the first event to play, size() past the last event
+     */
+    public int seek(long tick, Receiver receiver, MidiChannel[] channels) throws InvalidMidiDataException {
+        int n = timeline.indexAtTick(tick);
+        snapshots.restore(n, receiver, channels);
+        return n;
+    }
+
+    /** The time of the last event in milliseconds */
+    public TotalTime duration() {
+        return new TotalTime(timeline.durationNanos() / 1_000_000.0);
+    }
+}
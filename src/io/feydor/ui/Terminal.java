@@ -1,20 +1,26 @@
 package io.feydor.ui;
 
+/**
+ * The ANSI escape sequences the UIs draw with. Nothing here writes: {@link TerminalRenderer} batches the sequences
+ * into one write per frame.
+ */
 public class Terminal {
     private Terminal() {}
 
-    public static void moveCursorUp(int lines) {
-        System.out.print("\033[" + lines + "A");
-        System.out.flush();
-    }
+    /** Control Sequence Introducer, followed by the parameters and a final letter */
+    static final String CSI = "\033[";
+    /** CSI n A, B, C and D move the cursor n cells up, down, right and left */
+    static final char CURSOR_UP = 'A';
+    static final char CURSOR_DOWN = 'B';
+    static final char CURSOR_RIGHT = 'C';
+    static final char CURSOR_LEFT = 'D';
 
-    public static void carriageReturn() {
-        System.out.print("\r");
-        System.out.flush();
-    }
-
-    public static void clearFromCursor() {
-        System.out.print("\033[K");
-        System.out.flush();
-    }
+    /**
+     * The colors a cell can have, indexed by {@link TerminalRenderer} style: the default colors, green and white
+     * backgrounds, then foregrounds red to white.
+     */
+    static final String[] STYLES = {
+            CSI + "0m", CSI + "0;42m", CSI + "0;47m",
+            CSI + "0;31m", CSI + "0;32m", CSI + "0;33m", CSI + "0;34m", CSI + "0;35m", CSI + "0;36m", CSI + "0;37m",
+    };
 }
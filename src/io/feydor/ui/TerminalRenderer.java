@@ -0,0 +1,315 @@
+package io.feydor.ui;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Draws a block of lines in place, below wherever the cursor was when the first frame was presented.
+ * <p>
+ * Double-buffered: a UI composes each frame into the back buffer of cells, then {@link #present()} diffs it against
+ * the frame on screen and sends only the cells that changed, cursor moves and colors included, in a single write.
+ * Composing and diffing allocate nothing. Frames are capped at a maximum rate, and slowed further when the terminal
+ * is slow: each write may take at most a quarter of the time between frames, so a UI never keeps the output busy.
+ * <p>
+ * Not thread-safe, one UI thread composes and presents.
+ */
+public final class TerminalRenderer implements AutoCloseable {
+    public static final byte DEFAULT = 0;
+    public static final byte BG_GREEN = 1;
+    public static final byte BG_WHITE = 2;
+    /** The share of the time between frames writing to the terminal may take */
+    private static final int WRITE_DUTY_DIVISOR = 4;
+    /** Unchanged cells up to this long are rewritten instead of moving the cursor over them */
+    private static final int MAX_REWRITE_GAP = 4;
+
+    private final int width;
+    private final int height;
+    private final OutputStream out;
+    private final long minFrameNanos;
+
+    private final char[] back;
+    private final byte[] backStyles;
+    private final char[] front;
+    private final byte[] frontStyles;
+
+    /** The escape sequences and text of the frame being presented */
+    private byte[] bytes = new byte[4096];
+    private int len;
+    private boolean reserved;
+    /** Relative to the first line, row == height is the line below the block where the cursor rests between frames */
+    private int cursorRow;
+    private int cursorCol;
+    private byte cursorStyle;
+
+    private long nextFrameAt;
+    /** Moving average of how long a frame takes to write */
+    private double writeNanos;
+    private long bytesWritten;
+    private long nanosWriting;
+
+    /**
+     * @param width The # of columns drawn
+     * @param height The # of lines drawn
+     * @param out Where to write, usually System.out
+     * @param maxFps The most frames presented per second
+     */
+    public TerminalRenderer(int width, int height, OutputStream out, int maxFps) {
+        if (width < 1 || height < 1 || maxFps < 1) {
+            throw new IllegalArgumentException("width, height and maxFps must be greater than 0: width=" + width
+                    + ", height=" + height + ", maxFps=" + maxFps);
+        }
+        this.width = width;
+        this.height = height;
+        this.out = out;
+        this.minFrameNanos = 1_000_000_000L / maxFps;
+        this.back = new char[width * height];
+        this.backStyles = new byte[width * height];
+        this.front = new char[width * height];
+        this.frontStyles = new byte[width * height];
+        Arrays.fill(front, '\0'); // differs from every cell, the first frame is drawn whole
+        clear();
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /** A foreground color from 1 (red) to 7 (white), as in SGR 31-37 */
+    public static byte fg(int color) {
+        if (color < 1 || color > 7) {
+            throw new IllegalArgumentException("Foreground colors go from 1 to 7: color=" + color);
+        }
+        return (byte) (BG_WHITE + color);
+    }
+
+    /** Blank the whole back buffer */
+    public void clear() {
+        Arrays.fill(back, ' ');
+        Arrays.fill(backStyles, DEFAULT);
+    }
+
+    /** Blank one line of the back buffer */
+    public void clearRow(int row) {
+        fill(row, 0, width, ' ', DEFAULT);
+    }
+
+    /**
+     * Set n cells to the same character. Cells past the right edge are dropped.
+     * @return The column after the last cell
+     */
+    public int fill(int row, int col, int n, char c, byte style) {
+        int end = Math.min(col + Math.max(n, 0), width);
+        for (int i = col; i < end; ++i) {
+            back[row * width + i] = c;
+            backStyles[row * width + i] = style;
+        }
+        return end;
+    }
+
+    /** Write text from a column, see {@link #put(int, int, CharSequence, int, int, byte)} */
+    public int put(int row, int col, CharSequence text, byte style) {
+        return put(row, col, text, 0, text.length(), style);
+    }
+
+    /**
+     * Write part of some text from a column, clipped at the right edge
+     * @return The column after the last character
+     */
+    public int put(int row, int col, CharSequence text, int start, int end, byte style) {
+        for (int i = start; i < end && col < width; ++i, ++col) {
+            back[row * width + col] = text.charAt(i);
+            backStyles[row * width + col] = style;
+        }
+        return col;
+    }
+
+    /**
+     * Write a non-negative number in decimal, left-padded with zeros to at least minDigits
+     * @return The column after the last digit
+     */
+    public int putInt(int row, int col, long value, int minDigits, byte style) {
+        if (value < 0) {
+            col = put(row, col, "-", style);
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) digits++;
+        digits = Math.max(digits, minDigits);
+        for (int i = digits - 1; i >= 0; --i, value /= 10) {
+            if (col + i < width) {
+                back[row * width + col + i] = (char) ('0' + value % 10);
+                backStyles[row * width + col + i] = style;
+            }
+        }
+        return Math.min(col + digits, width);
+    }
+
+    /**
+     * Write a duration as HH:MM:SS, like {@link TotalTime}
+     * @return The column after the last digit
+     */
+    public int putTime(int row, int col, double ms, byte style) {
+        long s = (long) (ms / 1000);
+        col = putInt(row, col, s / 3600, 2, style);
+        col = put(row, col, ":", style);
+        col = putInt(row, col, s / 60 % 60, 2, style);
+        col = put(row, col, ":", style);
+        return putInt(row, col, s % 60, 2, style);
+    }
+
+    /**
+     * Send the back buffer's changes to the terminal, unless that would go over the frame rate
+     * @return false when skipped, compose and present again next frame
+     */
+    public boolean present() {
+        if (System.nanoTime() - nextFrameAt < 0) {
+            return false;
+        }
+        presentNow();
+        return true;
+    }
+
+    /** Send the back buffer's changes to the terminal regardless of the frame rate, e.g. the last frame */
+    public void presentNow() {
+        long start = System.nanoTime();
+        len = 0;
+        if (!reserved) {
+            // Make room for the block: the lines below the cursor may not exist yet
+            for (int i = 0; i < height; ++i) append('\n');
+            cursorRow = height;
+            cursorCol = 0;
+            reserved = true;
+        }
+
+        for (int row = 0; row < height; ++row) {
+            int lastChanged = -1;
+            for (int col = 0; col < width; ++col) {
+                int i = row * width + col;
+                if (back[i] == front[i] && backStyles[i] == frontStyles[i]) continue;
+                if (lastChanged >= 0 && cursorRow == row && col - lastChanged - 1 <= MAX_REWRITE_GAP) {
+                    // Cheaper to rewrite the few unchanged cells in between than to move over them
+                    for (int gap = lastChanged + 1; gap < col; ++gap) emit(row * width + gap);
+                } else {
+                    moveTo(row, col);
+                }
+                emit(i);
+                lastChanged = col;
+            }
+        }
+
+        if (len == 0) {
+            nextFrameAt = start + minFrameNanos;
+            return;
+        }
+        style(DEFAULT);
+        moveTo(height, 0);
+        try {
+            out.write(bytes, 0, len);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        long took = System.nanoTime() - start;
+        bytesWritten += len;
+        nanosWriting += took;
+        writeNanos = writeNanos == 0 ? took : writeNanos * 0.8 + took * 0.2;
+        nextFrameAt = start + Math.max(minFrameNanos, (long) writeNanos * WRITE_DUTY_DIVISOR);
+    }
+
+    /** How fast the terminal has taken frames so far, in bytes per second */
+    public double bytesPerSecond() {
+        return nanosWriting == 0 ? 0 : bytesWritten * 1e9 / nanosWriting;
+    }
+
+    /** Forget what is on screen, the next frame is drawn whole. For when something else wrote over the block. */
+    public void invalidate() {
+        Arrays.fill(front, '\0');
+    }
+
+    /** Leaves the cursor on the line below the block, with the default colors */
+    @Override
+    public void close() {
+        if (!reserved) return;
+        len = 0;
+        style(DEFAULT);
+        moveTo(height, 0);
+        try {
+            out.write(bytes, 0, len);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void emit(int i) {
+        style(backStyles[i]);
+        append(back[i]);
+        front[i] = back[i];
+        frontStyles[i] = backStyles[i];
+        cursorCol++;
+    }
+
+    private void style(byte style) {
+        if (style != cursorStyle) {
+            appendAscii(Terminal.STYLES[style]);
+            cursorStyle = style;
+        }
+    }
+
+    private void moveTo(int row, int col) {
+        if (row == cursorRow && col == cursorCol) return;
+        if (cursorCol >= width) {
+            // Past the last column the terminal is about to wrap, relative moves are unreliable
+            append('\r');
+            cursorCol = 0;
+        }
+        if (row < cursorRow) csi(cursorRow - row, Terminal.CURSOR_UP);
+        else if (row > cursorRow) csi(row - cursorRow, Terminal.CURSOR_DOWN);
+        if (col == 0 && cursorCol != 0) append('\r');
+        else if (col > cursorCol) csi(col - cursorCol, Terminal.CURSOR_RIGHT);
+        else if (col < cursorCol) csi(cursorCol - col, Terminal.CURSOR_LEFT);
+        cursorRow = row;
+        cursorCol = col;
+    }
+
+    private void csi(int n, char command) {
+        appendAscii(Terminal.CSI);
+        appendNumber(n);
+        append(command);
+    }
+
+    private void appendNumber(int n) {
+        if (n >= 10) appendNumber(n / 10);
+        append((char) ('0' + n % 10));
+    }
+
+    private void appendAscii(String s) {
+        for (int i = 0; i < s.length(); ++i) append(s.charAt(i));
+    }
+
+    /** UTF-8 encode one character, surrogates become '?' */
+    private void append(char c) {
+        if (len + 3 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        if (c < 0x80) {
+            bytes[len++] = (byte) c;
+        } else if (c < 0x800) {
+            bytes[len++] = (byte) (0xC0 | c >> 6);
+            bytes[len++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            bytes[len++] = '?';
+        } else {
+            bytes[len++] = (byte) (0xE0 | c >> 12);
+            bytes[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+            bytes[len++] = (byte) (0x80 | c & 0x3F);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.feydor.ui;
+
+import io.feydor.midi.PackedEvents;
+import io.feydor.midi.Timeline;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The rows of a tracker view over a timeline: one row per batch, i.e. per tick that has events.
+ * <p>
+ * The timeline already orders the batches by tick and time, so finding the row at a position is a binary search and
+ * nothing is built up front. A row's text is only formatted when it is first shown, straight from the packed events,
+ * and kept in a bounded LRU so scrolling back and forth over the same part of a file formats nothing twice.
+ * Formatting is capped at the row's width, so a long SysEx costs no more than a note.
+ * <p>
+ * Not thread-safe, owned by the UI thread.
+ */
+final class TrackerRows {
+    /** The width of a message's column, longer messages push the rest of the row right */
+    static final int MESSAGE_COLUMN = 6;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Timeline timeline;
+    private final int width;
+    private final int timeDigits;
+    /** Row # to its text, in access order */
+    private final LinkedHashMap<Integer, String> cache;
+    private final StringBuilder sb;
+    private long formatted;
+
+    /**
+     * @param width The most characters a row is formatted to
+     * @param cachedRows The most rows kept formatted
+     */
+    TrackerRows(Timeline timeline, int width, int cachedRows) {
+        if (width < 1 || cachedRows < 1) {
+            throw new IllegalArgumentException("width and cachedRows must be greater than 0: width=" + width
+                    + ", cachedRows=" + cachedRows);
+        }
+        this.timeline = timeline;
+        this.width = width;
+        this.timeDigits = digits(Math.round(timeline.durationNanos() / 1e6));
+        this.sb = new StringBuilder(width);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > cachedRows;
+            }
+        };
+    }
+
+    /** The # of rows */
+    int size() {
+        return timeline.batches();
+    }
+
+    /** The time row r plays at, in nanoseconds */
+    long nanos(int row) {
+        return timeline.nanos(timeline.batchStart(row));
+    }
+
+    /** The row playing at a time: the last one at or before it, -1 before the first */
+    int rowAt(long nanos) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (nanos(mid) <= nanos) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+
+    /** The row of a tick: the first one at or after it, {@link #size()} past the last */
+    int rowAtTick(long tick) {
+        int n = timeline.indexAtTick(tick);
+        return n == timeline.size() ? size() : timeline.batchOf(n);
+    }
+
+    /** The text of row r: its time in milliseconds, then every message of the batch in hex */
+    String row(int row) {
+        var text = cache.get(row);
+        if (text == null) {
+            text = format(row);
+            cache.put(row, text);
+        }
+        return text;
+    }
+
+    /** The # of rows formatted so far, cache misses included */
+    long formatted() {
+        return formatted;
+    }
+
+    private String format(int row) {
+        formatted++;
+        sb.setLength(0);
+        long ms = Math.round(nanos(row) / 1e6);
+        for (int i = digits(ms); i < timeDigits; ++i) sb.append('0');
+        sb.append(ms).append(' ');
+        for (int n = timeline.batchStart(row); n < timeline.batchEnd(row) && sb.length() < width; ++n) {
+            sb.append("| ");
+            int start = sb.length();
+            appendMessage(timeline.events(n), timeline.index(n));
+            for (int i = Math.min(sb.length() - start, MESSAGE_COLUMN); i <= MESSAGE_COLUMN; ++i) sb.append(' ');
+        }
+        if (sb.length() < width) sb.append('|');
+        sb.setLength(Math.min(sb.length(), width));
+        return sb.toString();
+    }
+
+    /** Event i as hex, like {@link PackedEvents#message(int)} but without copying it and stopping at the width */
+    private void appendMessage(PackedEvents events, int i) {
+        int word = events.word(i);
+        int status = PackedEvents.status(word);
+        appendHex(status);
+        if (!events.hasPayload(i)) {
+            appendHex(PackedEvents.data1(word));
+            if (events.messageLength(i) > 2) appendHex(PackedEvents.data2(word));
+            return;
+        }
+        if (status == 0xFF) appendHex(PackedEvents.data1(word));
+        byte[] pool = events.pool();
+        int end = events.dataOffset(i) + events.dataLength(i);
+        for (int p = events.dataOffset(i) - events.payloadLenBytes(i); p < end && sb.length() < width; ++p) {
+            appendHex(pool[p] & 0xFF);
+        }
+    }
+
+    private void appendHex(int b) {
+        sb.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0xF]);
+    }
+
+    private static int digits(long n) {
+        int digits = 1;
+        for (n /= 10; n > 0; n /= 10) digits++;
+        return digits;
+    }
+}
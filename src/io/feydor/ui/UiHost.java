@@ -0,0 +1,94 @@
+package io.feydor.ui;
+
+import io.feydor.midi.MidiChannel;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link MidiUi} on its own thread at a fixed frame rate, from the scheduler's published
+ * {@link MidiScheduler.Position} and channel snapshots. It only reads what the timing thread publishes, so drawing
+ * never blocks or slows down playback, and the UI pauses and seeks along with the player.
+ */
+public final class UiHost implements AutoCloseable {
+    private final MidiUi ui;
+    private final MidiScheduler scheduler;
+    private final long frameNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+    /** Reused every frame */
+    private final MidiChannel.Snapshot[] snapshots = new MidiChannel.Snapshot[16];
+
+    /**
+     * Starts drawing right away
+     * @param fps How many frames to draw per second
+     */
+    public UiHost(MidiUi ui, MidiScheduler scheduler, int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("fps must be greater than 0: fps=" + fps);
+        }
+        this.ui = ui;
+        this.scheduler = scheduler;
+        this.frameNanos = 1_000_000_000L / fps;
+        for (int i = 0; i < 16; ++i) {
+            snapshots[i] = new MidiChannel.Snapshot();
+        }
+        this.thread = new Thread(this::run, "midi-ui");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void run() {
+        MidiScheduler.Position showing = null;
+        long nextFrame = System.nanoTime();
+        while (running) {
+            var position = scheduler.position();
+            if (position != null && (showing == null || position.song() != showing.song())) {
+                finish(showing);
+                var song = position.song();
+                System.out.println("Playing: " + song.midi.filename);
+                ui.start(song);
+            }
+            if (position != null) {
+                showing = position;
+                draw(position, position.songNanos(scheduler.clockNanos()));
+            }
+
+            // Frames on a fixed grid, skipping the ones missed rather than catching up
+            nextFrame += frameNanos;
+            long wait = nextFrame - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                nextFrame = System.nanoTime();
+            }
+        }
+        finish(showing);
+    }
+
+    /** Draw the last frame of a file at its end, then stop its UI */
+    private void finish(MidiScheduler.Position showing) {
+        if (showing == null) return;
+        draw(showing, showing.song().timeline.durationNanos());
+        ui.stop();
+    }
+
+    private void draw(MidiScheduler.Position position, long nanos) {
+        var channels = position.channels();
+        for (int i = 0; i < 16; ++i) {
+            channels[i].snapshot(snapshots[i]);
+        }
+        ui.frame(nanos, position.paused(), snapshots);
+    }
+
+    /** Draw the last frame and stop the thread. If interrupted while waiting, returns with the interrupt flag set. */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package io.feydor.ui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A clock that only moves when it is waited on or advanced: waiting for a deadline jumps straight to it.
+ * Playback runs at CPU speed and every event is sent exactly at its deadline, unless a slow sink advances the
+ * clock to simulate the time it takes.
+ */
+public final class VirtualClock implements Clock {
+    private final AtomicLong now;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    public VirtualClock(long startNanos) {
+        this.now = new AtomicLong(startNanos);
+    }
+
+    @Override
+    public long nanoTime() {
+        return now.get();
+    }
+
+    @Override
+    public boolean waitUntil(long deadline, BooleanSupplier wake) {
+        if (wake.getAsBoolean()) return false;
+        now.accumulateAndGet(deadline, Math::max);
+        return true;
+    }
+
+    /** Move the clock forward, e.g. by the time a message takes to send */
+    public void advance(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("A clock can't go back: nanos=" + nanos);
+        }
+        now.addAndGet(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "virtual";
+    }
+}
@@ -0,0 +1,96 @@
+package io.feydor.ui;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * How the timing thread waits for an absolute {@link System#nanoTime()} deadline.
+ * Trades CPU for dispatch jitter: the less the thread gives up the core, the closer to the deadline it wakes.
+ */
+public enum WaitStrategy {
+    /** Thread.sleep the whole wait. Cheapest, but every wakeup is late by the OS timer slack. */
+    SLEEP {
+        @Override
+        public boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                if (wake.getAsBoolean()) return false;
+                // A sleeping thread can't be unparked, so sleep in slices to notice an early wakeup
+                remaining = Math.min(remaining, SLEEP_SLICE_NANOS);
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+            return true;
+        }
+    },
+
+    /** LockSupport.parkNanos until just before the deadline, then spin the rest. The default. */
+    PARK_SPIN {
+        @Override
+        public boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > SPIN_TAIL_NANOS) {
+                if (wake.getAsBoolean()) return false;
+                LockSupport.parkNanos(remaining - SPIN_TAIL_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return spinUntil(deadline, wake);
+        }
+    },
+
+    /** Spin for the whole wait. Lowest jitter but burns a core, only for a dedicated one. */
+    BUSY_SPIN {
+        @Override
+        public boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException {
+            boolean reached = spinUntil(deadline, wake);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            return reached;
+        }
+    };
+
+    /** How long before the deadline PARK_SPIN stops parking, about one OS wakeup latency */
+    private static final long SPIN_TAIL_NANOS = 200_000;
+    /** The longest SLEEP goes without checking for an early wakeup */
+    private static final long SLEEP_SLICE_NANOS = 10_000_000;
+    private static final BooleanSupplier NEVER = () -> false;
+
+    /**
+     * Block until System.nanoTime() reaches deadline
+     * @param deadline An absolute System.nanoTime() value. Returns immediately if it has passed.
+     * @throws InterruptedException When the thread is interrupted while waiting
+     */
+    public void waitUntil(long deadline) throws InterruptedException {
+        waitUntil(deadline, NEVER);
+    }
+
+    /**
+     * Block until System.nanoTime() reaches deadline, or wake turns true. Unpark the waiting thread after setting
+     * what wake checks for it to be noticed right away.
+     * @param deadline An absolute System.nanoTime() value. Returns immediately if it has passed.
+     * @param wake Checked while waiting, ends the wait early when true
+     * @return false when woken early
+     * @throws InterruptedException When the thread is interrupted while waiting
+     */
+    public abstract boolean waitUntil(long deadline, BooleanSupplier wake) throws InterruptedException;
+
+    private static boolean spinUntil(long deadline, BooleanSupplier wake) {
+        while (deadline - System.nanoTime() > 0) {
+            if (wake.getAsBoolean()) return false;
+            Thread.onSpinWait();
+        }
+        return true;
+    }
+
+    /** Parses a command line name: sleep, park or spin */
+    public static WaitStrategy fromName(String name) {
+        return switch (name) {
+            case "sleep" -> SLEEP;
+            case "park" -> PARK_SPIN;
+            case "spin" -> BUSY_SPIN;
+            default -> throw new IllegalArgumentException("Unknown wait strategy: " + name + ". Expected sleep, park or spin");
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package io.feydor.ui;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Renders a song to PCM audio with the JDK's software synthesizer, as fast as the CPU allows.
+ * <p>
+ * Instead of waiting between events, the synthesizer is opened as an audio stream: every event is sent timestamped
+ * with its offset into the song, then the stream is read up to the end of the block. The synthesizer places each
+ * event at its sample offset, so the audio is the same no matter how fast it is read.
+ * <p>
+ * The stream interface lives in a JDK-internal package: the jar's manifest exports it, when running from classes pass
+ * {@code --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED}. Each render opens its own synthesizer, so songs
+ * can be rendered on as many threads as there are cores.
+ */
+public final class WavRenderer {
+    /** CD quality: 44.1kHz, 16-bit signed little-endian stereo */
+    public static final AudioFormat DEFAULT_FORMAT = new AudioFormat(44_100f, 16, 2, true, false);
+    /** The # of frames read from the synthesizer at a time */
+    private static final int BLOCK_FRAMES = 4096;
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final Method OPEN_STREAM = findOpenStream();
+
+    private final AudioFormat format;
+    private final Soundbank soundbank;
+    private final long tailNanos;
+
+    /**
+     * @param format A signed PCM format, such as {@link #DEFAULT_FORMAT}
+     * @param soundbank The instruments to play with, null for the synthesizer's default soundbank
+     * @param tailMs How long to keep rendering past the last event, to let notes ring out
+     */
+    public WavRenderer(AudioFormat format, Soundbank soundbank, long tailMs) {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            throw new IllegalArgumentException("Only signed PCM can be rendered! Given: " + format);
+        }
+        this.format = format;
+        this.soundbank = soundbank;
+        this.tailNanos = tailMs * 1_000_000;
+    }
+
+    /** True when the synthesizer's stream interface is there and exported to this class */
+    public static boolean isSupported() {
+        return OPEN_STREAM != null && OPEN_STREAM.getDeclaringClass().getModule()
+                .isExported(OPEN_STREAM.getDeclaringClass().getPackageName(), WavRenderer.class.getModule());
+    }
+
+    private static Method findOpenStream() {
+        try {
+            return Class.forName("com.sun.media.sound.AudioSynthesizer").getMethod("openStream", AudioFormat.class, Map.class);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /** The # of frames per second of audio */
+    public float frameRate() {
+        return format.getFrameRate();
+    }
+
+    /** The # of frames the song renders to, including the tail */
+    public long frames(PreparedTimeline song) {
+        return framesAt(song.timeline.durationNanos() + tailNanos);
+    }
+
+    /**
+     * Render the song as a WAV file
+     * @return The # of frames written
+     */
+    public long renderWav(PreparedTimeline song, Path wav) throws IOException, MidiUnavailableException {
+        if (format.isBigEndian() && format.getSampleSizeInBits() > 8) {
+            throw new IllegalArgumentException("WAV samples are little-endian! Given: " + format);
+        }
+        try (var out = new BufferedOutputStream(Files.newOutputStream(wav), 1 << 16)) {
+            out.write(wavHeader(frames(song)));
+            return render(song, out);
+        }
+    }
+
+    /**
+     * Render the song as raw PCM samples in this renderer's format
+     * @return The # of frames written
+     * @throws MidiUnavailableException When the synthesizer can't be opened as a stream
+     */
+    public long render(PreparedTimeline song, OutputStream out) throws IOException, MidiUnavailableException {
+        if (!isSupported()) {
+            throw new MidiUnavailableException("The software synthesizer's stream interface is not accessible, "
+                    + "run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+        }
+
+        Synthesizer synth = MidiSystem.getSynthesizer();
+        if (!OPEN_STREAM.getDeclaringClass().isInstance(synth)) {
+            throw new MidiUnavailableException("The default synthesizer can't render offline: " + synth.getDeviceInfo());
+        }
+        AudioInputStream stream;
+        try {
+            stream = (AudioInputStream) OPEN_STREAM.invoke(synth, format, null);
+        } catch (IllegalAccessException e) {
+            throw new MidiUnavailableException(e.getMessage());
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof MidiUnavailableException cause ? cause : new MidiUnavailableException(e.getCause().toString());
+        }
+
+        try (synth; stream) {
+            if (soundbank != null) {
+                synth.unloadAllInstruments(synth.getDefaultSoundbank());
+                synth.loadAllInstruments(soundbank);
+            }
+            Receiver receiver = synth.getReceiver();
+            var timeline = song.timeline;
+            int frameSize = format.getFrameSize();
+            byte[] block = new byte[BLOCK_FRAMES * frameSize];
+            long total = frames(song);
+
+            int n = 0;
+            for (long frame = 0; frame < total; ) {
+                int frames = (int) Math.min(BLOCK_FRAMES, total - frame);
+                long blockEnd = nanosAt(frame + frames);
+                // Queue every event due before the end of the block, the synthesizer places them by timestamp
+                for (; n < timeline.size() && timeline.nanos(n) < blockEnd; ++n) {
+                    MidiMessage message = song.message(n);
+                    if (message != null) {
+                        receiver.send(message, timeline.nanos(n) / 1000);
+                    }
+                }
+                int len = frames * frameSize;
+                for (int read = 0; read < len; ) {
+                    int r = stream.read(block, read, len - read);
+                    if (r < 0) throw new IOException("The synthesizer's stream ended early at frame " + frame);
+                    read += r;
+                }
+                out.write(block, 0, len);
+                frame += frames;
+            }
+            return total;
+        }
+    }
+
+    private long framesAt(long nanos) {
+        return (long) Math.ceil(nanos * (double) format.getFrameRate() / 1e9);
+    }
+
+    private long nanosAt(long frame) {
+        return (long) (frame * 1e9 / format.getFrameRate());
+    }
+
+    /** The canonical 44-byte RIFF header of a PCM WAV file */
+    private byte[] wavHeader(long frames) throws IOException {
+        long dataBytes = frames * format.getFrameSize();
+        if (dataBytes + WAV_HEADER_BYTES - 8 > 0xFFFF_FFFFL) {
+            throw new IOException("The song is too long for a WAV file: " + dataBytes + " bytes of audio");
+        }
+        var header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes()).putInt((int) (dataBytes + WAV_HEADER_BYTES - 8)).put("WAVE".getBytes());
+        header.put("fmt ".getBytes()).putInt(16)
+                .putShort((short) 1) // PCM
+                .putShort((short) format.getChannels())
+                .putInt((int) format.getSampleRate())
+                .putInt((int) format.getFrameRate() * format.getFrameSize())
+                .putShort((short) format.getFrameSize())
+                .putShort((short) format.getSampleSizeInBits());
+        header.put("data".getBytes()).putInt((int) dataBytes);
+        return header.array();
+    }
+}
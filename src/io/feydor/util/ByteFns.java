@@ -7,6 +7,8 @@ import java.util.Arrays;
  * Static functions for working with byte buffers
  */
 public class ByteFns {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Converts a byte array into 2-digit hexadecimal representation.
      * For example, {0xF, 0xF, 0xFF, 0x5} => 0F0FFF05
@@ -22,6 +24,25 @@ public class ByteFns {
         return sb.toString();
     }
 
+    /**
+     * Converts len bytes of a buffer, starting at the absolute offset, into 2-digit hexadecimal representation.
+     * Does not modify the buffer's position.
+     *
+     * @param buf the buffer to read from
+     * @param offset the absolute offset of the first byte
+     * @param len the # of bytes to convert
+     * @return a hexadecimal representation of the bytes
+     */
+    public static String toHex(ByteBuffer buf, int offset, int len) {
+        char[] hex = new char[len * 2];
+        for (int i = 0; i < len; ++i) {
+            int b = buf.get(offset + i) & 0xFF;
+            hex[i * 2] = HEX_DIGITS[b >>> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0xF];
+        }
+        return new String(hex);
+    }
+
     public static byte[] fromHex(String hexString) {
         if (hexString.length() % 2 != 0) {
             throw new IllegalArgumentException("Hexstring must be a valid hexadecimal number (it's length must be even). " + hexString);
@@ -46,55 +67,73 @@ public class ByteFns {
      *                             For example, {0x8F, 0xFF, 0xFF, 0xFF} is Integer.MAX_VALUE + 1 which would wrap back to Intger.MIN_VALUE.
      */
     public static int toUnsignedInt(byte[] buf) {
-        if (buf.length < 4) {
-            buf = widenWithZeros(buf, 4);
+        if (buf.length > 4) {
+            throw new ArithmeticException("Attempting to convert a buffer longer than 4 bytes into an integer.");
         }
-
-        if ((buf[0] & 0xFF) > 0x7F) {
+        if (buf.length == 4 && (buf[0] & 0xFF) > 0x7F) {
             throw new ArithmeticException("Attempting to convert a buffer whose value is greater than Integer.MAX_VALUE.");
         }
 
-        int val = ByteBuffer.wrap(buf).getInt();
-        return (int) (val & 0xffffffffL); // drop sign bit
+        // big-endian, a shorter buffer is zero-extended
+        int val = 0;
+        for (byte b : buf) {
+            val = (val << 8) | (b & 0xFF);
+        }
+        return val;
     }
 
     /**
-     * Converts a byte buffer into an unsigned short
+     * Reads a big-endian unsigned integer at the absolute offset. Does not modify the buffer's position.
      *
-     * @param buf the buffer to convert
-     * @return the unsigned short value of the buffer
-     * @throws ArithmeticException When the provided buffer's upper byte is greater than 0x7F, and so would overflow a short.
+     * @throws ArithmeticException When the 4 bytes represent a value > Integer.MAX_VALUE
      */
-    public static short toUnsignedShort(byte[] buf) {
-        if (buf.length < 2) {
-            buf = widenWithZeros(buf, 2);
+    public static int toUnsignedInt(ByteBuffer buf, int offset) {
+        int val = buf.getInt(offset);
+        if (val < 0) {
+            throw new ArithmeticException("Attempting to convert a buffer whose value is greater than Integer.MAX_VALUE.");
         }
+        return val;
+    }
+
+    /** Reads a big-endian unsigned 3-byte integer at the absolute offset. Does not modify the buffer's position. */
+    public static int toUnsignedInt24(ByteBuffer buf, int offset) {
+        return (buf.get(offset) & 0xFF) << 16 | (buf.get(offset + 1) & 0xFF) << 8 | (buf.get(offset + 2) & 0xFF);
+    }
 
-        if ((buf[0] & 0xFF) > 0x7F) {
+    /**
+     * Reads a big-endian unsigned short at the absolute offset. Does not modify the buffer's position.
+     *
+     * @throws ArithmeticException When the upper byte is greater than 0x7F, and so would overflow a short.
+     */
+    public static short toUnsignedShort(ByteBuffer buf, int offset) {
+        short val = buf.getShort(offset);
+        if (val < 0) {
             throw new ArithmeticException("Attempting to convert a buffer whose value is greater than Short.MAX_VALUE.");
         }
-
-        int val = ByteBuffer.wrap(buf).getShort();
-        return (short) (val & 0xffff); // drop sign bit
+        return val;
     }
 
     /**
-     * Widens a buffer to a target length and zero-extends the most significant bytes.
-     * Example: widenWithZeros([0xFF, 0xFF], 4) => [0, 0, 0xFF, 0xFF]
+     * Converts a byte buffer into an unsigned short
      *
-     * @param buf       The buffer to widen
-     * @param targetLen The length of the widened buffer
-     * @return The buffer widened to targetLength and zero-extended
+     * @param buf the buffer to convert
+     * @return the unsigned short value of the buffer
+     * @throws ArithmeticException When the provided buffer's upper byte is greater than 0x7F, and so would overflow a short.
      */
-    private static byte[] widenWithZeros(byte[] buf, int targetLen) {
-        if (buf.length == targetLen) {
-            return buf;
+    public static short toUnsignedShort(byte[] buf) {
+        if (buf.length > 2) {
+            throw new ArithmeticException("Attempting to convert a buffer longer than 2 bytes into a short.");
+        }
+        if (buf.length == 2 && (buf[0] & 0xFF) > 0x7F) {
+            throw new ArithmeticException("Attempting to convert a buffer whose value is greater than Short.MAX_VALUE.");
         }
 
-        byte[] widened = new byte[targetLen];
-        int offset = targetLen - buf.length;
-        System.arraycopy(buf, 0, widened, offset, buf.length);
-        return widened;
+        // big-endian, a shorter buffer is zero-extended
+        int val = 0;
+        for (byte b : buf) {
+            val = (val << 8) | (b & 0xFF);
+        }
+        return (short) val;
     }
 
     public static String toHex(byte n) {
@@ -5,6 +5,7 @@ import io.feydor.midi.exceptions.InvalidVarLenParseException;
 import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.stream.IntStream;
 
@@ -46,7 +47,70 @@ public class VarLenQuant {
      * @throws InvalidVarLenParseException When more than 4 bytes are used to encode the VarLen
      */
     static public VarLenQuant readBytes(BufferedInputStream file) {
-        return decode(new FileStreamByteIterator(file));
+        int val = 0;
+        short nbytes = 0;
+        int b;
+        do {
+            if (nbytes == MAX_BYTES) {
+                throw new InvalidVarLenParseException("The nbytes in the Varlen representation was greater than 4 bytes!");
+            }
+            try {
+                b = file.read();
+                if (b == -1) throw new EOFException("End of the file reached while attempting to read from it.");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            val = (val << 7) | (b & 0x7f);
+            nbytes++;
+        } while ((b & 0x80) != 0);
+
+        return new VarLenQuant(val, nbytes);
+    }
+
+    /**
+     * Decode a VarLen starting at an absolute offset into a buffer. Does not modify the buffer's position.
+     * @param buf The buffer to read from
+     * @param offset The absolute offset of the first (most significant) byte
+     * @return The value encoded and the # of bytes read to decode it
+     * @throws InvalidVarLenParseException When more than 4 bytes are used to encode the VarLen
+     */
+    static public VarLenQuant decode(ByteBuffer buf, int offset) {
+        int packed = decodePacked(buf, offset);
+        return new VarLenQuant(value(packed), (short) nbytes(packed));
+    }
+
+    /**
+     * Decode a VarLen starting at an absolute offset into a buffer without allocating.
+     * Use {@link #value(int)} and {@link #nbytes(int)} to unpack the result.
+     * @param buf The buffer to read from
+     * @param offset The absolute offset of the first (most significant) byte
+     * @return The value encoded in the low 28 bits and the # of bytes read in the top 4 bits
+     * @throws InvalidVarLenParseException When more than 4 bytes are used to encode the VarLen
+     */
+    static public int decodePacked(ByteBuffer buf, int offset) {
+        int val = 0;
+        int nbytes = 0;
+        int b;
+        do {
+            if (nbytes == MAX_BYTES) {
+                throw new InvalidVarLenParseException("The nbytes in the Varlen representation was greater than 4 bytes!");
+            }
+            b = buf.get(offset + nbytes);
+            val = (val << 7) | (b & 0x7f); // concat the 7 least significant bits
+            nbytes++;
+        } while ((b & 0x80) != 0);
+
+        return nbytes << 28 | val;
+    }
+
+    /** The value of a VarLen packed by {@link #decodePacked(ByteBuffer, int)} */
+    static public int value(int packed) {
+        return packed & 0x0FFFFFFF;
+    }
+
+    /** The # of bytes of a VarLen packed by {@link #decodePacked(ByteBuffer, int)} */
+    static public int nbytes(int packed) {
+        return packed >>> 28;
     }
 
     static public VarLenQuant decode(int[] bytes) {
@@ -119,31 +183,4 @@ public class VarLenQuant {
                 ", nbytes=" + nbytes +
                 '}';
     }
-
-    static class FileStreamByteIterator implements Iterator<Integer> {
-        private final BufferedInputStream file;
-        public FileStreamByteIterator(BufferedInputStream file) {
-            this.file = file;
-        }
-
-        @Override
-        public boolean hasNext() {
-            try {
-                return file.available() > 0;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
-        @Override
-        public Integer next() {
-            try {
-                var ret = file.read();
-                if (ret == -1) throw new EOFException("End of the file reached while attempting to read from it.");
-                return ret;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
 }
@@ -0,0 +1,139 @@
+package io.feydor.midi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiBinaryCacheTest {
+    @TempDir
+    Path tmp;
+
+    Path copyOf(String resource) throws IOException {
+        var copy = tmp.resolve(Path.of(resource).getFileName());
+        return Files.copy(Path.of(resource), copy);
+    }
+
+    static void assertSameModel(Midi expected, Midi actual) {
+        assertEquals(expected.header.format, actual.header.format);
+        assertEquals(expected.header.ntracks, actual.header.ntracks);
+        assertEquals(expected.header.tickdiv, actual.header.tickdiv);
+        assertArrayEquals(expected.channelsUsed, actual.channelsUsed);
+        assertEquals(expected.numTracks(), actual.numTracks());
+        for (int t = 0; t < expected.numTracks(); ++t) {
+            var a = expected.getTracks().get(t);
+            var b = actual.getTracks().get(t);
+            assertEquals(a.len, b.len);
+            assertEquals(a.getTempo(), b.getTempo());
+            assertEquals(a.getTimeSignature(), b.getTimeSignature());
+            assertEquals(a.packedEvents().size(), b.packedEvents().size());
+            for (int i = 0; i < a.packedEvents().size(); ++i) {
+                assertEquals(a.packedEvents().ticks(i), b.packedEvents().ticks(i));
+                assertEquals(a.packedEvents().word(i), b.packedEvents().word(i));
+                assertArrayEquals(a.packedEvents().message(i), b.packedEvents().message(i));
+            }
+        }
+        var tempoMap = expected.tempoMap();
+        assertEquals(tempoMap.size(), actual.tempoMap().size());
+        for (int i = 0; i < tempoMap.size(); ++i) {
+            assertEquals(tempoMap.tick(i), actual.tempoMap().tick(i));
+            assertEquals(tempoMap.tempo(i), actual.tempoMap().tempo(i));
+        }
+    }
+
+    @Test
+    void secondLoadComesFromTheEntry() throws IOException {
+        var cache = new MidiBinaryCache(tmp.resolve("cache"));
+        var source = copyOf("test/resources/bowser_1.mid");
+
+        var parsed = cache.load(source.toString(), false);
+        var cached = cache.load(source.toString(), false);
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        assertSameModel(new Midi(source.toString(), false), parsed);
+        assertSameModel(parsed, cached);
+    }
+
+    @Test
+    void touchedFilesStillHitEditedFilesMiss() throws IOException {
+        var cache = new MidiBinaryCache(tmp.resolve("cache"));
+        var source = copyOf("test/resources/midi_test-c-major-scale.mid");
+        cache.load(source.toString(), false);
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 60_000));
+        cache.load(source.toString(), false);
+        assertEquals(1, cache.hits());
+
+        // Same size, different contents: a quieter first note
+        byte[] bytes = Files.readAllBytes(source);
+        int noteOn = 0;
+        while ((bytes[noteOn] & 0xF0) != 0x90) noteOn++;
+        bytes[noteOn + 2] ^= 0x10;
+        Files.write(source, bytes);
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 120_000));
+        cache.load(source.toString(), false);
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void touchedFilesAreChecksummedOnce() throws IOException {
+        var cache = new MidiBinaryCache(tmp.resolve("cache"));
+        var source = copyOf("test/resources/bowser_1.mid");
+        cache.load(source.toString(), false);
+        assertEquals(1, cache.checksums()); // writing the entry
+
+        Files.setLastModifiedTime(source, FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 60_000));
+        cache.load(source.toString(), false);
+        assertEquals(2, cache.checksums());
+        cache.load(source.toString(), false);
+        assertEquals(2, cache.checksums(), "the entry took the new modified time");
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void corruptEntriesAreRewritten() throws IOException {
+        var cache = new MidiBinaryCache(tmp.resolve("cache"));
+        var source = copyOf("test/resources/bowser_1.mid");
+        cache.load(source.toString(), false);
+
+        var entry = cache.entryFor(source.toAbsolutePath());
+        Files.write(entry, new byte[]{'M', 'C', 'C', 'H', 0, 0}, StandardOpenOption.TRUNCATE_EXISTING);
+        assertSameModel(new Midi(source.toString(), false), cache.load(source.toString(), false));
+        assertEquals(2, cache.misses());
+        assertSameModel(new Midi(source.toString(), false), cache.load(source.toString(), false));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void entriesWithHugeCountsAreParsedAgain() throws IOException {
+        var cache = new MidiBinaryCache(tmp.resolve("cache"));
+        var source = copyOf("test/resources/bowser_1.mid");
+        cache.load(source.toString(), false);
+        var entry = cache.entryFor(source.toAbsolutePath());
+        var bytes = ByteBuffer.wrap(Files.readAllBytes(entry));
+
+        // Find the counts: after the fixed fields, the path, the header and the channels used
+        int tempoMap = 36 + bytes.getInt(32) + Midi.MidiChunk.Header.CHUNK_BYTES + 16;
+        assertEquals(1, bytes.get(tempoMap));
+        int tempoMapSize = tempoMap + 1 + 4;
+        // Then the # of tracks, and the first track's len, tempo and time signature
+        int eventsSize = tempoMapSize + 4 + bytes.getInt(tempoMapSize) * 12 + 4 + 12;
+        assertEquals(new Midi(source.toString(), false).getTracks().get(0).packedEvents().size(), bytes.getInt(eventsSize));
+
+        int misses = 1;
+        for (int count : new int[]{tempoMapSize, eventsSize, 32}) {
+            var corrupt = ByteBuffer.wrap(bytes.array().clone()).putInt(count, Integer.MAX_VALUE - 7);
+            Files.write(entry, corrupt.array());
+            assertSameModel(new Midi(source.toString(), false), cache.load(source.toString(), false));
+            assertEquals(++misses, cache.misses(), "a corrupt count at " + count);
+        }
+    }
+}
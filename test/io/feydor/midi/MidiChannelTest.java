@@ -0,0 +1,131 @@
+package io.feydor.midi;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiChannelTest {
+    @Test
+    void snapshotsAreNeverTorn() throws InterruptedException {
+        var channel = new MidiChannel(1, true);
+        var done = new AtomicBoolean();
+        // Every update sets all the controllers, the program and the pitch bend to the same value
+        var writer = new Thread(() -> {
+            byte[] controllers = new byte[128];
+            for (int i = 0; !done.get(); ++i) {
+                byte value = (byte) (i & 0x7F);
+                Arrays.fill(controllers, value);
+                channel.restore(controllers, 0, value, value);
+            }
+        });
+        writer.start();
+
+        var snapshot = new MidiChannel.Snapshot();
+        try {
+            for (int i = 0; i < 200_000; ++i) {
+                channel.snapshot(snapshot);
+                byte value = snapshot.controllers[0];
+                for (byte controller : snapshot.controllers) {
+                    assertEquals(value, controller);
+                }
+                assertEquals(value, snapshot.program);
+                assertEquals(value, snapshot.pitchBend);
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    void chordsKeepEveryKey() {
+        var channel = new MidiChannel(3, true);
+        var snapshot = channel.snapshot(new MidiChannel.Snapshot());
+        assertEquals(3, snapshot.channel);
+        assertEquals(0, snapshot.voices());
+        assertEquals(-1, snapshot.highestNote());
+        assertEquals(-1, snapshot.lowestNote());
+
+        for (int key : new int[]{60, 64, 67, 100}) {
+            channel.noteOn((byte) key, (byte) (key / 2));
+        }
+        channel.snapshot(snapshot);
+        assertEquals(4, snapshot.voices());
+        assertEquals(60, snapshot.lowestNote());
+        assertEquals(100, snapshot.highestNote());
+        assertEquals(32, snapshot.velocities[64]);
+
+        // Only the key released goes up, velocity 0 counts as a release
+        channel.noteOff((byte) 100);
+        channel.noteOn((byte) 60, (byte) 0);
+        channel.snapshot(snapshot);
+        assertEquals(2, snapshot.voices());
+        assertFalse(snapshot.isNoteOn(60));
+        assertTrue(snapshot.isNoteOn(64));
+        assertEquals(0, snapshot.velocities[60]);
+        assertEquals(64, snapshot.lowestNote());
+        assertEquals(67, snapshot.highestNote());
+
+        // Striking a held key again doesn't add a voice
+        channel.noteOn((byte) 64, (byte) 127);
+        assertEquals(2, channel.snapshot(snapshot).voices());
+        assertEquals(127, snapshot.velocities[64]);
+
+        channel.setController((byte) 123, (byte) 0); // All Notes Off
+        assertEquals(0, channel.snapshot(snapshot).voices());
+    }
+
+    @Test
+    void silenceReleasesKeysAndSustainOnly() {
+        var channel = new MidiChannel(1, true);
+        channel.setController((byte) 64, (byte) 127);
+        channel.setController((byte) 7, (byte) 90);
+        channel.noteOn((byte) 60, (byte) 100);
+        channel.silence();
+
+        var snapshot = channel.snapshot(new MidiChannel.Snapshot());
+        assertEquals(0, snapshot.voices());
+        assertEquals(0, snapshot.controllers[64]);
+        assertEquals(90, snapshot.getVolume());
+        assertEquals(7, snapshot.lastController);
+    }
+
+    @Test
+    void edgeKeysUseBothWords() {
+        var channel = new MidiChannel(1, true);
+        channel.noteOn((byte) 0, (byte) 1);
+        channel.noteOn((byte) 63, (byte) 1);
+        channel.noteOn((byte) 64, (byte) 1);
+        channel.noteOn((byte) 127, (byte) 1);
+        var snapshot = channel.snapshot(new MidiChannel.Snapshot());
+        assertEquals(4, snapshot.voices());
+        assertEquals(0, snapshot.lowestNote());
+        assertEquals(127, snapshot.highestNote());
+        channel.noteOff((byte) 0);
+        channel.noteOff((byte) 127);
+        channel.snapshot(snapshot);
+        assertEquals(63, snapshot.lowestNote());
+        assertEquals(64, snapshot.highestNote());
+    }
+
+    @Test
+    void restoreReplacesTheWholeState() {
+        var channel = new MidiChannel(1, true);
+        channel.setProgram((byte) 19);
+        channel.setController((byte) 7, (byte) 90);
+        byte[] controllers = new byte[128];
+        Arrays.fill(controllers, (byte) -1);
+        controllers[10] = 64;
+        channel.restore(controllers, 0, 0, MidiChannel.PITCH_BEND_CENTER);
+
+        var snapshot = channel.snapshot(new MidiChannel.Snapshot());
+        assertEquals(0, snapshot.program);
+        assertEquals(0, snapshot.getVolume());
+        assertEquals(64, snapshot.controllers[10]);
+        assertEquals(MidiChannel.PITCH_BEND_CENTER, snapshot.pitchBend);
+        assertThrows(IllegalArgumentException.class, () -> channel.restore(controllers, 0, -1, MidiChannel.PITCH_BEND_CENTER));
+    }
+}
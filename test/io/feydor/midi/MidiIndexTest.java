@@ -0,0 +1,75 @@
+package io.feydor.midi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiIndexTest {
+    @TempDir
+    Path tmp;
+
+    @Test
+    void entriesAgreeWithTheParsedModel() throws IOException {
+        var index = MidiIndex.scan(List.of(new File("test/resources")), null);
+        for (var entry : index.entries()) {
+            if (entry.failed()) continue;
+            var midi = new Midi(entry.path(), false);
+            assertEquals(midi.header.ntracks, entry.ntracks());
+            assertEquals(midi.header.tickdiv, entry.tickdiv());
+            assertEquals(midi.header.format.ordinal(), entry.format());
+            long events = midi.getTracks().stream().mapToLong(track -> track.packedEvents().size()).sum();
+            assertEquals(events, entry.events());
+            for (int c = 0; c < 16; ++c) {
+                assertEquals(midi.channelsUsed[c], entry.usesChannel(c + 1), entry.path() + " channel " + (c + 1));
+            }
+            var timeline = new Timeline(midi);
+            assertEquals(timeline.durationNanos() / 1_000_000, entry.durationMs(), entry.path());
+        }
+    }
+
+    @Test
+    void indexRoundTripsAndRescansOnlyChangedFiles() throws IOException {
+        var scale = Files.copy(Path.of("test/resources/midi_test-c-major-scale.mid"), tmp.resolve("scale.mid"));
+        Files.copy(Path.of("test/resources/bowser_1.mid"), tmp.resolve("bowser\twith tab.mid"));
+        var first = MidiIndex.scan(List.of(tmp.toFile()), null);
+        first.write(tmp.resolve("index.tsv"));
+
+        var read = MidiIndex.read(tmp.resolve("index.tsv"));
+        assertEquals(2, read.entries().size());
+        for (var entry : first.entries()) {
+            var copy = read.get(entry.path());
+            assertNotNull(copy, entry.path());
+            assertEquals(entry.durationMs(), copy.durationMs());
+            assertEquals(entry.channels(), copy.channels());
+            assertArrayEquals(entry.programs(), copy.programs());
+            assertEquals(entry.timeSignature(), copy.timeSignature());
+            assertEquals(entry.keySignature(), copy.keySignature());
+        }
+
+        Files.setLastModifiedTime(scale, FileTime.fromMillis(Files.getLastModifiedTime(scale).toMillis() + 60_000));
+        var rescan = MidiIndex.scan(List.of(tmp.toFile()), read);
+        String scalePath = scale.toAbsolutePath().toString();
+        assertNotSame(read.get(scalePath), rescan.get(scalePath));
+        for (var entry : rescan.entries()) {
+            if (!entry.path().equals(scalePath)) {
+                assertSame(read.get(entry.path()), entry);
+            }
+        }
+    }
+
+    @Test
+    void queriesFilterTheEntries() {
+        var index = MidiIndex.scan(List.of(new File("test/resources")), null);
+        var pianos = index.query(entry -> entry.usesProgram(0));
+        assertFalse(pianos.isEmpty());
+        assertTrue(index.query(entry -> entry.format() == 7).isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+package io.feydor.midi;
+
+import io.feydor.midi.exceptions.MidiParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiLibraryTest {
+    String bowser = new File("test/resources/bowser_1.mid").getAbsolutePath();
+    String scale = new File("test/resources/midi_test-c-major-scale.mid").getAbsolutePath();
+
+    @Test
+    void findsMidiFilesRecursively() {
+        var found = MidiLibrary.findMidiFiles(List.of(new File("test")));
+        assertTrue(found.contains(bowser));
+        assertTrue(found.contains(scale));
+        assertEquals(5, found.size());
+        assertTrue(found.stream().allMatch(path -> path.endsWith(".mid")));
+    }
+
+    @Test
+    void filesGivenAreKeptWhateverTheirExtension() {
+        var given = new File("test/resources/varlen.bin");
+        var found = MidiLibrary.findMidiFiles(List.of(given, new File("test/resources")));
+        assertEquals(given.getAbsolutePath(), found.get(0));
+        assertEquals(6, found.size(), "only .mid files from the directory");
+        assertEquals(scale, found.get(4));
+    }
+
+    @Test
+    void cachedFilesAreNotParsedAgain() throws ExecutionException, InterruptedException {
+        try (var library = new MidiLibrary(2, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false)) {
+            var first = library.load(bowser).get();
+            assertTrue(library.isCached(bowser));
+            assertSame(first, library.load(bowser).get());
+        }
+    }
+
+    @Test
+    void concurrentLoadsShareOneParse() throws ExecutionException, InterruptedException {
+        for (int round = 0; round < 50; ++round) {
+            try (var library = new MidiLibrary(4, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false)) {
+                var loads = new ArrayList<CompletableFuture<Midi>>();
+                for (int i = 0; i < 8; ++i) {
+                    loads.add(CompletableFuture.supplyAsync(() -> library.load(scale)).thenCompose(load -> load));
+                }
+                var first = loads.get(0).get();
+                for (var load : loads) {
+                    assertSame(first, load.get());
+                }
+            }
+        }
+    }
+
+    @Test
+    void leastRecentlyUsedFilesAreDroppedOverTheWeight()throws ExecutionException, InterruptedException {
+        try (var library = new MidiLibrary(2, 1, false)) {
+            var first = library.load(bowser).get();
+            library.load(scale).get();
+            assertFalse(library.isCached(bowser));
+            assertTrue(library.isCached(scale)); // the newest file is kept even over the weight
+
+            var reparsed = library.load(bowser).get();
+            assertNotSame(first, reparsed);
+            assertEquals(first.getTracks().size(), reparsed.getTracks().size());
+        }
+    }
+
+    @Test
+    void failedParsesFailTheFuture() {
+        try (var library = new MidiLibrary(1, 1, false)) {
+            var e = assertThrows(ExecutionException.class, () -> library.load("nope.mid").get());
+            assertInstanceOf(MidiParseException.class, e.getCause());
+        }
+    }
+}
@@ -81,50 +81,140 @@ class MidiTest {
 
         // First event: Set Tempo (FF 51 03 tttttt(6 bytes, in ms per MIDI 1/4 note))
         var firstEvent = firstTrack.events.get(0);
-        assertEquals(0, firstEvent.ticks);
-        assertEquals(MidiEventType.META, firstEvent.type);
-        assertEquals(MidiEventSubType.SET_TEMPO, firstEvent.subType);
+        assertEquals(0, firstEvent.ticks());
+        assertEquals(MidiEventType.META, firstEvent.type());
+        assertEquals(MidiEventSubType.SET_TEMPO, firstEvent.subType());
         assertEquals(6, firstEvent.nbytes());
-        assertEquals("FF5103061A80", firstEvent.message);
+        assertEquals("FF5103061A80", firstEvent.message());
 
         // Verify that the last event in the first track is the End of Track event (0xff, 0x2f, 0x00)
         var lastEvent = firstTrack.events.get(firstTrack.events.size()-1);
-        assertEquals(MidiEventType.META, lastEvent.type);
-        assertEquals(MidiEventSubType.END_OF_TRACK, lastEvent.subType);
+        assertEquals(MidiEventType.META, lastEvent.type());
+        assertEquals(MidiEventSubType.END_OF_TRACK, lastEvent.subType());
         assertEquals(3, lastEvent.nbytes());
-        assertEquals("FF2F00", lastEvent.message);
+        assertEquals("FF2F00", lastEvent.message());
 
         // TODO: Verify at least one of each type of event
         // Look through the events of the second track, these should be mostly MIDI events
         var secondTrack = midi.getTracks().get(1);
-        assertEquals("FF210100", secondTrack.events.get(0).message);
-        assertEquals("FF200100", secondTrack.events.get(1).message);
-        assertEquals("B00767", secondTrack.events.get(2).message);
-        assertEquals("B00A40", secondTrack.events.get(3).message);
-        assertEquals("C013", secondTrack.events.get(4).message);
+        assertEquals("FF210100", secondTrack.events.get(0).message());
+        assertEquals("FF200100", secondTrack.events.get(1).message());
+        assertEquals("B00767", secondTrack.events.get(2).message());
+        assertEquals("B00A40", secondTrack.events.get(3).message());
+        assertEquals("C013", secondTrack.events.get(4).message());
 
         // Note events
-        assertEquals("905164", secondTrack.events.get(5).message); // First Note On
-        assertEquals(0, secondTrack.events.get(5).ticks);
+        assertEquals("905164", secondTrack.events.get(5).message()); // First Note On
+        assertEquals(0, secondTrack.events.get(5).ticks());
 
-        assertEquals("904564", secondTrack.events.get(6).message);
-        assertEquals(0x0c, secondTrack.events.get(6).ticks);
+        assertEquals("904564", secondTrack.events.get(6).message());
+        assertEquals(0x0c, secondTrack.events.get(6).ticks());
 
-        assertEquals("805150", secondTrack.events.get(7).message); // First Note Off
-        assertEquals(0x023c, secondTrack.events.get(7).ticks);
+        assertEquals("805150", secondTrack.events.get(7).message()); // First Note Off
+        assertEquals(0x023c, secondTrack.events.get(7).ticks());
 
-        assertEquals("805150", secondTrack.events.get(7).message);
-        assertEquals(0x023c, secondTrack.events.get(7).ticks);
+        assertEquals("805150", secondTrack.events.get(7).message());
+        assertEquals(0x023c, secondTrack.events.get(7).ticks());
 
-        assertEquals("905464", secondTrack.events.get(8).message);
-        assertEquals(0, secondTrack.events.get(8).ticks);
+        assertEquals("905464", secondTrack.events.get(8).message());
+        assertEquals(0, secondTrack.events.get(8).ticks());
 
-        assertEquals("804550", secondTrack.events.get(9).message);
-        assertEquals(0x0c, secondTrack.events.get(9).ticks);
+        assertEquals("804550", secondTrack.events.get(9).message());
+        assertEquals(0x0c, secondTrack.events.get(9).ticks());
 
-        assertEquals("904864", secondTrack.events.get(10).message);
-        assertEquals("905764", secondTrack.events.get(11).message);
-        assertEquals("805450", secondTrack.events.get(12).message);
+        assertEquals("904864", secondTrack.events.get(10).message());
+        assertEquals("905764", secondTrack.events.get(11).message());
+        assertEquals("805450", secondTrack.events.get(12).message());
+    }
+
+    @Test
+    void packedEventsMatchTheEventViews() throws IOException {
+        Midi midi = new Midi(testFile);
+        var secondTrack = midi.getTracks().get(1);
+        var packed = secondTrack.packedEvents();
+        assertEquals(secondTrack.events.size(), packed.size());
+
+        // First Note On: 90 51 64
+        int word = packed.word(5);
+        assertEquals(0x90, PackedEvents.status(word));
+        assertEquals(0x51, PackedEvents.data1(word));
+        assertEquals(0x64, PackedEvents.data2(word));
+        assertFalse(packed.hasPayload(5));
+
+        // Program change: C0 13
+        assertEquals(0xC0, PackedEvents.status(packed.word(4)));
+        assertEquals(0x13, PackedEvents.data1(packed.word(4)));
+        assertEquals(2, packed.messageLength(4));
+
+        // Meta events keep their payload in the pool: FF 21 01 00
+        assertTrue(packed.hasPayload(0));
+        assertEquals(0x21, PackedEvents.data1(packed.word(0)));
+        assertEquals(1, packed.dataLength(0));
+        assertEquals(0, packed.pool()[packed.dataOffset(0)]);
+
+        // Set Tempo: FF 51 03 06 1A 80
+        var tempo = midi.getTracks().get(0).events.get(0).parseAsMetaEvent();
+        assertArrayEquals(new byte[]{0x06, 0x1A, (byte) 0x80}, tempo.data());
+    }
+
+    @Test
+    void lazyMidiOnlyDecodesTheTracksThatAreAccessed() throws IOException {
+        Midi midi = new Midi(testFile, false, true);
+        assertTrue(midi.isLazy());
+        assertEquals(0x000d, midi.header.ntracks);
+        assertEquals(13, midi.getTracks().size());
+        assertEquals(3895, midi.getTracks().get(1).len);
+        assertTrue(midi.getTracks().stream().noneMatch(Midi.MidiChunk.Track::isLoaded));
+
+        // Only the first track is decoded
+        var firstTrack = midi.getTracks().get(0);
+        assertEquals(6, firstTrack.events.size());
+        assertTrue(firstTrack.isLoaded());
+        assertEquals(0x061A80, firstTrack.getTempo());
+        assertFalse(midi.getTracks().get(1).isLoaded());
+
+        // Released tracks are decoded again on the next access
+        var secondTrack = midi.getTracks().get(1);
+        assertEquals("905164", secondTrack.events.get(5).message());
+        assertTrue(secondTrack.release());
+        assertFalse(secondTrack.isLoaded());
+        assertEquals(950, secondTrack.events.size());
+        assertEquals(0x061A80, secondTrack.getTempo());
+
+        // Same result as an eager parse once everything is loaded
+        Midi eager = new Midi(testFile, false);
+        midi.loadAllTracks();
+        assertArrayEquals(eager.channelsUsed, midi.channelsUsed);
+        assertEquals(eager.hexdump(), midi.hexdump());
+        assertFalse(eager.getTracks().get(0).release());
+    }
+
+    @Test
+    void streamMergesTheTracksInTimeOrder() throws IOException {
+        Midi midi = new Midi(testFile, false);
+        int[] nextEventByTrack = new int[midi.numTracks()];
+        long[] ticksByTrack = new long[midi.numTracks()];
+        long prevTick = 0;
+        int nevents = 0;
+
+        try (var stream = Midi.openStream(testFile)) {
+            assertEquals(midi.header.ntracks, stream.header.ntracks);
+            while (stream.hasNext()) {
+                var event = stream.next();
+                assertTrue(event.tick() >= prevTick);
+                prevTick = event.tick();
+
+                // Every track's events come out in their own order and at their own absolute tick
+                var expected = midi.getTracks().get(event.trackNum()).events.get(nextEventByTrack[event.trackNum()]++);
+                ticksByTrack[event.trackNum()] += expected.ticks();
+                assertEquals(ticksByTrack[event.trackNum()], event.tick());
+                assertEquals(expected.subType(), event.subType());
+                assertEquals(expected.status(), event.status());
+                nevents++;
+            }
+        }
+
+        assertEquals(midi.getTracks().stream().mapToInt(track -> track.events.size()).sum(), nevents);
     }
 
     @Test
@@ -141,7 +231,7 @@ class MidiTest {
         assertEquals(1, midi.getTracks().size());
         assertEquals(MidiIdentifier.MTrk, midi.getTracks().get(0).id);
         assertEquals(4, midi.getTracks().get(0).len);
-        assertEquals(MidiEventSubType.END_OF_TRACK, midi.getTracks().get(0).events.get(0).subType);
+        assertEquals(MidiEventSubType.END_OF_TRACK, midi.getTracks().get(0).events.get(0).subType());
     }
 
     @Test
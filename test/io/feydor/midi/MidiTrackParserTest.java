@@ -0,0 +1,120 @@
+package io.feydor.midi;
+
+import io.feydor.util.VarLenQuant;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiTrackParserTest {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    String testFile = "test/resources/bowser_1.mid";
+
+    private static ByteBuffer map(String filename) throws IOException {
+        try (var channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** The absolute offset of the first event of track n, found by hopping over the chunk headers */
+    private static int trackOffset(ByteBuffer file, int n) {
+        int pos = Midi.MidiChunk.Header.CHUNK_BYTES;
+        for (int i = 0; i < n; ++i) {
+            pos += 8 + file.getInt(pos + 4);
+        }
+        return pos + 8;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    void parserMatchesTheTrackModel() throws IOException {
+        var file = map(testFile);
+        var midi = new Midi(testFile, false);
+        var track = midi.getTracks().get(1);
+
+        var parser = new MidiTrackParser(file, trackOffset(file, 1), track.len, 1, false);
+        int i = 0;
+        while (parser.next()) {
+            var event = track.events.get(i++);
+            assertEquals(event.ticks(), parser.ticks);
+            assertEquals(event.type(), parser.type);
+            assertEquals(event.subType(), parser.subType);
+            assertEquals(event.status(), parser.status);
+            assertEquals(event.runningStatus(), parser.runningStatus);
+        }
+        assertEquals(track.events.size(), i);
+        assertEquals(track.len, parser.bytesRead());
+    }
+
+    @Test
+    void parsingATrackDoesNotAllocatePerEvent() throws IOException {
+        var file = map(testFile);
+        int trackNum = 10; // 3387 events
+        int offset = trackOffset(file, trackNum);
+        int len = file.getInt(offset - 4);
+        var parser = new MidiTrackParser(file, offset, len, trackNum, false);
+        var events = new PackedEvents(len);
+        var channelsUsed = new boolean[16];
+
+        // warm up and size the storage, then parse again into the same storage
+        parser.parseInto(events, channelsUsed);
+        assertEquals(3387, events.size());
+        events.clear();
+        parser.reset();
+
+        long before = allocatedBytes();
+        parser.parseInto(events, channelsUsed);
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(3387, events.size());
+        assertTrue(allocated < 1024, "Parsing " + events.size() + " events allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void primitiveDecodeDoesNotAllocate() {
+        var buf = ByteBuffer.wrap(new byte[]{(byte) 0x81, (byte) 0x80, (byte) 0x80, 0, (byte) 0x90, 0x40, 0x7F});
+
+        long before = allocatedBytes();
+        int sum = 0;
+        for (int i = 0; i < 100_000; ++i) {
+            int vlq = VarLenQuant.decodePacked(buf, 0);
+            sum += VarLenQuant.value(vlq) + VarLenQuant.nbytes(vlq);
+            sum += MidiEventType.fromStatus(buf.get(4) & 0xFF).ordinal() + MidiEventType.dataBytes(buf.get(4) & 0xFF);
+            sum += MidiEventSubType.fromStatusNibble((byte) 0x9).ordinal();
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(100_000 * (0x00200000 + 4 + MidiEventType.MIDI.ordinal() + 2 + MidiEventSubType.NOTE_ON.ordinal()), sum);
+        assertTrue(allocated < 1024, "Decoding allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void statusTablesClassifyEveryByte() {
+        assertEquals(MidiEventType.UNKNOWN, MidiEventType.fromStatus(0x7F));
+        assertEquals(MidiEventType.MIDI, MidiEventType.fromStatus(0x80));
+        assertEquals(MidiEventType.MIDI, MidiEventType.fromStatus(0xEF));
+        assertEquals(MidiEventType.SYSEX, MidiEventType.fromStatus(0xF0));
+        assertEquals(MidiEventType.SYSEX, MidiEventType.fromStatus(0xF7));
+        assertEquals(MidiEventType.UNKNOWN, MidiEventType.fromStatus(0xF8));
+        assertEquals(MidiEventType.META, MidiEventType.fromStatus(0xFF));
+
+        assertEquals(2, MidiEventType.dataBytes(0x9F));
+        assertEquals(1, MidiEventType.dataBytes(0xC3));
+        assertEquals(0, MidiEventType.dataBytes(0xFF));
+
+        assertEquals(MidiEventSubType.SET_TEMPO, MidiEventSubType.fromTypeByte((short) 0x51));
+        assertEquals(MidiEventSubType.UNKNOWN, MidiEventSubType.fromTypeByte((short) 0x50));
+        assertEquals(MidiEventSubType.PITCH_BEND, MidiEventSubType.fromStatusNibble((byte) 0xE));
+    }
+}
@@ -0,0 +1,75 @@
+package io.feydor.midi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TempoMapTest {
+    static final int TICKDIV = 96;
+
+    /** A conductor track: a SET_TEMPO every (dt, tempo) pair */
+    static PackedEvents conductor(int... dtsAndTempos) {
+        var events = new PackedEvents(dtsAndTempos.length / 2);
+        for (int i = 0; i < dtsAndTempos.length; i += 2) {
+            int tempo = dtsAndTempos[i + 1];
+            var payload = ByteBuffer.wrap(new byte[]{3, (byte) (tempo >> 16), (byte) (tempo >> 8), (byte) tempo});
+            events.addPayloadEvent(dtsAndTempos[i], 1, 0xFF, 0x51, payload, 0, 4);
+        }
+        return events;
+    }
+
+    @Test
+    void defaultTempoWithoutTempoEvents() {
+        var map = new TempoMap(new PackedEvents(0), TICKDIV);
+        assertEquals(1, map.size());
+        assertEquals(TempoMap.DEFAULT_TEMPO, map.tempoAt(12345));
+        assertEquals(500_000_000_000L, map.tickToNanos(TICKDIV * 1000L));
+    }
+
+    @Test
+    void convertsAcrossTempoChanges() {
+        // 1 beat at 120 BPM, then 2 beats at 60 BPM, then 240 BPM
+        var map = new TempoMap(conductor(0, 500_000, TICKDIV, 1_000_000, 2 * TICKDIV, 250_000), TICKDIV);
+        assertEquals(3, map.size());
+
+        assertEquals(0, map.tickToNanos(0));
+        assertEquals(500_000_000L, map.tickToNanos(TICKDIV));
+        assertEquals(1_500_000_000L, map.tickToNanos(2 * TICKDIV));
+        assertEquals(2_500_000_000L, map.tickToNanos(3 * TICKDIV));
+        assertEquals(2_750_000_000L, map.tickToNanos(4 * TICKDIV));
+
+        for (long tick = 0; tick < 6 * TICKDIV; ++tick) {
+            assertEquals(tick, map.nanosToTick(map.tickToNanos(tick)));
+        }
+        assertEquals(1_000_000, map.tempoAt(2 * TICKDIV));
+        assertEquals(250_000, map.tempoAt(3 * TICKDIV));
+    }
+
+    @Test
+    void lastOfSimultaneousChangesWins() {
+        var map = new TempoMap(conductor(0, 400_000, 0, 600_000, TICKDIV, 300_000, 0, 200_000), TICKDIV);
+        assertEquals(2, map.size());
+        assertEquals(600_000, map.tempoAt(0));
+        assertEquals(200_000, map.tempoAt(TICKDIV));
+        assertEquals(600_000_000L, map.tickToNanos(TICKDIV));
+    }
+
+    @Test
+    void midiTimesFollowTheTempoMap() throws IOException {
+        Midi midi = new Midi("test/resources/bowser_1.mid", false);
+        var map = midi.tempoMap();
+        assertEquals(midi.getTracks().get(0).getTempo(), map.tempoAt(0));
+        assertEquals(map.msPerTick(0), midi.msPerTick());
+
+        var track = midi.getTracks().get(1);
+        track.updateAbsoluteTimes(map);
+        long tick = 0;
+        for (var event : track.events) {
+            tick += event.ticks();
+            assertEquals(map.tickToNanos(tick) / 1_000_000.0, event.absoluteTime());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.feydor.midi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimelineTest {
+    String testFile = "test/resources/bowser_1.mid";
+
+    @Test
+    void mergesEveryTrackInTickOrder() throws IOException {
+        Midi midi = new Midi(testFile, false);
+        var timeline = new Timeline(midi);
+
+        assertEquals(midi.getTracks().stream().mapToInt(track -> track.events.size()).sum(), timeline.size());
+        int[] nextIndex = new int[midi.numTracks()];
+        long[] ticksByTrack = new long[midi.numTracks()];
+        for (int n = 0; n < timeline.size(); ++n) {
+            if (n > 0) {
+                assertTrue(timeline.tick(n) >= timeline.tick(n - 1));
+                assertTrue(timeline.nanos(n) >= timeline.nanos(n - 1));
+            }
+            int trackNum = timeline.trackNum(n);
+            assertEquals(nextIndex[trackNum]++, timeline.index(n));
+            ticksByTrack[trackNum] += timeline.events(n).ticks(timeline.index(n));
+            assertEquals(ticksByTrack[trackNum], timeline.tick(n));
+        }
+    }
+
+    @Test
+    void batchesGroupEventsThatShareATick() throws IOException {
+        var timeline = new Timeline(new Midi(testFile, false));
+
+        assertEquals(0, timeline.batchStart(0));
+        assertEquals(timeline.size(), timeline.batchEnd(timeline.batches() - 1));
+        for (int b = 0; b < timeline.batches(); ++b) {
+            assertTrue(timeline.batchStart(b) < timeline.batchEnd(b));
+            for (int n = timeline.batchStart(b); n < timeline.batchEnd(b); ++n) {
+                assertEquals(timeline.tick(timeline.batchStart(b)), timeline.tick(n));
+            }
+            if (b > 0) {
+                assertTrue(timeline.tick(timeline.batchStart(b)) > timeline.tick(timeline.batchStart(b) - 1));
+            }
+        }
+    }
+
+    @Test
+    void timesFollowTheTempo() throws IOException {
+        Midi midi = new Midi(testFile, false);
+        var timeline = new Timeline(midi);
+
+        // Up to the first tempo change after the start, every event is timed at the file's first tempo
+        int tempo = midi.getTracks().get(0).getTempo();
+        for (int n = 0; n < timeline.size(); ++n) {
+            var events = timeline.events(n);
+            int word = events.word(timeline.index(n));
+            if (timeline.tick(n) > 0 && PackedEvents.status(word) == 0xFF && PackedEvents.data1(word) == 0x51) {
+                break;
+            }
+            assertEquals(timeline.tick(n) * tempo * 1000 / midi.header.tickdiv, timeline.nanos(n));
+        }
+    }
+}
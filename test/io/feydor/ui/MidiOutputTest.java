@@ -0,0 +1,132 @@
+package io.feydor.ui;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiOutputTest {
+
+    /** Records every message, after waiting for the gate to open */
+    static class GatedReceiver implements Receiver {
+        final List<MidiMessage> received = new CopyOnWriteArrayList<>();
+        final List<Long> timestamps = new CopyOnWriteArrayList<>();
+        final CountDownLatch gate;
+
+        GatedReceiver(boolean open) {
+            this.gate = new CountDownLatch(open ? 0 : 1);
+        }
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            received.add(message);
+            timestamps.add(timeStamp);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    static ShortMessage noteOn(int note) throws InvalidMidiDataException {
+        return new ShortMessage(ShortMessage.NOTE_ON, 0, note, 100);
+    }
+
+    @Test
+    void deliversEveryMessageInOrder() throws InvalidMidiDataException {
+        var downstream = new GatedReceiver(true);
+        var output = new MidiOutput(downstream, 8, MidiOutput.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 1000; ++i) {
+            output.send(noteOn(i % 128), i);
+        }
+        output.close();
+
+        assertEquals(1000, downstream.received.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i % 128, ((ShortMessage) downstream.received.get(i)).getData1());
+            assertEquals(i, downstream.timestamps.get(i));
+        }
+    }
+
+    @Test
+    void failPolicyThrowsWhenFull() throws InvalidMidiDataException {
+        var downstream = new GatedReceiver(false);
+        var output = new MidiOutput(downstream, 4, MidiOutput.OverflowPolicy.FAIL);
+        // The output thread holds one message while it waits on the gate, the ring holds 4 more
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i < 6; ++i) {
+                output.send(noteOn(i), -1);
+            }
+        });
+        downstream.gate.countDown();
+        output.close();
+    }
+
+    static ShortMessage cc(int controller, int value) throws InvalidMidiDataException {
+        return new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, controller, value);
+    }
+
+    /** The values of one controller, in the order they were received */
+    static List<Integer> values(GatedReceiver downstream, int controller) {
+        return downstream.received.stream()
+                .filter(msg -> msg.getStatus() == ShortMessage.CONTROL_CHANGE && ((ShortMessage) msg).getData1() == controller)
+                .map(msg -> ((ShortMessage) msg).getData2())
+                .toList();
+    }
+
+    @Test
+    void coalesceCcNeverBlocksAndKeepsTheLatestLevel() throws InvalidMidiDataException {
+        var downstream = new GatedReceiver(false);
+        var output = new MidiOutput(downstream, 8, MidiOutput.OverflowPolicy.COALESCE_CC);
+        // The output thread holds one message at the gate, the ring holds 8 more, the rest overflows
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < 9; ++i) {
+                output.send(noteOn(i), -1);
+            }
+            for (int value = 0; value < 100; ++value) {
+                output.send(cc(7, value), -1); // a volume sweep
+            }
+            output.send(cc(64, 127), -1); // sustain on and off
+            output.send(cc(64, 0), -1);
+            output.send(cc(101, 0), -1); // pitch bend range: RPN 0,0 then data entry
+            output.send(cc(100, 0), -1);
+            output.send(cc(6, 12), -1);
+            output.send(noteOn(9), -1);
+        });
+        downstream.gate.countDown();
+        output.close();
+
+        var notes = downstream.received.stream()
+                .filter(msg -> msg.getStatus() == ShortMessage.NOTE_ON)
+                .map(msg -> ((ShortMessage) msg).getData1())
+                .toList();
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), notes);
+        assertEquals(List.of(99), values(downstream, 7));
+        assertEquals(99, output.coalesced());
+        assertEquals(List.of(127, 0), values(downstream, 64));
+        assertEquals(List.of(0), values(downstream, 101));
+        assertEquals(List.of(12), values(downstream, 6));
+    }
+
+    @Test
+    void onlyLevelControllersAreCoalesced() throws InvalidMidiDataException {
+        assertEquals(3 * 128 + 7, MidiOutput.coalescingKey(new ShortMessage(ShortMessage.CONTROL_CHANGE, 3, 7, 0)));
+        assertEquals(10, MidiOutput.coalescingKey(cc(10, 64)));
+        for (int controller : new int[]{0, 6, 32, 38, 64, 96, 98, 99, 100, 101, 120, 121, 123, 127}) {
+            assertEquals(-1, MidiOutput.coalescingKey(cc(controller, 0)), "controller=" + controller);
+        }
+        assertEquals(-1, MidiOutput.coalescingKey(noteOn(60)));
+    }
+}
@@ -0,0 +1,335 @@
+package io.feydor.ui;
+
+import io.feydor.midi.Midi;
+import io.feydor.midi.MidiLibrary;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MidiSchedulerTest {
+    String scale = new File("test/resources/midi_test-c-major-scale.mid").getAbsolutePath();
+    String bowser = new File("test/resources/bowser_1.mid").getAbsolutePath();
+
+    /** Play the files on a virtual clock and read back the log */
+    static List<MessageLog.Entry> play(List<String> files, double rate, MidiSink sink, ByteArrayOutputStream out, VirtualClock clock) throws Exception {
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        var scheduler = new MidiScheduler(null, files, sink, false, clock, null, 0, library);
+        scheduler.setRate(rate);
+        scheduler.scheduleEventsAndWait(false);
+        return MessageLog.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    static List<MessageLog.Entry> play(List<String> files, double rate) throws Exception {
+        var clock = new VirtualClock();
+        var out = new ByteArrayOutputStream();
+        return play(files, rate, new MessageLog(out, clock), out, clock);
+    }
+
+    @Test
+    void everyMessageIsSentInOrderAtItsDeadline() throws Exception {
+        var log = play(List.of(scale, bowser), 1.0);
+
+        long offset = 0;
+        int e = 0;
+        for (var file : List.of(scale, bowser)) {
+            var song = new PreparedTimeline(new Midi(file, false));
+            var timeline = song.timeline;
+            for (int n = 0; n < timeline.size(); ++n) {
+                MidiMessage message = song.message(n);
+                if (message == null) continue;
+                var entry = log.get(e++);
+                assertEquals(offset + timeline.nanos(n), entry.dueNanos(), file + " event " + n);
+                assertEquals(0, entry.errorNanos());
+                assertArrayEquals(message.getMessage(), entry.message());
+            }
+            offset += timeline.durationNanos(); // the next file follows without a gap
+        }
+        assertEquals(e, log.size());
+    }
+
+    @Test
+    void theRateScalesTheDeadlines() throws Exception {
+        var log = play(List.of(scale), 2.0);
+        var timeline = new PreparedTimeline(new Midi(scale, false)).timeline;
+        var last = log.get(log.size() - 1);
+        assertEquals(timeline.nanos(timeline.size() - 1) / 2, last.dueNanos(), 1);
+    }
+
+    @Test
+    void aRateChangeInAGapCarriesOnFromWhereTheSongIs() throws Exception {
+        var song = new PreparedTimeline(new Midi(scale, false));
+        var songTimes = new ArrayList<Long>(); // of every message sent, in order
+        for (int n = 0; n < song.timeline.size(); ++n) {
+            if (song.message(n) != null) songTimes.add(song.timeline.nanos(n));
+        }
+        long before = songTimes.get(9);
+        long after = songTimes.stream().filter(t -> t > before).findFirst().orElseThrow();
+
+        var clock = new VirtualClock();
+        var out = new ByteArrayOutputStream();
+        var log = new MessageLog(out, clock);
+        var scheduler = new MidiScheduler[1];
+        // Halfway to the next batch after the 10th message, switch from 1x to 2x
+        MidiSink switcher = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                log.send(message, timestamp, dueNanos);
+                if (log.count() == 10) {
+                    clock.advance((after - before) / 2);
+                    scheduler[0].setRate(2);
+                }
+            }
+
+            @Override
+            public void close() {
+                log.close();
+            }
+        };
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        scheduler[0] = new MidiScheduler(null, List.of(scale), switcher, false, clock, null, 0, library);
+        scheduler[0].scheduleEventsAndWait(false);
+
+        var entries = MessageLog.read(new ByteArrayInputStream(out.toByteArray()));
+        var next = entries.stream().filter(e -> e.dueNanos() > before).findFirst().orElseThrow();
+        // Half the gap at 1x, the other half at 2x
+        assertEquals(before + (after - before) / 2 + (after - before) / 4, next.dueNanos(), 1);
+    }
+
+    @Test
+    void lookaheadTimestampsEachBatchOneWindowAfterItIsSent() throws Exception {
+        var clock = new VirtualClock();
+        // A device whose clock is the virtual clock, in microseconds
+        var device = (MidiDevice) Proxy.newProxyInstance(MidiDevice.class.getClassLoader(), new Class<?>[]{MidiDevice.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getMicrosecondPosition" -> clock.nanoTime() / 1000;
+                    case "isOpen" -> true;
+                    default -> null;
+                });
+        var sent = new CopyOnWriteArrayList<long[]>();
+        MidiSink sink = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                sent.add(new long[]{timestamp, device.getMicrosecondPosition()});
+            }
+
+            @Override
+            public void close() {}
+        };
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        var scheduler = new MidiScheduler(null, List.of(scale), sink, false, clock, device, 50, library);
+        scheduler.scheduleEventsAndWait(false);
+
+        assertFalse(sent.isEmpty());
+        for (long[] message : sent) {
+            assertEquals(50_000, message[0] - message[1], 1, "timestamp minus the device's clock at send");
+        }
+    }
+
+    @Test
+    void aPauseInLookaheadModeSilencesAfterWhatIsQueued() throws Exception {
+        var clock = new VirtualClock();
+        var device = (MidiDevice) Proxy.newProxyInstance(MidiDevice.class.getClassLoader(), new Class<?>[]{MidiDevice.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getMicrosecondPosition" -> clock.nanoTime() / 1000;
+                    case "isOpen" -> true;
+                    default -> null;
+                });
+        var sent = new CopyOnWriteArrayList<long[]>(); // of each message: its controller or -1, and its timestamp
+        var scheduler = new MidiScheduler[1];
+        MidiSink pauser = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                boolean cc = message.getStatus() >> 4 == 0xB;
+                sent.add(new long[]{cc ? message.getMessage()[1] : -1, timestamp});
+                if (sent.size() == 10) scheduler[0].pause();
+            }
+
+            @Override
+            public void close() {}
+        };
+        var ui = new RecordingUi();
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        scheduler[0] = new MidiScheduler(ui, List.of(scale), pauser, false, clock, device, 50, library);
+        scheduler[0].setUiFrameRate(200);
+        var playing = CompletableFuture.runAsync(() -> {
+            try {
+                scheduler[0].scheduleEventsAndWait(false);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        ui.pausedFrame.get(10, TimeUnit.SECONDS);
+        scheduler[0].resume();
+        playing.get(10, TimeUnit.SECONDS);
+
+        // The rest of the batch goes out before the pause
+        int start = 10;
+        while (sent.get(start)[0] < 0) start++;
+        long queued = sent.subList(0, start).stream().mapToLong(message -> message[1]).max().orElseThrow();
+        var silence = sent.subList(start, start + 32);
+        for (long[] message : silence) {
+            assertTrue(message[0] == 64 || message[0] == 123);
+            assertEquals(silence.get(0)[1], message[1]);
+        }
+        assertTrue(silence.get(0)[1] >= queued, "the silence is timestamped after the notes already queued");
+        assertTrue(sent.get(start + 32)[0] < 0);
+    }
+
+    @Test
+    void aSlowSinkShowsUpAsTimingError() throws Exception {
+        var clock = new VirtualClock();
+        var out = new ByteArrayOutputStream();
+        var log = new MessageLog(out, clock);
+        // Every message takes 1ms to send
+        MidiSink slow = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                log.send(message, timestamp, dueNanos);
+                clock.advance(1_000_000);
+            }
+
+            @Override
+            public void close() {
+                log.close();
+            }
+        };
+        var entries = play(List.of(scale), 1.0, slow, out, clock);
+
+        assertEquals(0, entries.get(0).errorNanos());
+        assertTrue(entries.stream().allMatch(entry -> entry.errorNanos() >= 0));
+        // Within a batch, each message goes out 1ms after the one before
+        int sameBatch = 0;
+        for (int i = 1; i < entries.size(); ++i) {
+            if (entries.get(i).dueNanos() == entries.get(i - 1).dueNanos()) {
+                assertEquals(entries.get(i - 1).errorNanos() + 1_000_000, entries.get(i).errorNanos());
+                sameBatch++;
+            }
+        }
+        assertTrue(sameBatch > 0);
+    }
+
+    @Test
+    void theSinkIsClosedWhenPlaybackFails() throws Exception {
+        var closed = new CompletableFuture<Void>();
+        MidiSink failing = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                throw new IllegalStateException("the device went away");
+            }
+
+            @Override
+            public void close() {
+                closed.complete(null);
+            }
+        };
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        var scheduler = new MidiScheduler(new RecordingUi(), List.of(scale), failing, false, new VirtualClock(), null, 0, library);
+
+        var e = assertThrows(Exception.class, () -> scheduler.scheduleEventsAndWait(false));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertTrue(closed.isDone());
+    }
+
+    @Test
+    void logRoundTripsLargeAndNegativeNumbers() throws Exception {
+        var clock = new VirtualClock(5_000_000_000L);
+        var out = new ByteArrayOutputStream();
+        var log = new MessageLog(out, clock);
+        var message = new javax.sound.midi.ShortMessage(0x90, 60, 100);
+        log.send(message, -1, 7_000_000_000L); // sent 2s early
+        log.send(message, -1, 1L << 40);
+        log.close();
+
+        var entries = MessageLog.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, entries.size());
+        assertEquals(-2_000_000_000L, entries.get(0).errorNanos());
+        assertEquals(1L << 40, entries.get(1).dueNanos());
+        assertEquals(0x90, entries.get(1).status());
+    }
+
+    /** Records what the UI host calls, from the host's thread */
+    static class RecordingUi implements MidiUi {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Long> pausedFrame = new CompletableFuture<>();
+        volatile long lastFrame = -1;
+
+        @Override
+        public void start(PreparedTimeline song) {
+            calls.add("start " + new File(song.midi.filename).getName());
+        }
+
+        @Override
+        public void frame(long positionNanos, boolean paused, io.feydor.midi.MidiChannel.Snapshot[] channels) {
+            assertEquals(16, channels.length);
+            lastFrame = positionNanos;
+            if (paused) pausedFrame.complete(positionNanos);
+        }
+
+        @Override
+        public void stop() {
+            calls.add("stop " + lastFrame);
+        }
+    }
+
+    @Test
+    void pauseHoldsThePositionAndTheUiFollows() throws Exception {
+        var clock = new VirtualClock();
+        var out = new ByteArrayOutputStream();
+        var log = new MessageLog(out, clock);
+        var ui = new RecordingUi();
+        var library = new MidiLibrary(1, MidiLibrary.DEFAULT_MAX_CACHED_EVENTS, false);
+        var scheduler = new MidiScheduler[1];
+        // Pause from the timing thread itself once the 10th message is sent, so the pause point is deterministic
+        MidiSink pauser = new MidiSink() {
+            @Override
+            public void send(MidiMessage message, long timestamp, long dueNanos) {
+                log.send(message, timestamp, dueNanos);
+                if (log.count() == 10) scheduler[0].pause();
+            }
+
+            @Override
+            public void close() {
+                log.close();
+            }
+        };
+        scheduler[0] = new MidiScheduler(ui, List.of(scale), pauser, false, clock, null, 0, library);
+        scheduler[0].setUiFrameRate(200);
+        var playing = CompletableFuture.runAsync(() -> {
+            try {
+                scheduler[0].scheduleEventsAndWait(false);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        long pausedAt = ui.pausedFrame.get(10, TimeUnit.SECONDS);
+        var position = scheduler[0].position();
+        assertTrue(position.paused());
+        assertEquals(pausedAt, position.songNanos(clock.nanoTime() + 5_000_000_000L), "a paused song doesn't move");
+        assertFalse(playing.isDone());
+
+        scheduler[0].resume();
+        playing.get(10, TimeUnit.SECONDS);
+
+        var entries = MessageLog.read(new ByteArrayInputStream(out.toByteArray()));
+        // Sustain off and all notes off on every channel at the pause
+        long allNotesOff = entries.stream().filter(e -> e.status() >> 4 == 0xB && e.message()[1] == 123).count();
+        assertEquals(16, allNotesOff);
+        long sustainOff = entries.stream().filter(e -> e.status() >> 4 == 0xB && e.message()[1] == 64 && e.message()[2] == 0).count();
+        assertEquals(16, sustainOff);
+        long duration = new PreparedTimeline(new Midi(scale, false)).timeline.durationNanos();
+        assertEquals(List.of("start midi_test-c-major-scale.mid", "stop " + duration), ui.calls);
+    }
+}
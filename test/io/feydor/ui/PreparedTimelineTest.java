@@ -0,0 +1,122 @@
+package io.feydor.ui;
+
+import io.feydor.midi.Midi;
+import io.feydor.midi.MidiChannel;
+import io.feydor.midi.PackedEvents;
+import io.feydor.midi.Timeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedTimelineTest {
+
+    @Test
+    void everyEventIsRenderedUpFront() throws IOException, InvalidMidiDataException {
+        var song = new PreparedTimeline(new Midi("test/resources/bowser_1.mid", false));
+        var timeline = song.timeline;
+
+        for (int n = 0; n < timeline.size(); ++n) {
+            var events = timeline.events(n);
+            int i = timeline.index(n);
+            int status = PackedEvents.status(events.word(i));
+            var msg = song.message(n);
+            if (status == 0xFF) {
+                assertNull(msg);
+                continue;
+            }
+            assertEquals(status, msg.getStatus());
+            if (status < 0xF0) {
+                // Channel messages are sent exactly as they are stored
+                assertArrayEquals(Arrays.copyOf(events.message(i), msg.getLength()), msg.getMessage());
+            }
+        }
+    }
+
+    /** Collects the bytes of every message sent */
+    static class RecordingReceiver implements Receiver {
+        final List<String> sent = new ArrayList<>();
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            sent.add(Arrays.toString(message.getMessage()));
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Test
+    void seekRestoresTheSameStateAsReplayingFromTheStart() throws IOException, InvalidMidiDataException {
+        var midi = new Midi("test/resources/midi_test-all-gm-sounds.mid", false);
+        var timeline = new Timeline(midi);
+        var snapshotted = new PreparedTimeline(midi, timeline, midi.header.tickdiv);
+        var replayed = new PreparedTimeline(midi, timeline, Long.MAX_VALUE); // one snapshot, at the start
+
+        long lastTick = timeline.tick(timeline.size() - 1);
+        for (long tick = 0; tick <= lastTick + 1; tick += Math.max(1, lastTick / 37)) {
+            var expected = new RecordingReceiver();
+            var actual = new RecordingReceiver();
+            int n = replayed.seek(tick, expected, null);
+            assertEquals(n, snapshotted.seek(tick, actual, null));
+            assertEquals(expected.sent, actual.sent, "tick=" + tick);
+            assertTrue(n == timeline.size() || timeline.tick(n) >= tick);
+        }
+    }
+
+    @Test
+    void seekingBeforeTheFirstProgramChangeRestoresTheDefaultProgram() throws IOException, InvalidMidiDataException {
+        var song = new PreparedTimeline(new Midi("test/resources/midi_test-all-gm-sounds.mid", false));
+        var channels = new MidiChannel[16];
+        for (int i = 0; i < 16; ++i) {
+            channels[i] = new MidiChannel(i + 1, true);
+            channels[i].setProgram((byte) 42); // what was playing before the seek
+        }
+
+        var receiver = new RecordingReceiver();
+        song.seek(0, receiver, channels);
+        for (int channel = 0; channel < 16; ++channel) {
+            assertTrue(receiver.sent.contains(Arrays.toString(new byte[]{(byte) (0xC0 | channel), 0})), "channel=" + channel);
+            assertEquals(0, channels[channel].snapshot(new MidiChannel.Snapshot()).program);
+        }
+    }
+
+    @Test
+    void seekReplaysEachParameterAsSelectThenDataEntry(@TempDir Path tmp) throws IOException, InvalidMidiDataException {
+        // Pitch bend sensitivity of 12 semitones (RPN 0,0), then the null RPN and volume, then a note at tick 480
+        byte[] events = {
+                0x00, (byte) 0xB0, 101, 0, 0x00, (byte) 0xB0, 100, 0,
+                0x00, (byte) 0xB0, 6, 12, 0x00, (byte) 0xB0, 38, 0,
+                0x00, (byte) 0xB0, 101, 127, 0x00, (byte) 0xB0, 100, 127,
+                0x00, (byte) 0xB0, 7, 100,
+                (byte) 0x83, 0x60, (byte) 0x90, 60, 100,
+                0x00, (byte) 0xFF, 0x2F, 0x00,
+        };
+        var file = ByteBuffer.allocate(14 + 8 + events.length)
+                .put("MThd".getBytes()).putInt(6).putShort((short) 0).putShort((short) 1).putShort((short) 480)
+                .put("MTrk".getBytes()).putInt(events.length).put(events);
+        Path path = Files.write(tmp.resolve("rpn.mid"), file.array());
+        var song = new PreparedTimeline(new Midi(path.toString(), false));
+
+        var receiver = new RecordingReceiver();
+        song.seek(480, receiver, null);
+        var parameters = receiver.sent.stream()
+                .filter(sent -> sent.startsWith("[-80, ") && List.of(6, 38, 98, 99, 100, 101)
+                        .contains(Integer.parseInt(sent.split(", ")[1])))
+                .toList();
+        assertEquals(List.of("[-80, 101, 0]", "[-80, 100, 0]", "[-80, 6, 12]", "[-80, 38, 0]",
+                "[-80, 101, 127]", "[-80, 100, 127]"), parameters);
+        assertTrue(receiver.sent.contains("[-80, 7, 100]"));
+    }
+}
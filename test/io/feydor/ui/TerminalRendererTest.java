@@ -0,0 +1,83 @@
+package io.feydor.ui;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TerminalRendererTest {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    String written() {
+        String s = out.toString(StandardCharsets.UTF_8);
+        out.reset();
+        return s;
+    }
+
+    @Test
+    void firstFrameReservesTheLinesAndDrawsEverything() {
+        var renderer = new TerminalRenderer(10, 2, out, 1000);
+        renderer.put(0, 0, "hello", TerminalRenderer.DEFAULT);
+        renderer.putInt(1, 0, 42, 4, TerminalRenderer.DEFAULT);
+        renderer.presentNow();
+        String frame = written();
+        assertTrue(frame.startsWith("\n\n"));
+        assertTrue(frame.contains("hello"));
+        assertTrue(frame.contains("0042"));
+        assertTrue(frame.endsWith("\033[1B"), "the cursor rests below the block");
+    }
+
+    @Test
+    void onlyChangedCellsAreSent() {
+        var renderer = new TerminalRenderer(40, 3, out, 1000);
+        renderer.put(1, 0, "the quick brown fox jumps over the dog", TerminalRenderer.DEFAULT);
+        renderer.presentNow();
+        written();
+
+        renderer.presentNow();
+        assertEquals("", written(), "nothing changed, nothing sent");
+
+        renderer.put(1, 16, "b", TerminalRenderer.DEFAULT);
+        renderer.presentNow();
+        // Up 2 lines, right 16 columns, the cell, then back down below the block
+        assertEquals("\033[2A\033[16Cb\033[2B\r", written());
+    }
+
+    @Test
+    void nearbyChangesAreJoinedAndStylesSwitchOnlyWhenNeeded() {
+        var renderer = new TerminalRenderer(20, 1, out, 1000);
+        renderer.put(0, 0, "aaaaaaaaaa", TerminalRenderer.DEFAULT);
+        renderer.presentNow();
+        written();
+
+        renderer.put(0, 0, "b", TerminalRenderer.DEFAULT);
+        renderer.put(0, 3, "b", TerminalRenderer.DEFAULT);
+        renderer.fill(0, 6, 2, ' ', TerminalRenderer.BG_GREEN);
+        renderer.presentNow();
+        assertEquals("\033[1A" + "baab" + "aa" + Terminal.STYLES[TerminalRenderer.BG_GREEN] + "  "
+                + Terminal.STYLES[TerminalRenderer.DEFAULT] + "\033[1B\r", written());
+    }
+
+    @Test
+    void framesAreCappedAtTheMaxRate() {
+        var renderer = new TerminalRenderer(10, 1, out, 1);
+        renderer.put(0, 0, "one", TerminalRenderer.DEFAULT);
+        assertTrue(renderer.present());
+        renderer.put(0, 0, "two", TerminalRenderer.DEFAULT);
+        assertFalse(renderer.present(), "a second frame within a second is skipped");
+        written();
+        renderer.presentNow();
+        assertTrue(written().contains("two"));
+    }
+
+    @Test
+    void textIsClippedAtTheRightEdge() {
+        var renderer = new TerminalRenderer(5, 1, out, 1000);
+        assertEquals(5, renderer.put(0, 2, "abcdef", TerminalRenderer.DEFAULT));
+        assertEquals(5, renderer.putTime(0, 0, 3_723_000, TerminalRenderer.DEFAULT));
+        renderer.presentNow();
+        assertTrue(written().contains("01:02"));
+    }
+}
@@ -0,0 +1,68 @@
+package io.feydor.ui;
+
+import io.feydor.midi.Midi;
+import io.feydor.midi.Timeline;
+import io.feydor.util.ByteFns;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackerRowsTest {
+
+    @Test
+    void rowsAreTheBatchesFormattedLikeTheirMessages() throws IOException {
+        var timeline = new Timeline(new Midi("test/resources/bowser_1.mid", false));
+        var rows = new TrackerRows(timeline, 4096, 16);
+        int timeDigits = String.valueOf(Math.round(timeline.durationNanos() / 1e6)).length();
+
+        assertEquals(timeline.batches(), rows.size());
+        for (int row = 0; row < rows.size(); ++row) {
+            var sb = new StringBuilder(String.format("%0" + timeDigits + "d ", Math.round(rows.nanos(row) / 1e6)));
+            for (int n = timeline.batchStart(row); n < timeline.batchEnd(row); ++n) {
+                String message = ByteFns.toHex(timeline.events(n).message(timeline.index(n)));
+                sb.append("| ").append(message).append(" ".repeat(Math.max(TrackerRows.MESSAGE_COLUMN - message.length(), 0) + 1));
+            }
+            assertEquals(sb.append('|').toString(), rows.row(row));
+        }
+    }
+
+    @Test
+    void rowsAreFoundByTimeAndTick() throws IOException {
+        var timeline = new Timeline(new Midi("test/resources/bowser_1.mid", false));
+        var rows = new TrackerRows(timeline, 80, 16);
+
+        assertEquals(-1, rows.rowAt(-1));
+        for (int row = 0; row < rows.size(); ++row) {
+            assertEquals(row, rows.rowAt(rows.nanos(row)));
+            assertEquals(row - 1, rows.rowAt(rows.nanos(row) - 1));
+            assertEquals(row, rows.rowAtTick(timeline.tick(timeline.batchStart(row))));
+        }
+        assertEquals(rows.size() - 1, rows.rowAt(Long.MAX_VALUE));
+        assertEquals(rows.size(), rows.rowAtTick(Long.MAX_VALUE));
+        assertEquals(0, rows.formatted(), "looking rows up formats nothing");
+    }
+
+    @Test
+    void rowsAreCappedAtTheWidthAndCachedInAnLru() throws IOException {
+        var timeline = new Timeline(new Midi("test/resources/bowser_1.mid", false));
+        var rows = new TrackerRows(timeline, 20, 2);
+
+        for (int row = 0; row < rows.size(); ++row) {
+            assertTrue(rows.row(row).length() <= 20);
+        }
+        long formatted = rows.formatted();
+        assertEquals(rows.size(), formatted);
+
+        rows.row(0);
+        rows.row(1);
+        rows.row(0); // the most recently used
+        assertEquals(formatted + 2, rows.formatted());
+        rows.row(2); // evicts row 1
+        assertSame(rows.row(0), rows.row(0));
+        assertEquals(formatted + 3, rows.formatted());
+        rows.row(1);
+        assertEquals(formatted + 4, rows.formatted());
+    }
+}
@@ -0,0 +1,45 @@
+package io.feydor.ui;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaitStrategyTest {
+
+    @Test
+    void everyStrategyWaitsUntilTheDeadline() throws InterruptedException {
+        for (var strategy : WaitStrategy.values()) {
+            long deadline = System.nanoTime() + 2_000_000;
+            strategy.waitUntil(deadline);
+            assertTrue(System.nanoTime() - deadline >= 0, strategy + " returned before the deadline");
+        }
+    }
+
+    @Test
+    void passedDeadlinesReturnImmediately() throws InterruptedException {
+        for (var strategy : WaitStrategy.values()) {
+            long start = System.nanoTime();
+            strategy.waitUntil(start - 1_000_000_000L);
+            assertTrue(System.nanoTime() - start < 100_000_000L, strategy.toString());
+        }
+    }
+
+    @Test
+    void latenessIgnoresEarlyDispatches() {
+        var lateness = new Lateness();
+        lateness.record(-500);
+        lateness.record(2_000_000);
+        assertEquals(2, lateness.count());
+        assertEquals(1000.0, lateness.meanMicros());
+        assertEquals(2000.0, lateness.maxMicros());
+        assertEquals(1, lateness.overOneMs());
+    }
+
+    @Test
+    void namesParse() {
+        assertEquals(WaitStrategy.SLEEP, WaitStrategy.fromName("sleep"));
+        assertEquals(WaitStrategy.PARK_SPIN, WaitStrategy.fromName("park"));
+        assertEquals(WaitStrategy.BUSY_SPIN, WaitStrategy.fromName("spin"));
+        assertThrows(IllegalArgumentException.class, () -> WaitStrategy.fromName("nap"));
+    }
+}
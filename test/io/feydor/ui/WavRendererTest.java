@@ -0,0 +1,59 @@
+package io.feydor.ui;
+
+import io.feydor.midi.Midi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class WavRendererTest {
+    @TempDir
+    Path tmp;
+
+    @BeforeEach
+    void needsTheStreamInterface() {
+        assumeTrue(WavRenderer.isSupported(), "needs --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+    }
+
+    @Test
+    void wavHasTheSongsLengthPlusTheTail() throws Exception {
+        var song = new PreparedTimeline(new Midi("test/resources/midi_test-c-major-scale.mid", false));
+        var renderer = new WavRenderer(WavRenderer.DEFAULT_FORMAT, null, 500);
+        var wav = tmp.resolve("scale.wav");
+
+        long start = System.nanoTime();
+        long frames = renderer.renderWav(song, wav);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(Math.ceil((song.timeline.durationNanos() + 500_000_000L) * 44_100 / 1e9), frames, 1);
+        try (var in = AudioSystem.getAudioInputStream(wav.toFile())) {
+            assertEquals(frames, in.getFrameLength());
+            assertEquals(WavRenderer.DEFAULT_FORMAT.getFrameSize(), in.getFormat().getFrameSize());
+            // Not silent
+            byte[] audio = in.readAllBytes();
+            boolean loud = false;
+            for (int i = 0; i < audio.length && !loud; i += 2) {
+                loud = Math.abs((short) (audio[i] & 0xFF | audio[i + 1] << 8)) > 1000;
+            }
+            assertTrue(loud);
+        }
+        assertTrue(elapsedMs < song.timeline.durationNanos() / 1_000_000, "faster than realtime: " + elapsedMs + "ms");
+    }
+
+    @Test
+    void renderingIsDeterministic() throws Exception {
+        var song = new PreparedTimeline(new Midi("test/resources/midi_test-c-major-scale.mid", false));
+        var renderer = new WavRenderer(WavRenderer.DEFAULT_FORMAT, null, 100);
+        var first = new ByteArrayOutputStream();
+        var second = new ByteArrayOutputStream();
+        renderer.render(song, first);
+        renderer.render(song, second);
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+    }
+}